@@ -0,0 +1,424 @@
+package com.kabu.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * candidates_YYYY-MM-DD.csv 的快速读取器：直接在字节上切字段、解析数字，写进列式数组。
+ * - 大文件 memory-map，小文件（日常单日文件通常只有几十 KB）整块读进堆内 buffer，解析逻辑相同
+ * - 多个文件并行解析，再按 symbol 归并成按日期升序的列
+ * - 也接受 TrendScreener 同时写出的 .kbc（见 CandidateColumnarFile），直接按列读取
+ *
+ * 字段顺序与 TrendScreener.writeCsv 一致：
+ * Symbol,Name,Date,Close,SMA10,SMA20,SMA50,52WHigh,Dist52W,VolMA20,TurnoverMA20,Trigger20H,TodayVol,Signal
+ *
+ * 兼容 Java 11。
+ */
+public final class CandidateArchiveReader {
+
+    private CandidateArchiveReader() {}
+
+    static final int MIN_FIELDS = 14;
+    static final long MMAP_MIN_BYTES = 256 * 1024;  // 小于此大小直接读入堆内存（映射的固定开销更大）
+
+    // 信号编码（列里存 byte）
+    public static final byte SIG_NONE = 0, SIG_SETUP = 1, SIG_BREAKOUT = 2, SIG_REB10D = 3, SIG_OTHER = 4;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** 单个文件的列式数据（行序 = 文件行序） */
+    public static final class FileColumns {
+        public Path file;
+        public LocalDate fileDate;
+        public int n;
+        public String[] symbol, name;
+        public int[] date;                 // epochDay
+        public byte[] signal;
+        public String[] signalText;        // 原始信号文本（SIG_OTHER 时有用）
+        public double[] close, sma10, sma20, sma50, high52w, dist52w, volMA20, turnMA20, trigger20h, todayVol;
+
+        FileColumns(int cap) { alloc(cap); }
+
+        private void alloc(int cap) {
+            symbol = new String[cap]; name = new String[cap];
+            date = new int[cap]; signal = new byte[cap]; signalText = new String[cap];
+            close = new double[cap]; sma10 = new double[cap]; sma20 = new double[cap]; sma50 = new double[cap];
+            high52w = new double[cap]; dist52w = new double[cap]; volMA20 = new double[cap];
+            turnMA20 = new double[cap]; trigger20h = new double[cap]; todayVol = new double[cap];
+        }
+
+        private void ensure(int cap) {
+            if (cap <= symbol.length) return;
+            int c = Math.max(cap, symbol.length * 2);
+            symbol = Arrays.copyOf(symbol, c); name = Arrays.copyOf(name, c);
+            date = Arrays.copyOf(date, c); signal = Arrays.copyOf(signal, c); signalText = Arrays.copyOf(signalText, c);
+            close = Arrays.copyOf(close, c); sma10 = Arrays.copyOf(sma10, c); sma20 = Arrays.copyOf(sma20, c);
+            sma50 = Arrays.copyOf(sma50, c); high52w = Arrays.copyOf(high52w, c); dist52w = Arrays.copyOf(dist52w, c);
+            volMA20 = Arrays.copyOf(volMA20, c); turnMA20 = Arrays.copyOf(turnMA20, c);
+            trigger20h = Arrays.copyOf(trigger20h, c); todayVol = Arrays.copyOf(todayVol, c);
+        }
+    }
+
+    /** 某只股票跨文件归并后的列（按文件日期升序） */
+    public static final class SymbolColumns {
+        public String symbol, name;        // name 取最新一行
+        public int n;
+        public int[] fileDay, date;        // 文件日期 / 行内日期（epochDay）
+        public byte[] signal;
+        public double[] close, sma10, sma20, sma50, dist52w, volMA20, trigger20h, todayVol;
+
+        SymbolColumns(String symbol, int cap) {
+            this.symbol = symbol;
+            fileDay = new int[cap]; date = new int[cap]; signal = new byte[cap];
+            close = new double[cap]; sma10 = new double[cap]; sma20 = new double[cap]; sma50 = new double[cap];
+            dist52w = new double[cap]; volMA20 = new double[cap]; trigger20h = new double[cap]; todayVol = new double[cap];
+        }
+    }
+
+    // ========= 读取 =========
+
+    /** 并行读取多个文件；返回顺序与入参一致 */
+    public static List<FileColumns> readAll(List<Path> files) throws IOException {
+        if (files.isEmpty()) return Collections.emptyList();
+        if (files.size() == 1) return Collections.singletonList(readFile(files.get(0)));
+
+        int threads = Math.min(files.size(), Math.max(2, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<FileColumns>> futures = new ArrayList<>(files.size());
+            for (Path f : files) futures.add(pool.submit(() -> readFile(f)));
+
+            List<FileColumns> out = new ArrayList<>(files.size());
+            for (Future<FileColumns> fu : futures) {
+                try {
+                    out.add(fu.get());
+                } catch (ExecutionException e) {
+                    Throwable c = e.getCause();
+                    if (c instanceof IOException) throw (IOException) c;
+                    throw new IOException(c);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("读取被中断", e);
+                }
+            }
+            return out;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** 读单个文件为列式数据；日期列解析失败时回落到文件名日期。.kbc 直接按列读取，无需解析文本 */
+    public static FileColumns readFile(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(CandidateColumnarFile.SUFFIX)) return readColumnar(file);
+        LocalDate fileDate = dateFromFileName(file);
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size >= MMAP_MIN_BYTES) {
+                buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && ch.read(buf) >= 0) { /* 读满 */ }
+                buf.flip();
+            }
+        }
+        return parse(buf, file, fileDate);
+    }
+
+    /** 从 .kbc 取列：只解码 FileColumns 需要的列（ADX/DI/ATR 等不读） */
+    static FileColumns readColumnar(Path file) throws IOException {
+        CandidateColumnarFile kbc = CandidateColumnarFile.open(file);
+        FileColumns fc = new FileColumns(0);
+        fc.file = file;
+        fc.fileDate = dateFromFileName(file);
+        fc.n = kbc.rowCount();
+        fc.symbol     = kbc.str(CandidateColumnarFile.C_SYMBOL);
+        fc.name       = kbc.str(CandidateColumnarFile.C_NAME);
+        fc.date       = kbc.i32(CandidateColumnarFile.C_DATE);
+        fc.signalText = kbc.cat(CandidateColumnarFile.C_SIGNAL);
+        fc.signal     = new byte[fc.n];
+        for (int i = 0; i < fc.n; i++) fc.signal[i] = signalCode(fc.signalText[i]);
+        fc.close      = kbc.f64(CandidateColumnarFile.C_CLOSE);
+        fc.sma10      = kbc.f64(CandidateColumnarFile.C_SMA10);
+        fc.sma20      = kbc.f64(CandidateColumnarFile.C_SMA20);
+        fc.sma50      = kbc.f64(CandidateColumnarFile.C_SMA50);
+        fc.high52w    = kbc.f64(CandidateColumnarFile.C_HIGH52W);
+        fc.dist52w    = kbc.f64(CandidateColumnarFile.C_DIST52W);
+        fc.volMA20    = kbc.f64(CandidateColumnarFile.C_VOLMA20);
+        fc.turnMA20   = kbc.f64(CandidateColumnarFile.C_TURNMA20);
+        fc.trigger20h = kbc.f64(CandidateColumnarFile.C_TRIGGER20H);
+        fc.todayVol   = kbc.f64(CandidateColumnarFile.C_TODAYVOL);
+        return fc;
+    }
+
+    /**
+     * 同进程交接：TrendScreener 刚算好的行直接转成列，不经文件。
+     * 数值按 CSV 各列的格式取整、名称同样去逗号，与读回同一天的 CSV/.kbc 完全一致，内存交接与按文件排名结果相同。
+     */
+    public static FileColumns fromRows(List<TrendScreener.CsvRow> rows, LocalDate fileDate) {
+        FileColumns fc = new FileColumns(Math.max(1, rows.size()));
+        fc.fileDate = fileDate;
+        fc.n = rows.size();
+        for (int i = 0; i < fc.n; i++) {
+            TrendScreener.CsvRow r = rows.get(i);
+            fc.symbol[i] = r.symbol == null ? "" : r.symbol;
+            fc.name[i] = TrendScreener.csvSafe(r.name);
+            int day;
+            try { day = (int) LocalDate.parse(r.date).toEpochDay(); } catch (Exception e) { day = (int) fileDate.toEpochDay(); }
+            fc.date[i] = day;
+            fc.signalText[i] = r.signal == null ? "" : r.signal;
+            fc.signal[i] = signalCode(fc.signalText[i]);
+            fc.close[i] = TrendScreener.csvRound(r.close, 2);    fc.sma10[i] = TrendScreener.csvRound(r.sma10, 2);
+            fc.sma20[i] = TrendScreener.csvRound(r.sma20, 2);    fc.sma50[i] = TrendScreener.csvRound(r.sma50, 2);
+            fc.high52w[i] = TrendScreener.csvRound(r.high52w, 2); fc.dist52w[i] = TrendScreener.csvRound(r.dist52w, 3);
+            fc.volMA20[i] = TrendScreener.csvRound(r.volMA20, 0); fc.turnMA20[i] = TrendScreener.csvRound(r.turnMA20, 0);
+            fc.trigger20h[i] = TrendScreener.csvRound(r.trigger20h, 2); fc.todayVol[i] = TrendScreener.csvRound(r.todayVol, 0);
+        }
+        return fc;
+    }
+
+    static FileColumns parse(ByteBuffer b, Path file, LocalDate fileDate) {
+        int limit = b.limit();
+        FileColumns fc = new FileColumns(Math.max(16, limit / 96)); // 每行约 100 字节
+        fc.file = file;
+        fc.fileDate = fileDate;
+        int fallbackDay = LocalDate.MIN.equals(fileDate) ? Integer.MIN_VALUE : (int) fileDate.toEpochDay();
+
+        int[] fs = new int[MIN_FIELDS];   // 字段起点
+        int[] fe = new int[MIN_FIELDS];   // 字段终点（不含）
+        int pos = 0;
+        boolean header = true;
+        int prevDateAt = -1, prevDay = fallbackDay;  // 同一文件里日期几乎都相同：与上一行字节一致就复用
+
+        while (pos < limit) {
+            int eol = pos;
+            while (eol < limit && b.get(eol) != '\n') eol++;
+            int ls = pos, le = eol;
+            pos = eol + 1;
+
+            if (header) { header = false; continue; }  // 跳表头
+            // trim（含 \r）
+            while (ls < le && blank(b.get(ls))) ls++;
+            while (le > ls && blank(b.get(le - 1))) le--;
+            if (ls >= le) continue;
+
+            // 切前 14 个字段
+            int nf = 0, s = ls;
+            for (int i = ls; i <= le && nf < MIN_FIELDS; i++) {
+                if (i == le || b.get(i) == ',') {
+                    fs[nf] = s; fe[nf] = i; nf++;
+                    s = i + 1;
+                }
+            }
+            if (nf < MIN_FIELDS) continue;
+
+            int r = fc.n;
+            fc.ensure(r + 1);
+            String sym       = str(b, fs[0], fe[0]);
+            fc.symbol[r]     = sym;
+            fc.name[r]       = sameBytes(b, fs[0], fe[0], fs[1], fe[1]) ? sym : str(b, fs[1], fe[1]); // 名称常与代码相同
+            if (prevDateAt >= 0 && sameBytes(b, prevDateAt, prevDateAt + 10, fs[2], fe[2])) {
+                fc.date[r] = prevDay;
+            } else {
+                fc.date[r] = parseDay(b, fs[2], fe[2], fallbackDay);
+                if (fe[2] - fs[2] == 10) { prevDateAt = fs[2]; prevDay = fc.date[r]; }
+            }
+            fc.close[r]      = parseD(b, fs[3], fe[3]);
+            fc.sma10[r]      = parseD(b, fs[4], fe[4]);
+            fc.sma20[r]      = parseD(b, fs[5], fe[5]);
+            fc.sma50[r]      = parseD(b, fs[6], fe[6]);
+            fc.high52w[r]    = parseD(b, fs[7], fe[7]);
+            fc.dist52w[r]    = parseD(b, fs[8], fe[8]);
+            fc.volMA20[r]    = parseD(b, fs[9], fe[9]);
+            fc.turnMA20[r]   = parseD(b, fs[10], fe[10]);
+            fc.trigger20h[r] = parseD(b, fs[11], fe[11]);
+            fc.todayVol[r]   = parseD(b, fs[12], fe[12]);
+            byte code        = signalCode(b, fs[13], fe[13]);
+            fc.signal[r]     = code;
+            fc.signalText[r] = (code == SIG_OTHER) ? str(b, fs[13], fe[13]) : SIGNAL_TEXT[code];
+            fc.n++;
+        }
+        return fc;
+    }
+
+    // ========= 按 symbol 归并 =========
+
+    /** 把多个文件（须按文件日期升序）归并成 symbol -> 列；两遍：先计数再填充，不产生逐行对象 */
+    public static Map<String, SymbolColumns> mergeBySymbol(List<FileColumns> files) {
+        Map<String, int[]> counts = new HashMap<>();
+        for (FileColumns fc : files) {
+            for (int i = 0; i < fc.n; i++) counts.computeIfAbsent(fc.symbol[i], k -> new int[1])[0]++;
+        }
+        Map<String, SymbolColumns> out = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<String, int[]> e : counts.entrySet()) {
+            out.put(e.getKey(), new SymbolColumns(e.getKey(), e.getValue()[0]));
+        }
+        for (FileColumns fc : files) {
+            int fday = LocalDate.MIN.equals(fc.fileDate) ? Integer.MIN_VALUE : (int) fc.fileDate.toEpochDay();
+            for (int i = 0; i < fc.n; i++) {
+                SymbolColumns sc = out.get(fc.symbol[i]);
+                int k = sc.n++;
+                sc.name = fc.name[i];
+                sc.fileDay[k] = fday;
+                sc.date[k] = fc.date[i];
+                sc.signal[k] = fc.signal[i];
+                sc.close[k] = fc.close[i];
+                sc.sma10[k] = fc.sma10[i];
+                sc.sma20[k] = fc.sma20[i];
+                sc.sma50[k] = fc.sma50[i];
+                sc.dist52w[k] = fc.dist52w[i];
+                sc.volMA20[k] = fc.volMA20[i];
+                sc.trigger20h[k] = fc.trigger20h[i];
+                sc.todayVol[k] = fc.todayVol[i];
+            }
+        }
+        return out;
+    }
+
+    // ========= 字节级解析工具 =========
+
+    private static final String[] SIGNAL_TEXT = {"", "SETUP", "BREAKOUT", "REB10D", null};
+    private static final byte[][] SIGNAL_BYTES = {
+            null, "SETUP".getBytes(StandardCharsets.US_ASCII),
+            "BREAKOUT".getBytes(StandardCharsets.US_ASCII), "REB10D".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    /** 直接在字节上识别信号（大小写不敏感），不产生 String */
+    private static byte signalCode(ByteBuffer b, int s, int e) {
+        while (s < e && blank(b.get(s))) s++;
+        while (e > s && blank(b.get(e - 1))) e--;
+        if (s >= e) return SIG_NONE;
+        outer:
+        for (byte code = SIG_SETUP; code <= SIG_REB10D; code++) {
+            byte[] w = SIGNAL_BYTES[code];
+            if (w.length != e - s) continue;
+            for (int i = 0; i < w.length; i++) {
+                int c = b.get(s + i);
+                if (c >= 'a' && c <= 'z') c -= 32;
+                if (c != w[i]) continue outer;
+            }
+            return code;
+        }
+        return SIG_OTHER;
+    }
+
+    private static boolean sameBytes(ByteBuffer b, int s1, int e1, int s2, int e2) {
+        if (e1 - s1 != e2 - s2) return false;
+        for (int i = 0; i < e1 - s1; i++) {
+            if (b.get(s1 + i) != b.get(s2 + i)) return false;
+        }
+        return true;
+    }
+
+    static byte signalCode(String s) {
+        if (s.isEmpty()) return SIG_NONE;
+        if ("BREAKOUT".equalsIgnoreCase(s)) return SIG_BREAKOUT;
+        if ("REB10D".equalsIgnoreCase(s)) return SIG_REB10D;
+        if ("SETUP".equalsIgnoreCase(s)) return SIG_SETUP;
+        return SIG_OTHER;
+    }
+
+    /** 空白/控制字符（与 String.trim 一致）；UTF-8 多字节字符的字节为负数，不算空白 */
+    private static boolean blank(byte c) { return c >= 0 && c <= ' '; }
+
+    private static String str(ByteBuffer b, int s, int e) {
+        while (s < e && blank(b.get(s))) s++;
+        while (e > s && blank(b.get(e - 1))) e--;
+        if (s >= e) return "";
+        if (b.hasArray()) return new String(b.array(), b.arrayOffset() + s, e - s, StandardCharsets.UTF_8);
+        byte[] tmp = new byte[e - s];
+        ByteBuffer d = b.duplicate();
+        d.position(s);
+        d.get(tmp);
+        return new String(tmp, StandardCharsets.UTF_8);
+    }
+
+    /** yyyy-MM-dd -> epochDay；格式不符则返回 fallback */
+    private static int parseDay(ByteBuffer b, int s, int e, int fallback) {
+        while (s < e && blank(b.get(s))) s++;
+        while (e > s && blank(b.get(e - 1))) e--;
+        if (e - s != 10 || b.get(s + 4) != '-' || b.get(s + 7) != '-') return fallback;
+        int y = digits(b, s, 4), m = digits(b, s + 5, 2), d = digits(b, s + 8, 2);
+        if (y < 0 || m < 1 || m > 12 || d < 1 || d > 31) return fallback;
+        try {
+            return (int) LocalDate.of(y, m, d).toEpochDay();
+        } catch (Exception ex) {
+            return fallback;
+        }
+    }
+
+    private static int digits(ByteBuffer b, int s, int len) {
+        int v = 0;
+        for (int i = s; i < s + len; i++) {
+            int c = b.get(i) - '0';
+            if (c < 0 || c > 9) return -1;
+            v = v * 10 + c;
+        }
+        return v;
+    }
+
+    /**
+     * 解析 [-]ddd[.ddd]：尾数 < 2^53 且小数位 ≤ 22 时 “整数 / 10^k” 与 Double.parseDouble 结果一致（两者都正确舍入）；
+     * 其它写法（NaN、科学计数、超长）回落到 Double.parseDouble；非法值返回 NaN（与原 parseD 一致）。
+     */
+    static double parseD(ByteBuffer b, int s, int e) {
+        while (s < e && blank(b.get(s))) s++;
+        while (e > s && blank(b.get(e - 1))) e--;
+        if (s >= e) return Double.NaN;
+
+        int i = s;
+        boolean neg = false;
+        byte c0 = b.get(i);
+        if (c0 == '-' || c0 == '+') { neg = c0 == '-'; i++; }
+        if (i >= e) return Double.NaN;
+
+        long mant = 0;
+        int digits = 0, frac = -1;
+        for (; i < e; i++) {
+            byte c = b.get(i);
+            if (c >= '0' && c <= '9') {
+                if (mant >= (1L << 53) / 10) return slowParse(b, s, e);
+                mant = mant * 10 + (c - '0');
+                digits++;
+                if (frac >= 0) frac++;
+            } else if (c == '.' && frac < 0) {
+                frac = 0;
+            } else {
+                return slowParse(b, s, e);
+            }
+        }
+        if (digits == 0) return Double.NaN;
+        int k = Math.max(frac, 0);
+        if (k >= POW10.length) return slowParse(b, s, e);
+        double v = (k == 0) ? (double) mant : mant / POW10[k];
+        return neg ? -v : v;
+    }
+
+    private static double slowParse(ByteBuffer b, int s, int e) {
+        try {
+            return Double.parseDouble(str(b, s, e));
+        } catch (Exception ex) {
+            return Double.NaN;
+        }
+    }
+
+    static LocalDate dateFromFileName(Path p) {
+        String name = p.getFileName().toString();
+        int s = name.indexOf('_') + 1;
+        int e = name.lastIndexOf('.');
+        try {
+            return LocalDate.parse(name.substring(s, e));
+        } catch (Exception ex) {
+            return LocalDate.MIN;
+        }
+    }
+}
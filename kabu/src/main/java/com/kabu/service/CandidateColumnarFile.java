@@ -0,0 +1,273 @@
+package com.kabu.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * TrendScreener 输出的二进制列式格式（candidates_YYYY-MM-DD.kbc），与 CSV 并存（环境变量 WRITE_COLUMNAR=true 时）。
+ * CSV 里也有的数值列按 CSV 的小数位取整后存放，ADX/DI/ATR 为原始精度。
+ *
+ * 布局（小端，便于 numpy 等直接读）：
+ * <pre>
+ *   magic "KBCOLv1\n"(8) | rowCount:int | colCount:int | fileEpochDay:long
+ *   列目录 × colCount: nameLen:short | name(UTF-8) | type:byte | offset:long | length:long
+ *   数据块（每块 8 字节对齐）：
+ *     F64 : double[rowCount]（缺失值 = NaN）
+ *     I32 : int[rowCount]
+ *     STR : int[rowCount+1] 偏移 + UTF-8 字节
+ *     CAT : dictSize:int | 字典(同 STR 编码) | byte[rowCount] 编码
+ * </pre>
+ * 读取端 memory-map 整个文件，只解码需要的列；不需要的列完全不碰。
+ *
+ * 兼容 Java 11。
+ */
+public final class CandidateColumnarFile {
+
+    static final byte[] MAGIC = "KBCOLv1\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte T_F64 = 1, T_I32 = 2, T_STR = 3, T_CAT = 4;
+    public static final String SUFFIX = ".kbc";
+
+    // 列名（与 CSV 表头对应，外加 CSV 里没有的 ADX/DI/ATR）
+    public static final String C_SYMBOL = "symbol", C_NAME = "name", C_DATE = "date", C_SIGNAL = "signal";
+    public static final String C_CLOSE = "close", C_SMA10 = "sma10", C_SMA20 = "sma20", C_SMA50 = "sma50";
+    public static final String C_HIGH52W = "high52w", C_DIST52W = "dist52w", C_VOLMA20 = "volMA20";
+    public static final String C_TURNMA20 = "turnMA20", C_TRIGGER20H = "trigger20h", C_TODAYVOL = "todayVol";
+    public static final String C_ADX = "adx", C_DIPLUS = "diPlus", C_DIMINUS = "diMinus", C_ATRPCT = "atrPct";
+
+    private static final class Col {
+        final String name; final byte type; final long offset, length;
+        Col(String name, byte type, long offset, long length) {
+            this.name = name; this.type = type; this.offset = offset; this.length = length;
+        }
+    }
+
+    private final Path path;
+    private final ByteBuffer buf;
+    private final int rowCount;
+    private final LocalDate fileDate;
+    private final Map<String, Col> cols = new LinkedHashMap<>();
+
+    private CandidateColumnarFile(Path path, ByteBuffer buf) throws IOException {
+        this.path = path;
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buf.get(i) != MAGIC[i]) throw new IOException("不是 kbc 文件: " + path);
+        }
+        this.rowCount = buf.getInt(8);
+        int colCount = buf.getInt(12);
+        this.fileDate = LocalDate.ofEpochDay(buf.getLong(16));
+
+        int p = 24;
+        for (int c = 0; c < colCount; c++) {
+            int nameLen = buf.getShort(p) & 0xFFFF; p += 2;
+            byte[] nb = new byte[nameLen];
+            for (int i = 0; i < nameLen; i++) nb[i] = buf.get(p + i);
+            p += nameLen;
+            byte type = buf.get(p); p += 1;
+            long off = buf.getLong(p); p += 8;
+            long len = buf.getLong(p); p += 8;
+            String name = new String(nb, StandardCharsets.UTF_8);
+            cols.put(name, new Col(name, type, off, len));
+        }
+    }
+
+    // ========= 读取 =========
+
+    /** memory-map 打开；只读目录，不解码任何列 */
+    public static CandidateColumnarFile open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new CandidateColumnarFile(path, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public Path path() { return path; }
+    public int rowCount() { return rowCount; }
+    public LocalDate fileDate() { return fileDate; }
+    public boolean has(String col) { return cols.containsKey(col); }
+    public Set<String> columns() { return Collections.unmodifiableSet(cols.keySet()); }
+
+    public double[] f64(String name) throws IOException {
+        Col c = col(name, T_F64);
+        double[] out = new double[rowCount];
+        buf.duplicate().position((int) c.offset).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(out);
+        return out;
+    }
+
+    public int[] i32(String name) throws IOException {
+        Col c = col(name, T_I32);
+        int[] out = new int[rowCount];
+        buf.duplicate().position((int) c.offset).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(out);
+        return out;
+    }
+
+    public String[] str(String name) throws IOException {
+        Col c = col(name, T_STR);
+        return readStrings(buf, (int) c.offset, rowCount);
+    }
+
+    /** 分类列：解码成字符串（同一字典值共享同一 String 实例） */
+    public String[] cat(String name) throws IOException {
+        Col c = col(name, T_CAT);
+        int off = (int) c.offset;
+        int dictSize = buf.getInt(off);
+        int dictBlock = off + 8;
+        String[] dict = readStrings(buf, dictBlock, dictSize);
+        int codesAt = (int) (off + c.length - rowCount);
+        String[] out = new String[rowCount];
+        for (int i = 0; i < rowCount; i++) out[i] = dict[buf.get(codesAt + i) & 0xFF];
+        return out;
+    }
+
+    private Col col(String name, byte type) throws IOException {
+        Col c = cols.get(name);
+        if (c == null) throw new IOException("缺少列 " + name + ": " + path);
+        if (c.type != type) throw new IOException("列类型不符 " + name + ": " + path);
+        return c;
+    }
+
+    private static String[] readStrings(ByteBuffer b, int at, int n) {
+        String[] out = new String[n];
+        int dataAt = at + 4 * (n + 1);
+        ByteBuffer d = b.duplicate();
+        for (int i = 0; i < n; i++) {
+            int s = b.getInt(at + 4 * i), e = b.getInt(at + 4 * (i + 1));
+            byte[] tmp = new byte[e - s];
+            d.position(dataAt + s);
+            d.get(tmp);
+            out[i] = new String(tmp, StandardCharsets.UTF_8);
+        }
+        return out;
+    }
+
+    // ========= 写出 =========
+
+    /** 写 TrendScreener 的一天结果；先写临时文件再原子替换，监听方不会读到半截 */
+    static void write(List<TrendScreener.CsvRow> rows, LocalDate fileDate, Path path) throws IOException {
+        int n = rows.size();
+        String[] symbol = new String[n], name = new String[n], signal = new String[n];
+        int[] date = new int[n];
+        double[][] f = new double[F64_COLS.length][n];
+        for (int i = 0; i < n; i++) {
+            TrendScreener.CsvRow r = rows.get(i);
+            symbol[i] = nz(r.symbol);
+            name[i] = TrendScreener.csvSafe(r.name);
+            signal[i] = nz(r.signal);
+            date[i] = (int) parseDay(r.date, fileDate);
+            // 与 CSV 同列同精度：同一天读 .kbc 还是 .csv，排名结果都一样
+            f[0][i] = TrendScreener.csvRound(r.close, 2);      f[1][i] = TrendScreener.csvRound(r.sma10, 2);
+            f[2][i] = TrendScreener.csvRound(r.sma20, 2);      f[3][i] = TrendScreener.csvRound(r.sma50, 2);
+            f[4][i] = TrendScreener.csvRound(r.high52w, 2);    f[5][i] = TrendScreener.csvRound(r.dist52w, 3);
+            f[6][i] = TrendScreener.csvRound(r.volMA20, 0);    f[7][i] = TrendScreener.csvRound(r.turnMA20, 0);
+            f[8][i] = TrendScreener.csvRound(r.trigger20h, 2); f[9][i] = TrendScreener.csvRound(r.todayVol, 0);
+            f[10][i] = opt(r.adx);  f[11][i] = opt(r.diPlus); f[12][i] = opt(r.diMinus); f[13][i] = opt(r.atrPct);
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Byte> types = new ArrayList<>();
+        List<byte[]> blocks = new ArrayList<>();
+        names.add(C_SYMBOL); types.add(T_STR); blocks.add(strBlock(symbol));
+        names.add(C_NAME);   types.add(T_STR); blocks.add(strBlock(name));
+        names.add(C_DATE);   types.add(T_I32); blocks.add(i32Block(date));
+        names.add(C_SIGNAL); types.add(T_CAT); blocks.add(catBlock(signal));
+        for (int k = 0; k < F64_COLS.length; k++) {
+            names.add(F64_COLS[k]); types.add(T_F64); blocks.add(f64Block(f[k]));
+        }
+
+        int dirLen = 0;
+        for (String nm : names) dirLen += 2 + nm.getBytes(StandardCharsets.UTF_8).length + 1 + 8 + 8;
+        long dataStart = align8(24 + dirLen);
+
+        ByteBuffer head = ByteBuffer.allocate((int) dataStart).order(ByteOrder.LITTLE_ENDIAN);
+        head.put(MAGIC).putInt(n).putInt(names.size()).putLong(fileDate.toEpochDay());
+        long off = dataStart;
+        for (int c = 0; c < names.size(); c++) {
+            byte[] nb = names.get(c).getBytes(StandardCharsets.UTF_8);
+            head.putShort((short) nb.length).put(nb).put(types.get(c)).putLong(off).putLong(blocks.get(c).length);
+            off = align8(off + blocks.get(c).length);
+        }
+
+        Path parent = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            os.write(head.array());
+            long written = dataStart;
+            for (byte[] blk : blocks) {
+                os.write(blk);
+                written += blk.length;
+                long pad = align8(written) - written;
+                for (long i = 0; i < pad; i++) os.write(0);
+                written += pad;
+            }
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final String[] F64_COLS = {
+            C_CLOSE, C_SMA10, C_SMA20, C_SMA50, C_HIGH52W, C_DIST52W, C_VOLMA20, C_TURNMA20, C_TRIGGER20H, C_TODAYVOL,
+            C_ADX, C_DIPLUS, C_DIMINUS, C_ATRPCT
+    };
+
+    private static byte[] f64Block(double[] v) {
+        ByteBuffer b = ByteBuffer.allocate(8 * v.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (double x : v) b.putDouble(x);
+        return b.array();
+    }
+
+    private static byte[] i32Block(int[] v) {
+        ByteBuffer b = ByteBuffer.allocate(4 * v.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int x : v) b.putInt(x);
+        return b.array();
+    }
+
+    private static byte[] strBlock(String[] v) {
+        byte[][] enc = new byte[v.length][];
+        int total = 0;
+        for (int i = 0; i < v.length; i++) { enc[i] = v[i].getBytes(StandardCharsets.UTF_8); total += enc[i].length; }
+        ByteBuffer b = ByteBuffer.allocate(4 * (v.length + 1) + total).order(ByteOrder.LITTLE_ENDIAN);
+        int off = 0;
+        for (byte[] e : enc) { b.putInt(off); off += e.length; }
+        b.putInt(off);
+        for (byte[] e : enc) b.put(e);
+        return b.array();
+    }
+
+    private static byte[] catBlock(String[] v) {
+        Map<String, Integer> dict = new LinkedHashMap<>();
+        byte[] codes = new byte[v.length];
+        for (int i = 0; i < v.length; i++) {
+            Integer c = dict.get(v[i]);
+            if (c == null) {
+                if (dict.size() >= 255) throw new IllegalArgumentException("分类列取值过多: " + dict.size());
+                c = dict.size();
+                dict.put(v[i], c);
+            }
+            codes[i] = (byte) (int) c;
+        }
+        byte[] d = strBlock(dict.keySet().toArray(new String[0]));
+        int dictLen = (int) align8(d.length);
+        ByteBuffer b = ByteBuffer.allocate(8 + dictLen + codes.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(dict.size()).putInt(0).put(d);
+        b.position(8 + dictLen);
+        b.put(codes);
+        return b.array();
+    }
+
+    private static long align8(long x) { return (x + 7) & ~7L; }
+    private static double opt(Double x) { return x == null ? Double.NaN : x; }
+    private static String nz(String s) { return s == null ? "" : s; }
+
+    private static long parseDay(String s, LocalDate fallback) {
+        try { return LocalDate.parse(s).toEpochDay(); } catch (Exception e) { return fallback.toEpochDay(); }
+    }
+}
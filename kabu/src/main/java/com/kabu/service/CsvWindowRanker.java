@@ -9,10 +9,12 @@ import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 /**
- * 读取目录中的 candidates_YYYY-MM-DD.csv（示例列同你给出的），
+ * 读取目录中的 candidates_YYYY-MM-DD.csv（示例列同你给出的；同日有 .kbc 时优先读 .kbc），
  * 在给定 windowDays 内，按 趋势强度 / 信号强度 / 混合分 做排名。
  *
  * 兼容 Java 11。仅用 CSV 字段，不拉行情。
+ * 增量模式（INCREMENTAL / WATCH）持久化每只股票的窗口累加量和按天的逐出记录，新的一天只折叠当天、逐出最早一天。
+ * MULTI 模式一次读入、单遍算出多个窗口 × 多个模式的排名，并输出稳定性/共识汇总。
  */
 public final class CsvWindowRanker {
 
@@ -25,6 +27,11 @@ public final class CsvWindowRanker {
     private static final String FILE_SUFFIX = ".csv";
     private static final DateTimeFormatter DATE_IN_NAME = DateTimeFormatter.ISO_LOCAL_DATE;
 
+    // —— 增量模式：状态文件（放在 candidates 目录下）——
+    private static final String STATE_PREFIX = ".window_state_";
+    private static final String STATE_MAGIC  = "#kabu-window-state-v2";
+    private static final long   WATCH_DEBOUNCE_MS = 800;  // 文件落地后稍等再读，避免读到半截
+
     // —— 信号分参数
     // —— 信号分参数（更偏爱“最近刚发生的突破”）——
     private static final double SIGNAL_BREAKOUT_BASE = 1.20;  // BREAKOUT 权重 ↑
@@ -37,6 +44,7 @@ public final class CsvWindowRanker {
     private static final double W_MA_SLOPE   = 0.20;  // SMA20/SMA50 抬头
     private static final double W_NEAR_52WH  = 0.25;  // 距52周高越近越好
     private static final double W_VOL_TREND  = 0.20;  // TodayVol 相对 VolMA20
+    private static final double FIX          = 1e9;   // near52w / vol 逐行贡献按 1e-9 定点累加
 
     // ========= 主入口 =========
     /**
@@ -57,63 +65,358 @@ public final class CsvWindowRanker {
 
         LocalDate fromDate = maxDate.minusDays(Math.max(0, windowDays - 1));
 
-        // 读取窗口内的文件，按 symbol 聚合
-        Map<String, List<Row>> bySymbol = new HashMap<>();
+        // 读取窗口内的文件，按 symbol 聚合（与增量模式共用同一套累加逻辑）
+        List<Path> inWindow = new ArrayList<>();
+        for (Path f : files) {
+            if (!dateFromFile(f).isBefore(fromDate)) inWindow.add(f); // 只取窗口内
+        }
+        WindowState st = new WindowState(windowDays);
+        foldAll(st, inWindow);
+        return st.rank(mode, topN);
+    }
+
+    /**
+     * 增量排名：从 dir 下的状态文件恢复窗口聚合，只折叠新出现的 candidates_*.csv，
+     * 移出窗口的日子会被逐出；结果与 {@link #rankFromDir} 一致。
+     * 若发现比已折叠日期更早的新文件、或已折叠文件被改写，则整窗重建一次。
+     */
+    public static List<Ranked> rankIncremental(String dir, int windowDays, RankMode mode, int topN) throws IOException {
+        Path statePath = Paths.get(dir, stateFileName(windowDays));
+        WindowState st = WindowState.load(statePath, windowDays);
+        st = sync(st, dir);
+        st.save(statePath);
+        return st.rank(mode, topN);
+    }
+
+    /**
+     * 同进程交接（DailyPipeline）：当天的列已在内存里，TrendScreener 也已把当天文件写到 dir。
+     * 更早的日子照常从文件补进增量状态，当天直接折叠内存中的列，不再解析当天文件；
+     * 状态里已有当天（同日重跑）或日期乱序时退回 {@link #rankIncremental(String, int, RankMode, int)}。
+     */
+    public static List<Ranked> rankIncremental(String dir, int windowDays, RankMode mode, int topN,
+                                               CandidateArchiveReader.FileColumns today) throws IOException {
+        Path todayFile = null;
+        for (Path f : listCandidateFiles(dir)) {
+            if (dateFromFile(f).equals(today.fileDate)) todayFile = f;
+        }
+        Path statePath = Paths.get(dir, stateFileName(windowDays));
+        WindowState st = WindowState.load(statePath, windowDays);
+        if (todayFile == null || st.folded.containsKey(today.fileDate)) return rankIncremental(dir, windowDays, mode, topN);
+
+        st = sync(st, dir, today.fileDate);
+        if (!today.fileDate.isAfter(st.maxDate)) return rankIncremental(dir, windowDays, mode, topN);
+        st.fold(today.fileDate, Files.getLastModifiedTime(todayFile).toMillis(), rowsOf(today));
+        st.save(statePath);
+        return st.rank(mode, topN);
+    }
+
+    /**
+     * 监听模式：WatchService 监听 dir，每当 candidates_*.csv 落地/改写就折叠当天并重排，
+     * 写出 TSV 并保存状态。常驻进程内状态只在内存中推进，单次成本≈一天的数据量。
+     */
+    public static void watch(String dir, int windowDays, RankMode mode, int topN, String out)
+            throws IOException, InterruptedException {
+        Path root = Paths.get(dir);
+        Path statePath = root.resolve(stateFileName(windowDays));
+        WindowState st = sync(WindowState.load(statePath, windowDays), dir);
+        st.save(statePath);
+        writeTsv(st.rank(mode, topN), out);
+        System.out.println("监听中: " + root.toAbsolutePath() + "  (window=" + windowDays + ", mode=" + mode + ")");
+
+        try (WatchService ws = root.getFileSystem().newWatchService()) {
+            root.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = ws.take();
+                boolean hit = false;
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    if (ev.kind() == StandardWatchEventKinds.OVERFLOW) { hit = true; continue; }
+                    String name = String.valueOf(ev.context());
+                    if (isCandidateFile(name)) hit = true;
+                }
+                if (!key.reset()) break;
+                if (!hit) continue;
+
+                Thread.sleep(WATCH_DEBOUNCE_MS); // 等 TrendScreener 写完
+                try {
+                    st = sync(st, dir);
+                    st.save(statePath);
+                    List<Ranked> ranked = st.rank(mode, topN);
+                    writeTsv(ranked, out);
+                    System.out.println("重排完成: maxDate=" + st.maxDate + " -> " + out + "  (Top=" + ranked.size() + ")");
+                } catch (IOException e) {
+                    System.err.println("增量重排失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** 把目录里的新文件折叠进状态；必要时重建 */
+    private static WindowState sync(WindowState st, String dir) throws IOException {
+        return sync(st, dir, null);
+    }
+
+    /** skip 非空时跳过该日期的文件（调用方随后自己折叠这一天） */
+    private static WindowState sync(WindowState st, String dir, LocalDate skip) throws IOException {
+        List<Path> files = listCandidateFiles(dir);
+        if (files.isEmpty()) return st;
+
+        LocalDate maxDate = dateFromFile(files.get(files.size() - 1));
+        LocalDate fromDate = maxDate.minusDays(Math.max(0, st.windowDays - 1));
+
+        List<Path> fresh = new ArrayList<>();
+        boolean rebuild = false;
         for (Path f : files) {
             LocalDate d = dateFromFile(f);
-            if (d.isBefore(fromDate)) continue; // 只取窗口内
-            readOneFile(f, bySymbol);
+            if (d.isBefore(fromDate) || d.equals(skip)) continue;
+            long mtime = Files.getLastModifiedTime(f).toMillis();
+            Long seen = st.folded.get(d);
+            if (seen != null && seen == mtime) continue;
+            if (seen != null || !d.isAfter(st.maxDate)) rebuild = true; // 改写 / 乱序到达
+            fresh.add(f);
+        }
+
+        if (rebuild) {
+            st = new WindowState(st.windowDays);
+            fresh.clear();
+            for (Path f : files) {
+                LocalDate d = dateFromFile(f);
+                if (!d.isBefore(fromDate) && !d.equals(skip)) fresh.add(f);
+            }
+        }
+        foldAll(st, fresh);
+        return st;
+    }
+
+    /** 并行解析（列式），再按文件日期顺序折叠 */
+    private static void foldAll(WindowState st, List<Path> files) throws IOException {
+        List<CandidateArchiveReader.FileColumns> cols = CandidateArchiveReader.readAll(files);
+        for (int i = 0; i < files.size(); i++) {
+            Path f = files.get(i);
+            st.fold(dateFromFile(f), Files.getLastModifiedTime(f).toMillis(), rowsOf(cols.get(i)));
         }
+    }
+
+    private static String stateFileName(int windowDays) {
+        return STATE_PREFIX + windowDays + "d.tsv";
+    }
 
-        // 计算分数
-        List<Ranked> out = new ArrayList<>();
-        for (Map.Entry<String, List<Row>> e : bySymbol.entrySet()) {
-            List<Row> rows = e.getValue();
-            rows.sort(Comparator.comparing(r -> r.date)); // 升序
+    /** 状态文件旁的段文件目录：.window_state_15d.tsv -> .window_state_15d.seg/ */
+    private static Path segDirOf(Path statePath) {
+        String n = statePath.getFileName().toString();
+        return statePath.resolveSibling(n.substring(0, n.length() - 4) + ".seg");
+    }
 
-            // 趋势分：窗口内日均
-            TrendScore ts = trendScore(rows);
+    // ========= 多窗口 × 多模式：单遍 =========
 
-            // 信号分：窗口内事件计数 + 新近度加权
-            double ss = signalScore(rows, maxDate);
+    /** 一个 (window, mode) 组合的排名结果 */
+    public static final class Combo {
+        public final int windowDays;
+        public final RankMode mode;
+        public final List<Ranked> ranked;
 
-            double trend100  = ts.score * 100.0;
-            double signal100 = ss * 100.0;
-            double total;
-            if (mode == RankMode.TREND_ONLY) {
-                total = trend100;
-            } else if (mode == RankMode.SIGNAL_ONLY) {
-                total = signal100;
-            } else {
-                // HYBRID：更偏爱“最近刚有动作”的股票
-                total = 0.4 * trend100 + 0.6 * signal100;
+        Combo(int windowDays, RankMode mode, List<Ranked> ranked) {
+            this.windowDays = windowDays; this.mode = mode; this.ranked = ranked;
+        }
+
+        public String key() { return windowDays + "d_" + mode; }
+    }
+
+    /**
+     * 一次读取最大窗口内的文件，对每只股票从最新一行往回走：
+     * 窗口按天数升序嵌套，大窗口直接在小窗口的部分和上继续累加，走到每个窗口边界时取一次快照；
+     * 同一快照对所有模式复用（模式只影响趋势分/信号分的组合方式）。
+     * 每个组合的结果与单独跑 rankFromDir(dir, window, mode, topN) 相同。
+     */
+    public static List<Combo> rankMulti(String dir, int[] windows, List<RankMode> modes, int topN) throws IOException {
+        int[] ws = Arrays.stream(windows).filter(w -> w > 0).distinct().sorted().toArray();
+        List<Path> files = listCandidateFiles(dir);
+        if (files.isEmpty() || ws.length == 0 || modes.isEmpty()) return Collections.emptyList();
+
+        LocalDate maxDate = dateFromFile(files.get(files.size() - 1));
+        long today = maxDate.toEpochDay();
+        long[] from = new long[ws.length];
+        for (int k = 0; k < ws.length; k++) from[k] = today - (ws[k] - 1);
+
+        // 只读最大窗口覆盖的文件，且只读一次
+        List<Path> inWindow = new ArrayList<>();
+        for (Path f : files) {
+            if (dateFromFile(f).toEpochDay() >= from[ws.length - 1]) inWindow.add(f);
+        }
+        Map<String, CandidateArchiveReader.SymbolColumns> bySymbol =
+                CandidateArchiveReader.mergeBySymbol(CandidateArchiveReader.readAll(inWindow));
+
+        List<List<Ranked>> acc = new ArrayList<>();
+        for (int k = 0; k < ws.length * modes.size(); k++) acc.add(new ArrayList<>());
+
+        Row cur = new Row(), newer = new Row();
+        for (CandidateArchiveReader.SymbolColumns sc : bySymbol.values()) {
+            if (sc.n == 0) continue;
+            Row last = new Row();
+            fill(last, sc, sc.n - 1);
+
+            int stackSum = 0, slopeSum = 0, slopeCnt = 0, stageSum = 0, brkCnt = 0, rebCnt = 0, brkToday = 0;
+            long nearSum = 0, volSum = 0;
+            TreeMap<Long, int[]> sigDays = new TreeMap<>();
+            int i = sc.n - 1;
+            boolean haveNewer = false;
+
+            for (int k = 0; k < ws.length; k++) {
+                // 往回吃进 [from[k], 上一个窗口起点) 的行
+                while (i >= 0 && sc.fileDay[i] >= from[k]) {
+                    fill(cur, sc, i);
+                    stackSum += stackOf(cur);
+                    nearSum  += fix(nearOf(cur));
+                    volSum   += fix(volOf(cur));
+                    stageSum += stageOf(cur);
+                    if (haveNewer) { // 更新的一行以这一行为“昨日”
+                        if (!nan(newer.sma20) && !nan(cur.sma20)) { slopeSum += newer.sma20 > cur.sma20 ? 1 : 0; slopeCnt++; }
+                        if (!nan(newer.sma50) && !nan(cur.sma50)) { slopeSum += newer.sma50 > cur.sma50 ? 1 : 0; slopeCnt++; }
+                    }
+                    byte code = sc.signal[i];
+                    if (code == CandidateArchiveReader.SIG_BREAKOUT) {
+                        brkCnt++;
+                        if (sc.date[i] == today) brkToday++;
+                        sigDays.computeIfAbsent((long) sc.date[i], d -> new int[2])[0]++;
+                    } else if (code == CandidateArchiveReader.SIG_REB10D) {
+                        rebCnt++;
+                        sigDays.computeIfAbsent((long) sc.date[i], d -> new int[2])[1]++;
+                    }
+                    Row t = newer; newer = cur; cur = t;
+                    haveNewer = true;
+                    i--;
+                }
+                int n = sc.n - 1 - i;
+                if (n == 0) continue;
+
+                TrendScore ts = trendScoreOf(n, stackSum, slopeSum, slopeCnt, nearSum, volSum, stageSum, brkCnt, rebCnt);
+                double ss = sigDays.isEmpty() ? 0.0
+                        : signalScoreOf(signalWeighted(sigDays, today), brkToday > 0, brkCnt - brkToday > 0);
+                for (int m = 0; m < modes.size(); m++) {
+                    acc.get(k * modes.size() + m).add(toRanked(sc.symbol, last, ts, ss, modes.get(m)));
+                }
             }
+        }
 
+        List<Combo> out = new ArrayList<>();
+        for (int k = 0; k < ws.length; k++) {
+            for (int m = 0; m < modes.size(); m++) {
+                out.add(new Combo(ws[k], modes.get(m), sortAndCut(acc.get(k * modes.size() + m), topN)));
+            }
+        }
+        return out;
+    }
 
-            Row last = rows.get(rows.size() - 1);
-            Ranked r = new Ranked();
-            r.symbol = e.getKey();
-            r.name   = last.name;
-            r.latestDate = last.date;
-            r.totalScore = total;
-            r.trendScore = trend100;
-            r.signalScore= signal100;
+    /** 每个组合一份 TSV，另写稳定性对比与跨组合共识两张表 */
+    public static void writeMulti(List<Combo> combos, String prefix) {
+        for (Combo c : combos) writeTsv(c.ranked, prefix + "_" + c.key() + ".tsv");
+        writeStability(combos, prefix + "_stability.tsv");
+        writeConsensus(combos, prefix + "_consensus.tsv");
+    }
 
-            // 参考执行区间（与此前约定一致）
-            r.entryLow  = last.trigger20h;
-            r.entryHigh = last.trigger20h * 1.03;
-            r.stop      = (Double.isNaN(last.sma10) ? last.close * 0.97 : last.sma10);
+    // 稳定性：与“同模式的上一档较小窗口”和“同窗口 HYBRID”比，TopN 重合率（Jaccard）+ 交集上的 Spearman
+    private static void writeStability(List<Combo> combos, String path) {
+        Map<String, Combo> byKey = new HashMap<>();
+        for (Combo c : combos) byKey.put(c.key(), c);
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(path), StandardCharsets.UTF_8))) {
+            pw.println("Window\tMode\tCount\tPrevWindow\tOverlapPrev\tSpearmanPrev\tOverlapHybrid\tSpearmanHybrid");
+            for (Combo c : combos) {
+                Combo prev = null;
+                for (Combo o : combos) {
+                    if (o.mode == c.mode && o.windowDays < c.windowDays
+                            && (prev == null || o.windowDays > prev.windowDays)) prev = o;
+                }
+                Combo hyb = (c.mode == RankMode.HYBRID) ? null : byKey.get(c.windowDays + "d_" + RankMode.HYBRID);
+                pw.printf(Locale.US, "%d\t%s\t%d\t%s\t%.3f\t%.3f\t%.3f\t%.3f%n",
+                        c.windowDays, c.mode, c.ranked.size(),
+                        prev == null ? "" : String.valueOf(prev.windowDays),
+                        prev == null ? Double.NaN : jaccard(c.ranked, prev.ranked),
+                        prev == null ? Double.NaN : spearman(c.ranked, prev.ranked),
+                        hyb == null ? Double.NaN : jaccard(c.ranked, hyb.ranked),
+                        hyb == null ? Double.NaN : spearman(c.ranked, hyb.ranked));
+            }
+        } catch (Exception e) {
+            System.err.println("写稳定性TSV失败: " + e.getMessage());
+        }
+    }
 
-            r.note = String.format(Locale.ROOT,
-                    "stack=%.2f slope=%.2f near52w=%.2f vol=%.2f stage=%.2f brk=%d reb=%d",
-                    ts.maStack, ts.maSlope, ts.near52w, ts.volTrend, ts.stage,
-                    ts.breakoutCnt, ts.reboundCnt);
+    // 共识：每只股票出现在多少个组合的 TopN 里，平均/最好/最差名次
+    private static void writeConsensus(List<Combo> combos, String path) {
+        Map<String, int[]> stat = new HashMap<>();   // hits, rankSum, best, worst
+        Map<String, String> names = new HashMap<>();
+        for (Combo c : combos) {
+            for (int i = 0; i < c.ranked.size(); i++) {
+                Ranked r = c.ranked.get(i);
+                int rank = i + 1;
+                int[] st = stat.computeIfAbsent(r.symbol, k -> new int[]{0, 0, Integer.MAX_VALUE, 0});
+                st[0]++; st[1] += rank; st[2] = Math.min(st[2], rank); st[3] = Math.max(st[3], rank);
+                names.put(r.symbol, r.name);
+            }
+        }
+        List<String> syms = new ArrayList<>(stat.keySet());
+        syms.sort(Comparator.comparingInt((String sym) -> -stat.get(sym)[0])
+                .thenComparingDouble(sym -> (double) stat.get(sym)[1] / stat.get(sym)[0])
+                .thenComparing(sym -> sym));
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(path), StandardCharsets.UTF_8))) {
+            pw.println("Symbol\tName\tHits\tCombos\tAvgRank\tBestRank\tWorstRank");
+            for (String sym : syms) {
+                int[] st = stat.get(sym);
+                pw.printf(Locale.US, "%s\t%s\t%d\t%d\t%.1f\t%d\t%d%n",
+                        sym, safe(names.get(sym)), st[0], combos.size(), (double) st[1] / st[0], st[2], st[3]);
+            }
+        } catch (Exception e) {
+            System.err.println("写共识TSV失败: " + e.getMessage());
+        }
+    }
 
+    private static double jaccard(List<Ranked> a, List<Ranked> b) {
+        Set<String> sa = new HashSet<>(), sb = new HashSet<>();
+        for (Ranked r : a) sa.add(r.symbol);
+        for (Ranked r : b) sb.add(r.symbol);
+        Set<String> union = new HashSet<>(sa);
+        union.addAll(sb);
+        if (union.isEmpty()) return Double.NaN;
+        sa.retainAll(sb);
+        return (double) sa.size() / union.size();
+    }
 
-            out.add(r);
+    // 交集内重新编号后的 Spearman ρ；交集不足 2 只返回 NaN
+    private static double spearman(List<Ranked> a, List<Ranked> b) {
+        Map<String, Integer> posB = new HashMap<>();
+        for (int i = 0; i < b.size(); i++) posB.put(b.get(i).symbol, i);
+        List<Integer> orderB = new ArrayList<>();
+        for (Ranked r : a) {
+            Integer p = posB.get(r.symbol);
+            if (p != null) orderB.add(p);
         }
+        int n = orderB.size();
+        if (n < 2) return Double.NaN;
+        List<Integer> sorted = new ArrayList<>(orderB);
+        Collections.sort(sorted);
+        double d2 = 0.0;
+        for (int i = 0; i < n; i++) {
+            int rb = Collections.binarySearch(sorted, orderB.get(i));
+            d2 += (double) (i - rb) * (i - rb);
+        }
+        return 1.0 - 6.0 * d2 / ((double) n * ((double) n * n - 1));
+    }
 
-        // 排序
+    private static void fill(Row r, CandidateArchiveReader.SymbolColumns sc, int i) {
+        r.symbol = sc.symbol;
+        r.name = sc.name;
+        r.date = LocalDate.ofEpochDay(sc.date[i]);
+        r.close = sc.close[i];
+        r.sma10 = sc.sma10[i];
+        r.sma20 = sc.sma20[i];
+        r.sma50 = sc.sma50[i];
+        r.dist52w = sc.dist52w[i];
+        r.volMA20 = sc.volMA20[i];
+        r.trigger20h = sc.trigger20h[i];
+        r.todayVol = sc.todayVol[i];
+    }
+
+    private static List<Ranked> sortAndCut(List<Ranked> out, int topN) {
         out.sort(Comparator
                 .comparingDouble((Ranked r) -> -r.totalScore)
                 .thenComparing(r -> r.symbol));
@@ -148,69 +451,226 @@ public final class CsvWindowRanker {
     }
 
     // ========= 评分实现 =========
-    private static TrendScore trendScore(List<Row> rows) {
-        int n = rows.size();
-        double stackSum = 0.0;
-        double slopeCnt = 0.0, slopeSum = 0.0; // 两条均线
-        double nearSum  = 0.0;
-        double volSum   = 0.0;
-        double stageSum = 0.0;                 // NEW：扩张度（相对 50 日线）
+    // 每行对趋势分各项的贡献只依赖该行（斜率依赖相邻两行），因此可以加减：窗口折叠/逐出都是 O(1)。
+
+    // MA 堆叠：Close>SMA10>SMA20>SMA50（返回满足的条数 0..3）
+    private static int stackOf(Row r) {
+        int stack = 0;
+        if (!nan(r.close) && !nan(r.sma10) && r.close > r.sma10) stack++;
+        if (!nan(r.sma10) && !nan(r.sma20) && r.sma10 > r.sma20) stack++;
+        if (!nan(r.sma20) && !nan(r.sma50) && r.sma20 > r.sma50) stack++;
+        return stack;
+    }
 
-        int breakoutCnt = 0, reboundCnt = 0;
+    // 距 52 周高：1 - (Dist52W / MAX_DIST_52W)，再裁剪到 [0,1]
+    private static double nearOf(Row r) {
+        double near = 1.0 - (r.dist52w / Math.max(TrendScreener.MAX_DIST_52W, 1e-6));
+        return clamp01(near);
+    }
 
-        for (int i = 0; i < n; i++) {
-            Row r = rows.get(i);
-
-            // MA 堆叠：Close>SMA10>SMA20>SMA50
-            int stack = 0;
-            if (!nan(r.close) && !nan(r.sma10) && r.close > r.sma10) stack++;
-            if (!nan(r.sma10) && !nan(r.sma20) && r.sma10 > r.sma20) stack++;
-            if (!nan(r.sma20) && !nan(r.sma50) && r.sma20 > r.sma50) stack++;
-            stackSum += (stack / 3.0);
-
-            // 均线斜率：SMA20/SMA50 较昨日抬头
-            if (i > 0) {
-                Row p = rows.get(i - 1);
-                if (!nan(r.sma20) && !nan(p.sma20)) { slopeSum += (r.sma20 > p.sma20 ? 1.0 : 0.0); slopeCnt++; }
-                if (!nan(r.sma50) && !nan(p.sma50)) { slopeSum += (r.sma50 > p.sma50 ? 1.0 : 0.0); slopeCnt++; }
+    // 量能强弱：TodayVol / (VolMA20 * 1.2) 裁剪到 [0,1]（缺数据记 0，但仍计入分母）
+    private static double volOf(Row r) {
+        if (!nan(r.todayVol) && !nan(r.volMA20) && r.volMA20 > 0) {
+            return clamp01(r.todayVol / (r.volMA20 * 1.2));
+        }
+        return 0.0;
+    }
+
+    // 扩张度（相对 50 日线），越接近 50 日线记分越高（以 0.1 为单位的整数，便于精确加减）
+    private static int stageOf(Row r) {
+        int stage = 10;
+        if (!nan(r.close) && !nan(r.sma50) && r.sma50 > 0) {
+            double ext = (r.close / r.sma50) - 1.0; // 高出 50 日线的比例
+            if (ext <= 0.05) {
+                stage = 10;    // 刚离开 50 日线：典型早期
+            } else if (ext <= 0.15) {
+                stage = 9;     // 中期
+            } else if (ext <= 0.30) {
+                stage = 6;     // 有点飞
+            } else {
+                stage = 3;     // 已经飞很高，属于晚期
             }
+        }
+        return stage;
+    }
 
-            // 距 52 周高：1 - (Dist52W / MAX_DIST_52W)，再裁剪到 [0,1]
-            double near = 1.0 - (r.dist52w / Math.max(TrendScreener.MAX_DIST_52W, 1e-6));
-            nearSum += clamp01(near);
+    private static double signalBase(Row r) {
+        if (isBreakout(r)) return SIGNAL_BREAKOUT_BASE;
+        if (isRebound(r))  return SIGNAL_REB10D_BASE;
+        return 0.0;
+    }
+
+    private static boolean isBreakout(Row r) { return "BREAKOUT".equalsIgnoreCase(r.signal); }
+    private static boolean isRebound(Row r)  { return "REB10D".equalsIgnoreCase(r.signal); }
 
-            // 量能强弱：TodayVol / (VolMA20 * 1.2) 裁剪到 [0,1]
-            if (!nan(r.todayVol) && !nan(r.volMA20) && r.volMA20 > 0) {
-                double v = r.todayVol / (r.volMA20 * 1.2);
-                volSum += clamp01(v);
+    /**
+     * 一行对窗口累加量的贡献：折叠时算好，逐出时原样回减，不再需要原始行。
+     * 增量模式按文件日期把它们存成段文件，逐出某天只读那一天的段。
+     */
+    static final class Contrib {
+        final String symbol;
+        final int stack, stage;
+        final long near, vol;           // 定点（FIX），累加/回减无舍入误差
+        final boolean breakout, rebound;
+        final long day;
+
+        Contrib(Row r) {
+            this(r.symbol, stackOf(r), stageOf(r), fix(nearOf(r)), fix(volOf(r)),
+                    isBreakout(r), isRebound(r), r.date.toEpochDay());
+        }
+
+        Contrib(String symbol, int stack, int stage, long near, long vol, boolean breakout, boolean rebound, long day) {
+            this.symbol = symbol; this.stack = stack; this.stage = stage; this.near = near; this.vol = vol;
+            this.breakout = breakout; this.rebound = rebound; this.day = day;
+        }
+
+        String toTsv() {
+            return symbol + "\t" + stack + "\t" + stage + "\t" + near + "\t" + vol
+                    + "\t" + (breakout ? "B" : rebound ? "R" : "-") + "\t" + day;
+        }
+
+        static Contrib parse(String line) {
+            String[] f = line.split("\t", -1);
+            return new Contrib(f[0], Integer.parseInt(f[1]), Integer.parseInt(f[2]), Long.parseLong(f[3]),
+                    Long.parseLong(f[4]), "B".equals(f[5]), "R".equals(f[5]), Long.parseLong(f[6]));
+        }
+    }
+
+    /**
+     * 单只股票在窗口内的累加量：trendScore 需要的各项求和 + signalScore 需要的逐日信号计数。
+     * 只保留最新一行（排名展示、与下一行算斜率）和每行的斜率码，逐出时由 Contrib 回减。
+     * 全部用整数/定点累加，增量状态跨多次运行反复折叠逐出也不会漂移，结果与整窗重算逐位相同。
+     */
+    private static final class SymbolAgg {
+        int n;                  // 窗口内行数
+        Row last;
+        // 每行相对上一行的斜率贡献，一位数字 = sum*3+cnt，按折叠顺序；队头那行的不计入总和
+        final StringBuilder slopes = new StringBuilder();
+        int stackSum, slopeSum, slopeCnt, stageSum;
+        long nearSum, volSum;
+        int breakoutCnt, reboundCnt;
+        final TreeMap<Long, int[]> sigDays = new TreeMap<>();   // 行日期 -> {BREAKOUT 数, REB10D 数}
+
+        Contrib add(Row r) {
+            int code = 0;
+            if (n > 0) {
+                int sum = 0, cnt = 0;
+                if (!nan(r.sma20) && !nan(last.sma20)) { sum += r.sma20 > last.sma20 ? 1 : 0; cnt++; }
+                if (!nan(r.sma50) && !nan(last.sma50)) { sum += r.sma50 > last.sma50 ? 1 : 0; cnt++; }
+                code = sum * 3 + cnt;
+                slopeSum += sum;
+                slopeCnt += cnt;
+            }
+            slopes.append((char) ('0' + code));
+            Contrib c = new Contrib(r);
+            apply(c, +1);
+            n++;
+            last = r;
+            return c;
+        }
+
+        /** 逐出最早一行；新的队头不再有“昨日”，其斜率贡献一并回减 */
+        void evictHead(Contrib c) {
+            apply(c, -1);
+            n--;
+            slopes.deleteCharAt(0);
+            if (slopes.length() > 0) {
+                int code = slopes.charAt(0) - '0';
+                slopeSum -= code / 3;
+                slopeCnt -= code % 3;
+            }
+        }
+
+        private void apply(Contrib c, int sign) {
+            stackSum += sign * c.stack;
+            nearSum  += sign * c.near;
+            volSum   += sign * c.vol;
+            stageSum += sign * c.stage;
+            if (c.breakout) breakoutCnt += sign;
+            if (c.rebound)  reboundCnt  += sign;
+            if (c.breakout || c.rebound) {
+                int[] k = sigDays.computeIfAbsent(c.day, d -> new int[2]);
+                k[c.breakout ? 0 : 1] += sign;
+                if (k[0] == 0 && k[1] == 0) sigDays.remove(c.day);
+            }
+        }
+
+        TrendScore trendScore() {
+            return trendScoreOf(n, stackSum, slopeSum, slopeCnt, nearSum, volSum, stageSum,
+                    breakoutCnt, reboundCnt);
+        }
+
+        double signalScore(LocalDate maxDate) {
+            if (sigDays.isEmpty()) return 0.0;
+            long today = maxDate.toEpochDay();
+            int[] t = sigDays.get(today);
+            int brkToday = t == null ? 0 : t[0];
+            return signalScoreOf(signalWeighted(sigDays, today), brkToday > 0, breakoutCnt - brkToday > 0);
+        }
+
+        // —— 状态文件里的一行：累加量 + 斜率码 + 信号日 + 最新一行 ——
+        String toTsv(String symbol) {
+            StringBuilder sig = new StringBuilder();
+            for (Map.Entry<Long, int[]> e : sigDays.entrySet()) {
+                if (sig.length() > 0) sig.append(';');
+                sig.append(e.getKey()).append(':').append(e.getValue()[0]).append(':').append(e.getValue()[1]);
             }
+            Row r = last;
+            return "S\t" + symbol + "\t" + n + "\t" + stackSum + "\t" + slopeSum + "\t" + slopeCnt + "\t" + stageSum
+                    + "\t" + nearSum + "\t" + volSum + "\t" + breakoutCnt + "\t" + reboundCnt
+                    + "\t" + slopes + "\t" + sig
+                    + "\t" + safe(r.name) + "\t" + r.date + "\t" + safe(r.signal) + "\t" + r.close + "\t" + r.sma10
+                    + "\t" + r.sma20 + "\t" + r.sma50 + "\t" + r.dist52w + "\t" + r.volMA20 + "\t" + r.trigger20h
+                    + "\t" + r.todayVol;
+        }
 
-            // NEW: 扩张度（相对 50 日线），越接近 50 日线记分越高
-            double stage = 1.0;
-            if (!nan(r.close) && !nan(r.sma50) && r.sma50 > 0) {
-                double ext = (r.close / r.sma50) - 1.0; // 高出 50 日线的比例
-                if (ext <= 0.05) {
-                    stage = 1.0;    // 刚离开 50 日线：典型早期
-                } else if (ext <= 0.15) {
-                    stage = 0.9;    // 中期
-                } else if (ext <= 0.30) {
-                    stage = 0.6;    // 有点飞
-                } else {
-                    stage = 0.3;    // 已经飞很高，属于晚期
+        static SymbolAgg parse(String[] f) {
+            SymbolAgg a = new SymbolAgg();
+            a.n = Integer.parseInt(f[2]);
+            a.stackSum = Integer.parseInt(f[3]); a.slopeSum = Integer.parseInt(f[4]);
+            a.slopeCnt = Integer.parseInt(f[5]); a.stageSum = Integer.parseInt(f[6]);
+            a.nearSum = Long.parseLong(f[7]); a.volSum = Long.parseLong(f[8]);
+            a.breakoutCnt = Integer.parseInt(f[9]); a.reboundCnt = Integer.parseInt(f[10]);
+            a.slopes.append(f[11]);
+            if (a.slopes.length() != a.n) throw new IllegalArgumentException("斜率码与行数不符: " + f[1]);
+            if (!f[12].isEmpty()) {
+                for (String s : f[12].split(";")) {
+                    String[] k = s.split(":");
+                    a.sigDays.put(Long.parseLong(k[0]), new int[]{Integer.parseInt(k[1]), Integer.parseInt(k[2])});
                 }
             }
-            stageSum += stage;
+            Row r = new Row();
+            r.symbol = f[1]; r.name = f[13]; r.date = LocalDate.parse(f[14]); r.signal = f[15];
+            r.close = parseD(f[16]); r.sma10 = parseD(f[17]); r.sma20 = parseD(f[18]); r.sma50 = parseD(f[19]);
+            r.dist52w = parseD(f[20]); r.volMA20 = parseD(f[21]); r.trigger20h = parseD(f[22]);
+            r.todayVol = parseD(f[23]);
+            a.last = r;
+            return a;
+        }
+    }
 
-            // 统计事件个数（用于 note）
-            if ("BREAKOUT".equalsIgnoreCase(r.signal)) breakoutCnt++;
-            if ("REB10D".equalsIgnoreCase(r.signal))  reboundCnt++;
+    /** 窗口内信号的新近度加权和 Σ base·decay^age；按日期升序求和，增量与整窗重算同序、结果一致 */
+    private static double signalWeighted(TreeMap<Long, int[]> sigDays, long today) {
+        double w = 0.0;
+        for (Map.Entry<Long, int[]> e : sigDays.entrySet()) {
+            int[] k = e.getValue();
+            double base = k[0] * SIGNAL_BREAKOUT_BASE + k[1] * SIGNAL_REB10D_BASE;
+            w += base * Math.pow(SIGNAL_RECENCY_DECAY, Math.max(0, today - e.getKey()));
         }
+        return w;
+    }
 
-        double maStackAvg = stackSum / n;
-        double maSlopeAvg = (slopeCnt > 0 ? (slopeSum / slopeCnt) : 0.0);
-        double nearAvg    = nearSum  / n;
-        double volAvg     = volSum   / n;
-        double stageAvg   = stageSum / n;
+    private static long fix(double x) { return Math.round(x * FIX); }
+
+    /** 由窗口累加量得到趋势分（增量聚合与多窗口单遍共用） */
+    private static TrendScore trendScoreOf(int n, int stackSum, int slopeSum, int slopeCnt,
+                                           long nearSum, long volSum, int stageSum,
+                                           int breakoutCnt, int reboundCnt) {
+        double maStackAvg = stackSum / (3.0 * n);
+        double maSlopeAvg = (slopeCnt > 0 ? ((double) slopeSum / slopeCnt) : 0.0);
+        double nearAvg    = nearSum / FIX / n;
+        double volAvg     = volSum  / FIX / n;
+        double stageAvg   = stageSum / (10.0 * n);
 
         // 原始趋势分
         double score = W_MA_STACK * maStackAvg
@@ -218,8 +678,8 @@ public final class CsvWindowRanker {
                 + W_NEAR_52WH * nearAvg
                 + W_VOL_TREND * volAvg;
 
-        // NEW：用阶段因子“打折”，早期票 (stage≈1) 基本不打折，过度扩张的票明显降分
-        score = score * (0.5 + 0.5 * stageAvg); // 你也可以改成 score *= stageAvg，看你想压多狠
+        // 用阶段因子“打折”，早期票 (stage≈1) 基本不打折，过度扩张的票明显降分
+        score = score * (0.5 + 0.5 * stageAvg);
 
         TrendScore ts = new TrendScore();
         ts.score       = clamp01(score);
@@ -233,94 +693,247 @@ public final class CsvWindowRanker {
         return ts;
     }
 
+    /** 信号分：weighted = Σ base·decay^age */
+    private static double signalScoreOf(double weighted, boolean breakoutToday, boolean breakoutBeforeToday) {
+        // 如果“今天是窗口内第一次出现 BREAKOUT”，说明是刚启动，额外加成
+        if (breakoutToday && !breakoutBeforeToday) {
+            weighted *= 1.3;
+        }
+
+        // 软归一：1 - e^(-x) ∈ [0,1)
+        return clamp01(1.0 - Math.exp(-weighted));
+    }
+
+    /**
+     * 窗口聚合状态：symbol -> SymbolAgg，外加“哪天的文件已折叠”和按文件日期索引的逐出记录。
+     * 保存时只写每只股票的累加量（O(股票数)）和新折叠那天的段文件；已保存的段不再改写，
+     * 逐出某天时才读回那一天的段。下次启动直接恢复累加量，不再重读、重折叠整窗数据。
+     */
+    static final class WindowState {
+        final int windowDays;
+        LocalDate maxDate = LocalDate.MIN;
+        final Map<String, SymbolAgg> bySymbol = new HashMap<>();
+        final TreeMap<LocalDate, Long> folded = new TreeMap<>();               // 文件日期 -> lastModified
+        // 文件日期 -> 当日各行的逐出记录；null = 在段文件里（从状态恢复的日子），逐出时再读
+        final TreeMap<LocalDate, List<Contrib>> byDay = new TreeMap<>();
+        final Set<LocalDate> unsaved = new HashSet<>();                        // 段文件还没写的日子
+        Path segDir;                                                            // 段文件目录（load/save 时设定）
+
+        WindowState(int windowDays) { this.windowDays = windowDays; }
+
+        /** 折叠一天的文件（文件日期须晚于已折叠的所有日期），并逐出移出窗口的日子 */
+        void fold(LocalDate fileDate, long mtime, List<Row> rows) throws IOException {
+            List<Contrib> day = new ArrayList<>(rows.size());
+            for (Row r : rows) day.add(bySymbol.computeIfAbsent(r.symbol, k -> new SymbolAgg()).add(r));
+            folded.put(fileDate, mtime);
+            byDay.put(fileDate, day);
+            unsaved.add(fileDate);
+            if (fileDate.isAfter(maxDate)) maxDate = fileDate;
+            evictBefore(maxDate.minusDays(Math.max(0, windowDays - 1)));
+        }
 
-    private static double signalScore(List<Row> rows, LocalDate maxDate) {
-        double weighted = 0.0;
+        private void evictBefore(LocalDate from) throws IOException {
+            while (!byDay.isEmpty() && byDay.firstKey().isBefore(from)) {
+                LocalDate d = byDay.firstKey();
+                List<Contrib> day = byDay.get(d);
+                if (day == null) day = readSegment(d);
+                byDay.remove(d);
+                folded.remove(d);
+                unsaved.remove(d);
+                for (Contrib c : day) {
+                    SymbolAgg agg = bySymbol.get(c.symbol);
+                    if (agg == null) throw new IOException("窗口状态与段文件不一致: " + d + " " + c.symbol);
+                    agg.evictHead(c);
+                    if (agg.n == 0) bySymbol.remove(c.symbol);
+                }
+            }
+        }
+
+        List<Ranked> rank(RankMode mode, int topN) {
+            List<Ranked> out = new ArrayList<>();
+            for (Map.Entry<String, SymbolAgg> e : bySymbol.entrySet()) {
+                SymbolAgg agg = e.getValue();
+                if (agg.n == 0) continue;
 
-        boolean breakoutToday = false;        // 今天有没有 BREAKOUT
-        boolean breakoutBeforeToday = false;  // 窗口内是否曾经有过更早的 BREAKOUT
+                // 趋势分：窗口内日均
+                TrendScore ts = agg.trendScore();
 
-        for (Row r : rows) {
-            long age = Math.max(0, ChronoUnit.DAYS.between(r.date, maxDate)); // 越近 age 越小
-            double rec = Math.pow(SIGNAL_RECENCY_DECAY, age);
+                // 信号分：窗口内事件计数 + 新近度加权
+                double ss = agg.signalScore(maxDate);
 
-            String sig = (r.signal == null ? "" : r.signal.toUpperCase(Locale.ROOT));
-            boolean isBrk = "BREAKOUT".equals(sig);
-            boolean isReb = "REB10D".equals(sig);
+                out.add(toRanked(e.getKey(), agg.last, ts, ss, mode));
+            }
+
+            return sortAndCut(out, topN);
+        }
 
-            if (isBrk) {
-                weighted += SIGNAL_BREAKOUT_BASE * rec;
-                if (r.date.equals(maxDate)) {
-                    breakoutToday = true;
-                } else {
-                    breakoutBeforeToday = true;
+        // —— 持久化：首行元信息，F 行=已折叠文件，S 行=每只股票的累加量；逐出记录按天写在 segDir 下 ——
+        // 先写新段，再原子替换状态文件：中途崩溃时旧状态仍完整，多出的段会在下次折叠时被覆盖
+        void save(Path path) {
+            try {
+                Path dir = segDirOf(path);
+                Files.createDirectories(dir);
+                for (LocalDate d : new TreeSet<>(unsaved)) {
+                    List<String> lines = new ArrayList<>(byDay.get(d).size());
+                    for (Contrib c : byDay.get(d)) lines.add(c.toTsv());
+                    Path seg = dir.resolve(d + ".tsv");
+                    Path tmp = dir.resolve(d + ".tsv.tmp");
+                    Files.write(tmp, lines, StandardCharsets.UTF_8);
+                    Files.move(tmp, seg, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
                 }
-            } else if (isReb) {
-                weighted += SIGNAL_REB10D_BASE * rec;
+                unsaved.clear();
+                segDir = dir;
+
+                List<String> lines = new ArrayList<>(bySymbol.size() + folded.size() + 1);
+                lines.add(STATE_MAGIC + "\t" + windowDays + "\t" + maxDate);
+                for (Map.Entry<LocalDate, Long> e : folded.entrySet()) lines.add("F\t" + e.getKey() + "\t" + e.getValue());
+                for (Map.Entry<String, SymbolAgg> e : bySymbol.entrySet()) lines.add(e.getValue().toTsv(e.getKey()));
+                Path tmp = Paths.get(path + ".tmp");
+                Files.write(tmp, lines, StandardCharsets.UTF_8);
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                // 已移出窗口的段
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.tsv")) {
+                    for (Path p : ds) {
+                        String n = p.getFileName().toString();
+                        LocalDate d;
+                        try {
+                            d = LocalDate.parse(n.substring(0, n.length() - 4));
+                        } catch (RuntimeException ex) {
+                            continue;
+                        }
+                        if (!folded.containsKey(d)) Files.deleteIfExists(p);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("写窗口状态失败: " + e.getMessage());
             }
         }
 
-        // NEW：如果“今天是窗口内第一次出现 BREAKOUT”，说明是刚启动，额外加成
-        if (breakoutToday && !breakoutBeforeToday) {
-            weighted *= 1.3; // 你可以改成 1.2/1.5 自己微调
+        private List<Contrib> readSegment(LocalDate d) throws IOException {
+            if (segDir == null) throw new IOException("缺少段文件目录: " + d);
+            List<Contrib> out = new ArrayList<>();
+            for (String line : Files.readAllLines(segDir.resolve(d + ".tsv"), StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) out.add(Contrib.parse(line));
+            }
+            return out;
         }
 
-        // 软归一：1 - e^(-x) ∈ [0,1)
-        return clamp01(1.0 - Math.exp(-weighted));
+        /** 读状态；不存在/版本或窗口不符/损坏/段文件缺失时返回空状态（随后由 sync 全量重建） */
+        static WindowState load(Path path, int windowDays) {
+            WindowState st = new WindowState(windowDays);
+            if (!Files.exists(path)) return st;
+            try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String head = br.readLine();
+                if (head == null) return st;
+                String[] h = head.split("\t", -1);
+                if (h.length < 3 || !STATE_MAGIC.equals(h[0]) || Integer.parseInt(h[1]) != windowDays) return st;
+                st.maxDate = LocalDate.parse(h[2]);
+                st.segDir = segDirOf(path);
+
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] f = line.split("\t", -1);
+                    if (f[0].equals("F") && f.length >= 3) {
+                        LocalDate d = LocalDate.parse(f[1]);
+                        if (!Files.exists(st.segDir.resolve(d + ".tsv"))) throw new IOException("缺少段文件 " + d);
+                        st.folded.put(d, Long.parseLong(f[2]));
+                        st.byDay.put(d, null);
+                    } else if (f[0].equals("S")) {
+                        st.bySymbol.put(f[1], SymbolAgg.parse(f));
+                    }
+                }
+                return st;
+            } catch (Exception e) {
+                System.err.println("窗口状态损坏，将重建: " + e.getMessage());
+                return new WindowState(windowDays);
+            }
+        }
+    }
+
+    private static Ranked toRanked(String symbol, Row last, TrendScore ts, double ss, RankMode mode) {
+        double trend100  = ts.score * 100.0;
+        double signal100 = ss * 100.0;
+        double total;
+        if (mode == RankMode.TREND_ONLY) {
+            total = trend100;
+        } else if (mode == RankMode.SIGNAL_ONLY) {
+            total = signal100;
+        } else {
+            // HYBRID：更偏爱“最近刚有动作”的股票
+            total = 0.4 * trend100 + 0.6 * signal100;
+        }
+
+        Ranked r = new Ranked();
+        r.symbol = symbol;
+        r.name   = last.name;
+        r.latestDate = last.date;
+        r.totalScore = total;
+        r.trendScore = trend100;
+        r.signalScore= signal100;
+
+        // 参考执行区间（与此前约定一致）
+        r.entryLow  = last.trigger20h;
+        r.entryHigh = last.trigger20h * 1.03;
+        r.stop      = (Double.isNaN(last.sma10) ? last.close * 0.97 : last.sma10);
+
+        r.note = String.format(Locale.ROOT,
+                "stack=%.2f slope=%.2f near52w=%.2f vol=%.2f stage=%.2f brk=%d reb=%d",
+                ts.maStack, ts.maSlope, ts.near52w, ts.volTrend, ts.stage,
+                ts.breakoutCnt, ts.reboundCnt);
+        return r;
     }
 
     // ========= 读取 CSV =========
-    private static void readOneFile(Path file, Map<String, List<Row>> bySymbol) throws IOException {
-        LocalDate fileDate = dateFromFile(file);
-        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            String line; boolean first = true;
-            while ((line = br.readLine()) != null) {
-                if (first) { first = false; continue; } // 跳表头
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                // 简单 split（你的写出逻辑已将逗号替换为空格，安全）
-                String[] f = line.split(",", -1);
-                if (f.length < 14) continue;
-
-                Row r = new Row();
-                r.symbol     = f[0].trim();
-                r.name       = f[1].trim();
-                r.date       = parseDateSafe(f[2], fileDate);
-                r.close      = parseD(f[3]);
-                r.sma10      = parseD(f[4]);
-                r.sma20      = parseD(f[5]);
-                r.sma50      = parseD(f[6]);
-                /* 52WHigh = f[7] 不用 */
-                r.dist52w    = parseD(f[8]);
-                r.volMA20    = parseD(f[9]);
-                /* TurnoverMA20 = f[10] 不用 */
-                r.trigger20h = parseD(f[11]);
-                r.todayVol   = parseD(f[12]);
-                r.signal     = (f.length >= 14 ? f[13].trim() : "");
-
-                bySymbol.computeIfAbsent(r.symbol, k -> new ArrayList<>()).add(r);
-            }
+    // 解析交给 CandidateArchiveReader（字节级、列式、可并行），这里只把列转成窗口聚合用的行
+    private static List<Row> rowsOf(CandidateArchiveReader.FileColumns fc) {
+        List<Row> out = new ArrayList<>(fc.n);
+        for (int i = 0; i < fc.n; i++) {
+            Row r = new Row();
+            r.symbol     = fc.symbol[i];
+            r.name       = fc.name[i];
+            r.date       = LocalDate.ofEpochDay(fc.date[i]);
+            r.close      = fc.close[i];
+            r.sma10      = fc.sma10[i];
+            r.sma20      = fc.sma20[i];
+            r.sma50      = fc.sma50[i];
+            /* 52WHigh 不用 */
+            r.dist52w    = fc.dist52w[i];
+            r.volMA20    = fc.volMA20[i];
+            /* TurnoverMA20 不用 */
+            r.trigger20h = fc.trigger20h[i];
+            r.todayVol   = fc.todayVol[i];
+            r.signal     = fc.signalText[i];
+            out.add(r);
         }
+        return out;
     }
 
+    // 同一天若同时有 .csv 和 .kbc，优先用 .kbc（免文本解析）
     private static List<Path> listCandidateFiles(String dir) throws IOException {
-        List<Path> out = new ArrayList<>();
+        Map<LocalDate, Path> byDate = new TreeMap<>(); // 升序
         try (DirectoryStream<Path> ds = Files.newDirectoryStream(Paths.get(dir))) {
             for (Path p : ds) {
-                String name = p.getFileName().toString();
-                if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
-                    out.add(p);
+                if (!isCandidateFile(p.getFileName().toString())) continue;
+                LocalDate d = dateFromFile(p);
+                Path had = byDate.get(d);
+                if (had == null || p.getFileName().toString().endsWith(CandidateColumnarFile.SUFFIX)) {
+                    byDate.put(d, p);
                 }
             }
         }
-        out.sort(Comparator.comparing(CsvWindowRanker::dateFromFile)); // 升序
-        return out;
+        return new ArrayList<>(byDate.values());
+    }
+
+    private static boolean isCandidateFile(String name) {
+        return name.startsWith(FILE_PREFIX)
+                && (name.endsWith(FILE_SUFFIX) || name.endsWith(CandidateColumnarFile.SUFFIX));
     }
 
     private static LocalDate dateFromFile(Path p) {
         String name = p.getFileName().toString();
         int s = FILE_PREFIX.length();
-        int e = name.length() - FILE_SUFFIX.length();
+        int e = name.lastIndexOf('.');
         String d = name.substring(s, e);
         try {
             return LocalDate.parse(d, DATE_IN_NAME);
@@ -329,11 +942,6 @@ public final class CsvWindowRanker {
         }
     }
 
-    private static LocalDate parseDateSafe(String s, LocalDate fallback) {
-        try { return LocalDate.parse(s, DateTimeFormatter.ISO_LOCAL_DATE); }
-        catch (Exception ignore) { return fallback; }
-    }
-
     private static double parseD(String s) {
         try { return Double.parseDouble(s.trim()); } catch (Exception e) { return Double.NaN; }
     }
@@ -349,14 +957,14 @@ public final class CsvWindowRanker {
     private static String safe(String s) { return s == null ? "" : s.replace('\t',' ').replace('\n',' '); }
 
     // ========= DTO =========
-    private static final class Row {
+    static final class Row {
         String symbol, name, signal;
         LocalDate date;
         double stage;              // 新增：相对 50 日线的“阶段”评分（越早期越接近 1）
         double close, sma10, sma20, sma50, dist52w, volMA20, trigger20h, todayVol;
     }
 
-    private static final class TrendScore {
+    static final class TrendScore {
         double score;
         double maStack, maSlope, near52w, stage,volTrend;
         int breakoutCnt, reboundCnt;
@@ -370,15 +978,41 @@ public final class CsvWindowRanker {
     }
 
     // ========= 简单命令行（可选）=========
-    // 用法: java CsvWindowRanker . 10 HYBRID 50 window_rank.tsv
+    // 用法: java CsvWindowRanker . 10 HYBRID 50 window_rank.tsv [FULL|INCREMENTAL|WATCH]
+    //       java CsvWindowRanker . 5,10,15,30 ALL 50 window_rank MULTI   （多窗口×多模式单遍，out 作为文件名前缀）
     public static void main(String[] args) throws Exception {
         String dir = args.length > 0 ? args[0] : ".";
-        int window = args.length > 1 ? Integer.parseInt(args[1]) : 15;
-        RankMode mode = args.length > 2 ? RankMode.valueOf(args[2]) : RankMode.HYBRID;
+        String windowArg = args.length > 1 ? args[1] : "15";
+        String modeArg = args.length > 2 ? args[2] : "HYBRID";
         int topN = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        String run = args.length > 5 ? args[5].toUpperCase(Locale.ROOT) : "FULL";
+
+        if ("MULTI".equals(run) || windowArg.contains(",") || modeArg.contains(",") || "ALL".equalsIgnoreCase(modeArg)) {
+            String prefix = args.length > 4 ? args[4].replaceAll("\\.tsv$", "") : "window_rank_" + LocalDate.now();
+            int[] windows = Arrays.stream(windowArg.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+            List<RankMode> modes = new ArrayList<>();
+            if ("ALL".equalsIgnoreCase(modeArg)) {
+                modes.addAll(Arrays.asList(RankMode.values()));
+            } else {
+                for (String m : modeArg.split(",")) modes.add(RankMode.valueOf(m.trim()));
+            }
+            List<Combo> combos = rankMulti(dir, windows, modes, topN);
+            writeMulti(combos, prefix);
+            System.out.println("完成： " + prefix + "_*.tsv  (组合数=" + combos.size() + ")");
+            return;
+        }
+
+        int window = Integer.parseInt(windowArg);
+        RankMode mode = RankMode.valueOf(modeArg);
         String out = args.length > 4 ? args[4] : "window_rank_" + LocalDate.now() + ".tsv";
 
-        List<Ranked> ranked = rankFromDir(dir, window, mode, topN);
+        if ("WATCH".equals(run)) {
+            watch(dir, window, mode, topN, out);
+            return;
+        }
+        List<Ranked> ranked = "INCREMENTAL".equals(run)
+                ? rankIncremental(dir, window, mode, topN)
+                : rankFromDir(dir, window, mode, topN);
         writeTsv(ranked, out);
 
         System.out.println("完成： " + out + "  (Top=" + ranked.size() + ")");
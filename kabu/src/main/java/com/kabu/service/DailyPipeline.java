@@ -0,0 +1,168 @@
+package com.kabu.service;  // DailyPipeline.java
+// 晚间例行流程的单进程编排：原来分四次启动 JVM 的 TrendScreener / CsvWindowRanker / TrendSellAdvisor / RankTsvBacktester
+// 作为同一进程里的 DAG 运行，各阶段仍写出原来的文件。
+//
+//   SCREEN ──┬── SELL      读扫描刚写的当天市场宽度（MarketOK），所以排在扫描之后
+//            ├── RANK      当天行以列的形式在内存交接，不再解析当天 CSV
+//            └── BACKTEST  K 线走 TrendScreener 的缓存，扫描拉过的不再请求
+//
+// 进程内共享：UniverseIndex / MarketRegime / 日线缓存都只初始化一次；Yahoo 会话与节流（连接池、并发信号量、
+// 请求间隔）由 TrendScreener 与 TrendSellAdvisor 共用，扫描之后几个阶段同时请求也按同一个上限排队。
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+public final class DailyPipeline {
+
+    static final int    WINDOW_DAYS      = 15;
+    static final String RANK_MODE        = "HYBRID";
+    static final int    RANK_TOP_N       = 50;
+    static final int    BACKTEST_AGE_DAYS = 7;    // 回测约一周前的排名篮子
+    static final int    BACKTEST_TOP_N   = 10;
+    static final int    BACKTEST_SHARES  = 100;
+    static final String RANK_TSV_PREFIX  = "window_rank_";
+
+    enum Stage { SELL, SCREEN, RANK, BACKTEST }
+
+    private DailyPipeline() {}
+
+    // 用法: java DailyPipeline [阶段列表=SELL,SCREEN,RANK,BACKTEST] [window=15] [mode=HYBRID] [topN=50] [RECORD]
+    //   例: java DailyPipeline SCREEN,RANK      只跑扫描与窗口排名
+    //   RECORD: SELL 的卖出分配记入持仓流水（同 TrendSellAdvisor RECORD）
+    public static void main(String[] args) throws Exception {
+        EnumSet<Stage> stages = EnumSet.noneOf(Stage.class);
+        for (String s : (args.length > 0 ? args[0] : "SELL,SCREEN,RANK,BACKTEST").split(",")) {
+            stages.add(Stage.valueOf(s.trim().toUpperCase(Locale.ROOT)));
+        }
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : WINDOW_DAYS;
+        CsvWindowRanker.RankMode mode = CsvWindowRanker.RankMode.valueOf(args.length > 2 ? args[2] : RANK_MODE);
+        int topN = args.length > 3 ? Integer.parseInt(args[3]) : RANK_TOP_N;
+        boolean record = TrendSellAdvisor.JOURNAL_AUTO_SELL || (args.length > 4 && "RECORD".equalsIgnoreCase(args[4]));
+
+        LocalDate today = LocalDate.now();  // 与 TrendScreener.writeCsv 的文件日期口径一致
+        Map<Stage, String> report = run(stages, today, window, mode, topN, record);
+
+        System.out.println("===== DailyPipeline " + today + " =====");
+        boolean ok = true;
+        for (Map.Entry<Stage, String> e : report.entrySet()) {
+            System.out.println(e.getKey() + ": " + e.getValue());
+            ok &= !e.getValue().startsWith("失败");
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /** 按依赖启动所选阶段并等待全部结束；返回每个阶段的结果描述（按阶段顺序） */
+    static Map<Stage, String> run(EnumSet<Stage> stages, LocalDate today, int window,
+                                  CsvWindowRanker.RankMode mode, int topN, boolean record) {
+        Map<Stage, String> report = new ConcurrentSkipListMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(3, r -> {
+            Thread t = new Thread(r, "pipeline");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<CompletableFuture<?>> all = new ArrayList<>();
+
+            CompletableFuture<List<TrendScreener.CsvRow>> screen = stages.contains(Stage.SCREEN)
+                    ? stage(Stage.SCREEN, report, pool, () -> TrendScreener.screen(today))
+                    : CompletableFuture.completedFuture(null);
+            all.add(screen);
+
+            if (stages.contains(Stage.SELL)) {
+                // 等扫描写完当天的市场宽度再评估；扫描失败也照常评估（按已有的宽度历史）
+                all.add(screen.handle((rows, err) -> null).thenCompose(x -> stage(Stage.SELL, report, pool, () -> {
+                    PositionJournal journal = TrendSellAdvisor.openJournal();
+                    if (journal == null) return "无持仓，跳过";
+                    return "决策 " + TrendSellAdvisor.advise(journal, record).size() + " 行 -> " + TrendSellAdvisor.OUTPUT_CSV;
+                })));
+            }
+
+            if (stages.contains(Stage.RANK)) {
+                all.add(screen.handle((rows, err) -> rows).thenCompose(rows ->
+                        stage(Stage.RANK, report, pool, () -> rank(rows, today, window, mode, topN))));
+            }
+            if (stages.contains(Stage.BACKTEST)) {
+                // 只依赖扫描带来的日线缓存：扫描失败也照常回测
+                all.add(screen.handle((rows, err) -> null).thenCompose(x ->
+                        stage(Stage.BACKTEST, report, pool, () -> backtest(today))));
+            }
+
+            CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).handle((x, err) -> null).join();
+        } finally {
+            pool.shutdown();
+        }
+        return report;
+    }
+
+    /** 今天的行在内存里就直接交接；没有（未跑 SCREEN 或扫描失败）时按文件增量排名 */
+    private static String rank(List<TrendScreener.CsvRow> rows, LocalDate today, int window,
+                               CsvWindowRanker.RankMode mode, int topN) throws IOException {
+        List<CsvWindowRanker.Ranked> ranked = rows != null
+                ? CsvWindowRanker.rankIncremental(".", window, mode, topN, CandidateArchiveReader.fromRows(rows, today))
+                : CsvWindowRanker.rankIncremental(".", window, mode, topN);
+        String out = RANK_TSV_PREFIX + today + ".tsv";
+        CsvWindowRanker.writeTsv(ranked, out);
+        return "Top " + ranked.size() + " -> " + out + (rows != null ? "（当天行内存交接）" : "（按文件）");
+    }
+
+    /** 回测 BACKTEST_AGE_DAYS 天前（含）最近一份排名：名义买入日取该文件日期的次日 */
+    private static String backtest(LocalDate today) throws IOException {
+        LocalDate cutoff = today.minusDays(BACKTEST_AGE_DAYS);
+        Path best = null;
+        LocalDate bestDay = null;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(Paths.get("."), RANK_TSV_PREFIX + "*.tsv")) {
+            for (Path p : ds) {
+                String n = p.getFileName().toString();
+                LocalDate d;
+                try {
+                    d = LocalDate.parse(n.substring(RANK_TSV_PREFIX.length(), n.length() - 4));
+                } catch (RuntimeException e) {
+                    continue;  // MULTI 模式的 window_rank_日期_15d_HYBRID.tsv 等
+                }
+                if (!d.isAfter(cutoff) && (bestDay == null || d.isAfter(bestDay))) { best = p; bestDay = d; }
+            }
+        }
+        if (best == null) return "没有 " + cutoff + " 之前的排名文件，跳过";
+        RankTsvBacktester.backtestTsv(best.toString(), bestDay.plusDays(1), BACKTEST_TOP_N, BACKTEST_SHARES);
+        return best.getFileName() + "（买入日 " + bestDay.plusDays(1) + "）";
+    }
+
+    // ====== 阶段执行 ======
+
+    interface Body<T> { T call() throws Exception; }
+
+    /** 在 pool 上跑一个阶段：记录耗时与结果；失败只记入报告，不抛给其它阶段 */
+    private static <T> CompletableFuture<T> stage(Stage s, Map<Stage, String> report, ExecutorService pool, Body<T> body) {
+        return CompletableFuture.supplyAsync(() -> {
+            long t0 = System.nanoTime();
+            System.out.println(">>> " + s + " 开始");
+            try {
+                T v = body.call();
+                String secs = String.format(Locale.ROOT, "%.1fs", (System.nanoTime() - t0) / 1e9);
+                report.put(s, describe(v) + "  [" + secs + "]");
+                System.out.println("<<< " + s + " 完成 " + secs);
+                return v;
+            } catch (Exception e) {
+                report.put(s, "失败: " + e);
+                System.err.println("<<< " + s + " 失败: " + e);
+                throw new CompletionException(e);
+            }
+        }, pool);
+    }
+
+    private static String describe(Object v) {
+        if (v instanceof List) {
+            List<?> l = (List<?>) v;
+            if (!l.isEmpty() && l.get(0) instanceof TrendScreener.CsvRow) {
+                long sig = l.stream().map(o -> ((TrendScreener.CsvRow) o).signal)
+                        .filter(x -> x != null && !x.isEmpty() && !"SETUP".equals(x)).count();
+                return "候选 " + l.size() + " 行（有信号 " + sig + "）";
+            }
+            return l.size() + " 行";
+        }
+        return String.valueOf(v);
+    }
+}
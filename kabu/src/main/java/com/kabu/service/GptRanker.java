@@ -24,6 +24,7 @@ public final class GptRanker {
     public static class Candidate {
         String symbol;
         String name;
+        String sector;      // 33 业种（UniverseIndex）
         String signal;
         double close;
         double sma10, sma20, sma50;
@@ -44,6 +45,7 @@ public final class GptRanker {
             Map<String,Object> m = new LinkedHashMap<>();
             m.put("symbol", symbol);
             m.put("name", name);
+            if (sector != null && !sector.isEmpty()) m.put("sector", sector);
             m.put("signal", signal);
             m.put("close", close);
             m.put("sma10", sma10);
@@ -73,15 +75,20 @@ public final class GptRanker {
         String reason;
     }
 
-    // 仅对“有信号”的行（你在 main 里已过滤掉 SETUP 了）做排名
-    public static void rankOnlySignaled(List<TrendScreener.CsvRow> signaled, int topN) {
-        if (signaled == null || signaled.isEmpty()) return ;
+    // true = 另外把候选发给模型排序一遍（模型回答目前不解析）；排名本身始终用本地评分细则 RubricRanker。
+    // 运行时用环境变量 RANK_WITH_GPT=true 打开（另需 OPENAI_API_KEY）；模型调用失败不影响本地排名
+    static final boolean RANK_WITH_GPT = Boolean.parseBoolean(System.getenv().getOrDefault("RANK_WITH_GPT", "false"));
+
+    // 仅对“有信号”的行（你在 main 里已过滤掉 SETUP 了）做排名；结果同时写到 RANKED_TSV
+    public static List<Ranked> rankOnlySignaled(List<TrendScreener.CsvRow> signaled, int topN) {
+        if (signaled == null || signaled.isEmpty()) return new ArrayList<>();
 
         // CsvRow -> Candidate
         List<Candidate> cands = signaled.stream().map(r -> {
             Candidate c = new Candidate();
             c.symbol = r.symbol;
             c.name = r.name;
+            c.sector = UniverseIndex.shared().sectorOf(r.symbol);
             c.signal = r.signal;           // 例如 BREAKOUT / REB10D
             c.close = r.close;
             c.sma10 = r.sma10;
@@ -109,7 +116,22 @@ public final class GptRanker {
 
         }
 
-        rankWithGPT(candidates, Math.min(topN, candidates.size()),score);
+        if (RANK_WITH_GPT) {
+            try {
+                rankWithGPT(candidates, Math.min(topN, candidates.size()), score);
+            } catch (RuntimeException e) {
+                System.err.println("GPT 排名失败: " + e.getMessage());
+            }
+        }
+
+        // 本地细则：缺新闻分的候选按缺失计分，不淘汰
+        List<Ranked> ranked = RubricRanker.rank(cands, topN);
+        try {
+            RubricRanker.writeTsv(ranked, RANKED_TSV);
+        } catch (java.io.IOException e) {
+            System.err.println("写排名失败: " + e.getMessage());
+        }
+        return ranked;
     }
 
     /** 用 OpenAI Responses API 对候选打分并按可建仓性排序（仅处理传入的 candidates） */
@@ -118,42 +140,30 @@ public final class GptRanker {
         System.out.println("rankWithGPT CALL " + reqId + " cand=" + candidates.size());
         if (candidates == null || candidates.isEmpty()) return ;
 
-        // 1) 组装给 GPT 的 TSV（新增 newsPct/newsBrief 列）
-        String header = String.join("\t", Arrays.asList(
-                "symbol","name","signal","close","sma10","sma20","sma50",
-                "dist52w","volMA20","todayVol","turnoverMA20",
-                "adx","diPlus","diMinus","atrPct",
-                "newsPct","newsBrief"
-        ));
-        List<String> lines = new ArrayList<>();
-        lines.add(header);
-        for (Candidate c : candidates) {
-            lines.add(String.join("\t", Arrays.asList(
-                    nz(c.symbol), nz(c.name), nz(c.signal),
-                    d(c.close), d(c.sma10), d(c.sma20), d(c.sma50),
-                    d(c.dist52w), d(c.volMA20), d(c.todayVol), d(c.turnoverMA20),
-                    d(c.adx), d(c.diPlus), d(c.diMinus), d(c.atrPct),
-                    d(c.newsPct), nz(c.newsBrief)
-            )));
-        }
-        String table = String.join("\n", lines);
+        // 1) 组装给 GPT 的候选表：紧凑编码（选列、按精度取整、字典短码），超出 token 预算时先裁本地分数最低的
+        PromptEncoder.Encoded enc = PromptEncoder.encode(candidates, PromptEncoder.DEFAULT_TOKEN_BUDGET);
+        System.out.println(enc.report());
+        String table = enc.text;
 
-        // 2) 评分与输出格式（把“消息面 10%”纳入说明）
+        // 2) 评分与输出格式（把“消息面 10%”纳入说明；改细则时同步改 RubricRanker）
         String system = ""
                 + "你是纪律化的量化/技术面交易助手，只对给定候选做“最适合建仓”的排序。\n"
                 + "评分(0-100)：\n"
+                + "输入列：sig=信号、sec=业种（表前给出短码对照），close/sma10/sma20/sma50 为日元整数，"
+                + "d52w=距52周高点比例，volx=当日量/20日均量，turn=20日均成交额(亿円)，adx/dip/dim=ADX/DI+/DI-，"
+                + "atr=ATR/收盘价，news=新闻看多概率，brief=新闻理由；空值表示缺失。\n"
                 + " 40% 趋势质量：SMA10>SMA20>SMA50 加分；ADX 20~50 加分（>60 适度降权）；DI+>DI- 加分。\n"
                 + " 30% 入场位置：\n"
-                + "   - BREAKOUT：TodayVol/VolMA20 越高越好；dist52w 越小越佳；避免过热。\n"
+                + "   - BREAKOUT：volx 越高越好；d52w 越小越佳；避免过热。\n"
                 + "   - 其它回踩/二次启动：靠近并重新站上均线更佳（|close/sma20-1|<=5%）。\n"
-                + " 15% 流动性：turnoverMA20 越大越好。\n"
-                + " 10% 消息面：newsPct 越高越好（50 为中性）。\n"
-                + "  5% 风险：atrPct 过大或 dist52w>0.2 降权。\n"
+                + " 15% 流动性：turn 越大越好。\n"
+                + " 10% 消息面：news 越高越好（50 为中性）。\n"
+                + "  5% 风险：atr 过大或 d52w>0.2 降权。\n"
                 + "缺失数据降低得分但不直接淘汰。\n"
                 + "务必只返回 TSV，表头严格是：rank\tsymbol\tscore\tentryLow\tentryHigh\tstop\treason\n"
                 + "entry/stop 给出数值（以收盘价/均线/ATR估算），不要输出多余文字或 Markdown。";
 
-        String user = "TOPN=" + topN + "。以下是候选清单（TSV）：\n\n" + table;
+        String user = "TOPN=" + topN + "。以下是候选清单（TSV，表头前为短码对照）：\n\n" + table;
 
         // 3) 调用 Responses API
         OpenAIClient client = OpenAIOkHttpClient.fromEnv();
@@ -221,8 +231,6 @@ public final class GptRanker {
     private static double safeParseDouble(String s) {
         try { return Double.parseDouble(s.replaceAll(",", "").trim()); } catch (Exception e) { return Double.NaN; }
     }
-    private static String d(Double v) { return v == null ? "" : String.format(Locale.US, "%.6f", v); }
-    private static String nz(String s) { return s == null ? "" : s; }
     private static String stripCodeFence(String s) {
         if (s == null) return "";
         String t = s.trim();
@@ -0,0 +1,131 @@
+package com.kabu.service;  // HeadlineDedup.java
+// 近似重复标题折叠：Kabutan 常把同一件事以 開示 / 材料 / 续报 各发一条，措辞或时间略有不同。
+// 标题归一化后取字符 3-gram，算 MinHash 签名，再按 LSH 分带进桶；与同桶任一条估计 Jaccard ≥ 阈值的并成一簇，
+// 每簇只留最新的一条进摘要。每条标题的代价与其长度成正比，整批候选总体线性。
+
+import java.text.Normalizer;
+import java.util.*;
+
+public final class HeadlineDedup {
+
+    static final int    SHINGLE   = 3;     // 字符 n-gram（日文不分词）
+    static final int    NUM_HASH  = 32;    // 签名长度
+    static final int    BANDS     = 8;     // 8 带 × 4 行：约 Jaccard 0.6 处成为候选的概率过半
+    static final int    ROWS      = NUM_HASH / BANDS;
+    static final double THRESHOLD = 0.6;   // 候选再用签名估计的 Jaccard 复核
+
+    private static final long[] SEEDS = new long[NUM_HASH];
+
+    static {
+        long x = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < NUM_HASH; i++) SEEDS[i] = mix(x += 0x9E3779B97F4A7C15L);
+    }
+
+    private HeadlineDedup() {}
+
+    /**
+     * 折叠一只股票的标题列表（新→旧），返回每簇中最新的一条，顺序不变。
+     * 没有重复时原样返回。
+     */
+    public static List<HeadlineStore.Headline> collapse(List<HeadlineStore.Headline> items) {
+        int n = items.size();
+        if (n < 2) return items;
+
+        long[][] sig = new long[n][];
+        for (int i = 0; i < n; i++) sig[i] = signature(items.get(i).title);
+
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) parent[i] = i;
+        // 每个桶保留全部成员：新来的一条与桶里每个尚未同簇的成员各复核一次
+        Map<Long, List<Integer>> buckets = new HashMap<>(n * BANDS * 2);
+        for (int i = 0; i < n; i++) {
+            for (int b = 0; b < BANDS; b++) {
+                List<Integer> mates = buckets.computeIfAbsent(bandKey(sig[i], b), k -> new ArrayList<>(2));
+                for (int j : mates) {
+                    if (find(parent, j) != find(parent, i) && similarity(sig[i], sig[j]) >= THRESHOLD) union(parent, j, i);
+                }
+                mates.add(i);
+            }
+        }
+
+        // 并查集的根始终取较小下标，即簇中最新的一条
+        List<HeadlineStore.Headline> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) if (find(parent, i) == i) out.add(items.get(i));
+        return out.size() == n ? items : out;
+    }
+
+    /** 由签名估计的 Jaccard 相似度（相同分量的比例） */
+    static double similarity(long[] a, long[] b) {
+        int eq = 0;
+        for (int i = 0; i < NUM_HASH; i++) if (a[i] == b[i]) eq++;
+        return (double) eq / NUM_HASH;
+    }
+
+    static long[] signature(String title) {
+        String s = normalize(title);
+        long[] sig = new long[NUM_HASH];
+        Arrays.fill(sig, Long.MAX_VALUE);
+        int k = Math.min(SHINGLE, s.length());
+        for (int i = 0; i + k <= s.length(); i++) {
+            long h = 0;
+            for (int j = i; j < i + k; j++) h = h * 31 + s.charAt(j);
+            for (int t = 0; t < NUM_HASH; t++) {
+                long v = mix(h ^ SEEDS[t]);
+                if (v < sig[t]) sig[t] = v;
+            }
+        }
+        return sig;
+    }
+
+    /** 全角半角统一（NFKC），去掉空白、括号与标点，只留文字和数字 */
+    static String normalize(String title) {
+        String s = Normalizer.normalize(title, Normalizer.Form.NFKC);
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (Character.isLetterOrDigit(ch)) sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+    private static long bandKey(long[] sig, int band) {
+        long h = band + 1;
+        for (int r = band * ROWS; r < (band + 1) * ROWS; r++) h = mix(h * 31 + sig[r]);
+        return h;
+    }
+
+    private static long mix(long z) {  // splitmix64 终混
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int find(int[] p, int i) {
+        while (p[i] != i) { p[i] = p[p[i]]; i = p[i]; }
+        return i;
+    }
+
+    private static void union(int[] p, int a, int b) {
+        int ra = find(p, a), rb = find(p, b);
+        if (ra == rb) return;
+        if (ra < rb) p[rb] = ra; else p[ra] = rb;
+    }
+
+    // 用法: java HeadlineDedup [news_headlines.tsv]  —— 统计标题库中可折叠的条数
+    public static void main(String[] args) {
+        HeadlineStore store = HeadlineStore.open(args.length > 0 ? args[0] : HeadlineStore.STORE_TSV);
+        int before = 0, after = 0;
+        long t0 = System.nanoTime();
+        for (String sym : store.symbols()) {
+            List<HeadlineStore.Headline> items = store.get(sym);
+            List<HeadlineStore.Headline> kept = collapse(items);
+            before += items.size();
+            after += kept.size();
+            if (kept.size() < items.size()) {
+                System.out.println(sym + ": " + items.size() + " -> " + kept.size());
+                for (HeadlineStore.Headline h : items) System.out.println((kept.contains(h) ? "  + " : "  - ") + h.line());
+            }
+        }
+        System.out.printf("共 %d 条 -> %d 条，用时 %.1f ms%n", before, after, (System.nanoTime() - t0) / 1e6);
+    }
+}
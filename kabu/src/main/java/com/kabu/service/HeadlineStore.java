@@ -0,0 +1,140 @@
+package com.kabu.service;  // HeadlineStore.java
+// Kabutan 新闻标题的本地增量库（news_headlines.tsv）：每只股票保留最近 MAX_KEEP 条（新→旧）及上次抓取时刻。
+// NewsScorer 翻页时遇到已见过的条目即停止，只把新条目并进摘要；刚抓过的股票直接用库里的结果。
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class HeadlineStore {
+
+    static final String STORE_TSV   = "news_headlines.tsv";
+    static final int    MAX_KEEP    = 10;   // 与 NewsScorer 的每股条数上限（NEWS_MAX_LINES）一致
+    static final long   REFRESH_MS  = 30 * 60_000L; // 30 分钟内抓过的不再请求
+
+    /** 一条标题；when/cat 可为空串 */
+    public static final class Headline {
+        public final String when, cat, title;
+
+        public Headline(String when, String cat, String title) { this.when = when; this.cat = cat; this.title = title; }
+
+        String key() { return when + "|" + title; }
+
+        /** 摘要中的一行（与原先拼接格式一致） */
+        public String line() {
+            return "・" + (when.isBlank() ? "" : when + " ")
+                    + (cat.isBlank() ? "" : "[" + cat + "] ")
+                    + title;
+        }
+    }
+
+    static final class Entry {
+        final long fetchedAt;
+        final List<Headline> items;   // 新→旧
+        final Set<String> keys;
+
+        Entry(long fetchedAt, List<Headline> items) {
+            this.fetchedAt = fetchedAt;
+            this.items = Collections.unmodifiableList(items);
+            Set<String> k = new HashSet<>();
+            for (Headline h : items) k.add(h.key());
+            this.keys = k;
+        }
+    }
+
+    private final Path path;
+    private final Map<String, Entry> bySymbol = new ConcurrentHashMap<>();
+
+    private HeadlineStore(Path path) { this.path = path; }
+
+    public static HeadlineStore open(String path) {
+        HeadlineStore s = new HeadlineStore(Paths.get(path));
+        s.load();
+        return s;
+    }
+
+    // ====== 查询 / 合并 ======
+
+    /** 库中是否已有该条（用于翻页时判断何时停止） */
+    public boolean known(String symbol, Headline h) {
+        Entry e = bySymbol.get(symbol);
+        return e != null && e.keys.contains(h.key());
+    }
+
+    /** 上次抓取在 REFRESH_MS 之内 */
+    public boolean fresh(String symbol, long nowMs) {
+        Entry e = bySymbol.get(symbol);
+        return e != null && nowMs - e.fetchedAt < REFRESH_MS;
+    }
+
+    public List<Headline> get(String symbol) {
+        Entry e = bySymbol.get(symbol);
+        return e == null ? Collections.emptyList() : e.items;
+    }
+
+    /** 库中全部代码（升序） */
+    public List<String> symbols() { return new ArrayList<>(new TreeSet<>(bySymbol.keySet())); }
+
+    /** 新抓到的条目（新→旧）放在前面，与旧条目去重后截到 MAX_KEEP；返回合并结果 */
+    public List<Headline> merge(String symbol, List<Headline> fresh, long nowMs) {
+        List<Headline> out = new ArrayList<>(MAX_KEEP);
+        Set<String> seen = new HashSet<>();
+        for (Headline h : fresh) if (out.size() < MAX_KEEP && seen.add(h.key())) out.add(h);
+        for (Headline h : get(symbol)) if (out.size() < MAX_KEEP && seen.add(h.key())) out.add(h);
+        bySymbol.put(symbol, new Entry(nowMs, out));
+        return out;
+    }
+
+    // ====== 文件 ======
+
+    static final String HEADER = "Symbol\tFetchedAt\tWhen\tCategory\tTitle";
+
+    private void load() {
+        if (!Files.exists(path)) return;
+        Map<String, List<Headline>> items = new LinkedHashMap<>();
+        Map<String, Long> fetched = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.startsWith("Symbol\t")) continue;
+                String[] f = line.split("\t", -1);
+                if (f.length < 5) continue;
+                try {
+                    fetched.put(f[0], Long.parseLong(f[1]));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                List<Headline> l = items.computeIfAbsent(f[0], k -> new ArrayList<>());
+                if (!f[4].isEmpty()) l.add(new Headline(f[2], f[3], f[4]));
+            }
+        } catch (IOException e) {
+            System.err.println("读新闻标题库失败: " + e.getMessage());
+        }
+        for (Map.Entry<String, List<Headline>> e : items.entrySet()) {
+            bySymbol.put(e.getKey(), new Entry(fetched.get(e.getKey()), e.getValue()));
+        }
+    }
+
+    /** 整库重写（临时文件 + 原子替换）；没有标题的股票也留一行以记住抓取时刻 */
+    public void save() {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (Map.Entry<String, Entry> e : new TreeMap<>(bySymbol).entrySet()) {
+            String head = e.getKey() + "\t" + e.getValue().fetchedAt + "\t";
+            if (e.getValue().items.isEmpty()) lines.add(head + "\t\t");
+            for (Headline h : e.getValue().items) {
+                lines.add(head + clean(h.when) + "\t" + clean(h.cat) + "\t" + clean(h.title));
+            }
+        }
+        try {
+            Path tmp = Paths.get(path + ".tmp");
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("写新闻标题库失败: " + e.getMessage());
+        }
+    }
+
+    private static String clean(String s) { return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '); }
+}
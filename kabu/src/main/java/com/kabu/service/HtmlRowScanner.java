@@ -0,0 +1,148 @@
+package com.kabu.service;  // HtmlRowScanner.java
+// 流式抽取 HTML 表格行：边读边扫描标签，不建整页 DOM。只有 class 命中的 <table> 里的 <tr> 才截下原文交给回调，
+// 其余（导航、广告、脚本）读过即丢；回调返回 false 时立即停止读取。
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class HtmlRowScanner {
+
+    private static final Pattern P_CLASS = Pattern.compile("\\bclass\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos, len;
+
+    private HtmlRowScanner(Reader in) { this.in = in; }
+
+    /**
+     * 扫描 in，把 class 含 tableClasses 之一的表格中的每个 &lt;tr&gt;…&lt;/tr&gt; 原文依次交给 onRow。
+     * onRow 返回 false 即停止；返回是否读到了结尾（false = 被回调提前叫停）。
+     */
+    public static boolean scan(Reader in, Set<String> tableClasses, Predicate<String> onRow) throws IOException {
+        return new HtmlRowScanner(in).run(tableClasses, onRow);
+    }
+
+    private boolean run(Set<String> tableClasses, Predicate<String> onRow) throws IOException {
+        StringBuilder tag = new StringBuilder(256);
+        StringBuilder row = null;      // 非 null = 正在截取一行
+        int tableDepth = 0;            // >0 = 位于目标表格内（含嵌套表格的层数）
+        int c;
+        while ((c = read()) >= 0) {
+            if (c != '<') {
+                if (row != null) row.append((char) c);
+                continue;
+            }
+            int c2 = read();
+            if (c2 < 0) break;
+            if (!Character.isLetter(c2) && c2 != '/' && c2 != '!') {   // 文本里裸露的 '<'
+                if (row != null) row.append('<').append((char) c2);
+                continue;
+            }
+            tag.setLength(0);
+            tag.append('<').append((char) c2);
+            if (!readTag(tag)) break;
+            String t = tag.toString();
+            if (t.startsWith("<!--")) {               // 注释整段丢弃
+                if (!t.endsWith("-->")) skipPast("-->");
+                continue;
+            }
+            boolean end = c2 == '/';
+            String name = tagName(t, end ? 2 : 1);
+
+            if (!end && ("script".equals(name) || "style".equals(name))) {
+                skipPast("</" + name);
+                continue;
+            }
+
+            if (tableDepth == 0) {
+                if (!end && "table".equals(name) && hasClass(t, tableClasses)) tableDepth = 1;
+                continue;
+            }
+            if ("table".equals(name)) tableDepth += end ? -1 : 1;
+
+            if (tableDepth == 0) {                    // 目标表格结束：未闭合的行也算一行
+                if (row != null && !onRow.test(row.toString())) return false;
+                row = null;
+                continue;
+            }
+            if (tableDepth == 1 && "tr".equals(name)) {
+                // </tr> 可省略：下一个 <tr> 同样结束上一行
+                if (row != null) {
+                    if (end) row.append(t);
+                    if (!onRow.test(row.toString())) return false;
+                }
+                row = end ? null : new StringBuilder(1024).append(t);
+                continue;
+            }
+            if (row != null) row.append(t);
+        }
+        return row == null || onRow.test(row.toString());
+    }
+
+    /** 读到 '>' 为止（属性值引号内的 '>' 不算）；'<!--' 开头的读满 4 个字符即返回。返回 false 表示流结束 */
+    private boolean readTag(StringBuilder tag) throws IOException {
+        char quote = 0;
+        boolean inValue = false;
+        int c;
+        while ((c = read()) >= 0) {
+            tag.append((char) c);
+            if (tag.length() == 4 && "<!--".contentEquals(tag)) return true;
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '=') {
+                inValue = true;
+            } else if (inValue && (c == '"' || c == '\'')) {
+                quote = (char) c;
+            } else if (c == '>') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skipPast(String marker) throws IOException {
+        String m = marker.toLowerCase(Locale.ROOT);
+        int matched = 0, c;
+        while ((c = read()) >= 0) {
+            char ch = Character.toLowerCase((char) c);
+            if (ch == m.charAt(matched)) {
+                if (++matched == m.length()) {
+                    if (m.startsWith("</")) while ((c = read()) >= 0 && c != '>') { }  // 吃掉结束标签剩余部分
+                    return;
+                }
+            } else {
+                matched = ch == m.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    private static String tagName(String t, int from) {
+        int i = from;
+        while (i < t.length() && Character.isLetterOrDigit(t.charAt(i))) i++;
+        return t.substring(from, i).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean hasClass(String tag, Set<String> wanted) {
+        Matcher m = P_CLASS.matcher(tag);
+        if (!m.find()) return false;
+        String v = m.group(1) != null ? m.group(1) : m.group(2) != null ? m.group(2) : m.group(3);
+        for (String cls : v.trim().split("\\s+")) if (wanted.contains(cls)) return true;
+        return false;
+    }
+
+    private int read() throws IOException {
+        if (pos == len) {
+            len = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (len <= 0) { len = 0; return -1; }
+        }
+        return buf[pos++];
+    }
+}
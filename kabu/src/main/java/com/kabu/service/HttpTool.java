@@ -1,34 +1,241 @@
 package com.kabu.service;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
 import java.net.http.*;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * 共享的 HTTP 抓取工具：整个进程复用一个 java.net.http 客户端（连接池 + keep-alive，能协商 HTTP/2 就用），
+ * 每个主机最多 MAX_PER_HOST 个并发请求，其余在本地排队而不占线程；响应体按 gzip/deflate 透明解压，可流式读取。
+ * 请求超时只管到响应头为止；响应体另有读超时：超过同样时长收不到数据就从定时线程掐断并归还名额。
+ */
 public final class HttpTool {
+
+    static final int MAX_PER_HOST = 4;            // 同一主机的并发上限（kabutan 等对并发较敏感）
+    static final int DEFAULT_TIMEOUT_MS = 10000;
+    static final int CONNECT_TIMEOUT_MS = 10000;  // 连接超时是共享客户端的属性，不按请求设
+
+    private static final ExecutorService IO = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "http-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "http-deadline");
+        t.setDaemon(true);
+        return t;
+    });
+
     private static final HttpClient HTTP = HttpClient.newBuilder()
             .followRedirects(HttpClient.Redirect.NORMAL)
-            .connectTimeout(Duration.ofSeconds(10))
+            .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+            .executor(IO)
             .build();
 
-    public static String get(String url, Map<String,String> headers, int connectTimeoutMs, int readTimeoutMs) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setRequestMethod("GET");
-        conn.setConnectTimeout(connectTimeoutMs);
-        conn.setReadTimeout(readTimeoutMs);
-        for (Map.Entry<String,String> e : headers.entrySet()) {
-            conn.setRequestProperty(e.getKey(), e.getValue());
+    private static final Map<String, HostGate> GATES = new ConcurrentHashMap<>();
+
+    /** 流式响应：用完必须 close（归还该主机的并发名额） */
+    public static final class Body implements AutoCloseable {
+        public final int status;
+        public final String url;
+        public final Charset charset;
+        public final InputStream in;
+
+        Body(int status, String url, Charset charset, InputStream in) {
+            this.status = status; this.url = url; this.charset = charset; this.in = in;
         }
-        try (InputStream in = conn.getInputStream()) {
-            return new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
+
+        public String text() throws IOException {
+            try (InputStream s = in) { return new String(s.readAllBytes(), charset); }
+        }
+
+        @Override public void close() throws IOException { in.close(); }
+    }
+
+    /** 同步读取整个响应体；timeoutMs 同时是等响应头的超时和读响应体的超时（连接超时见 CONNECT_TIMEOUT_MS） */
+    public static String get(String url, Map<String,String> headers, int timeoutMs) throws IOException {
+        try {
+            return getStringAsync(url, headers, timeoutMs).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted: " + url);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            throw c instanceof IOException ? (IOException) c : new IOException(String.valueOf(c), c);
         }
     }
 
+    public static CompletableFuture<String> getStringAsync(String url, Map<String,String> headers, int timeoutMs) {
+        return getStreamAsync(url, headers, timeoutMs).thenApplyAsync(b -> {
+            try {
+                return b.text();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, IO);
+    }
+
+    /**
+     * 异步 GET：响应头到达即完成，响应体以流的形式交给调用方（已按 Content-Encoding 解压）。
+     * 状态码 ≥ 400 以 IOException 失败。读响应体时超过 timeoutMs 没有新数据即以 HttpTimeoutException 失败。
+     */
+    public static CompletableFuture<Body> getStreamAsync(String url, Map<String,String> headers, int timeoutMs) {
+        URI uri = URI.create(url);
+        HttpRequest.Builder rb = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Accept-Encoding", "gzip, deflate")
+                .GET();
+        for (Map.Entry<String,String> e : headers.entrySet()) rb.header(e.getKey(), e.getValue());
+        HttpRequest req = rb.build();
+
+        HostGate gate = GATES.computeIfAbsent(String.valueOf(uri.getHost()).toLowerCase(Locale.ROOT), h -> new HostGate());
+        CompletableFuture<Body> result = new CompletableFuture<>();
+        gate.submit(() -> send(req, url, gate, timeoutMs, result));
+        return result;
+    }
+
+    private static void send(HttpRequest req, String url, HostGate gate, int timeoutMs, CompletableFuture<Body> result) {
+        CompletableFuture<HttpResponse<InputStream>> f;
+        try {
+            f = HTTP.sendAsync(req, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (RuntimeException e) {
+            gate.release();
+            result.completeExceptionally(e);
+            return;
+        }
+        f.whenComplete((resp, err) -> {
+            if (err != null) {
+                gate.release();
+                result.completeExceptionally(err instanceof CompletionException && err.getCause() != null ? err.getCause() : err);
+                return;
+            }
+            Released raw = new Released(resp.body(), gate, timeoutMs);
+            try {
+                InputStream in = decode(resp, raw);
+                if (resp.statusCode() >= 400) {
+                    in.close();
+                    result.completeExceptionally(new IOException("HTTP " + resp.statusCode() + " " + url));
+                    return;
+                }
+                result.complete(new Body(resp.statusCode(), url, charsetOf(resp), in));
+            } catch (IOException | RuntimeException e) {
+                try { raw.close(); } catch (IOException ignored) {}
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private static InputStream decode(HttpResponse<?> resp, InputStream body) throws IOException {
+        String enc = resp.headers().firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        if ("gzip".equals(enc)) return new GZIPInputStream(body, 8192);
+        if ("deflate".equals(enc)) return new InflaterInputStream(body);
+        return body;
+    }
+
+    private static Charset charsetOf(HttpResponse<?> resp) {
+        String ct = resp.headers().firstValue("Content-Type").orElse("");
+        int i = ct.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (i >= 0) {
+            String cs = ct.substring(i + 8).replace("\"", "").split(";")[0].trim();
+            try { return Charset.forName(cs); } catch (RuntimeException ignored) {}
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /** 每主机的并发闸门：名额用完时把请求放进队列，释放时取下一个发出（不阻塞任何线程） */
+    private static final class HostGate {
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        private int inFlight;
+
+        void submit(Runnable start) {
+            synchronized (this) {
+                if (inFlight >= MAX_PER_HOST) { waiting.add(start); return; }
+                inFlight++;
+            }
+            start.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) { inFlight--; return; }
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * 未解压的响应体：关闭时归还名额（只归还一次）。超过 idleMs 读不到数据时由定时线程关闭底层流，
+     * 卡在 read 里的调用方随之以 HttpTimeoutException 返回，名额不会被停滞的连接一直占着。
+     */
+    private static final class Released extends FilterInputStream {
+        private final HostGate gate;
+        private final long idleNanos;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long lastRead = System.nanoTime();
+        private volatile boolean timedOut;
+
+        Released(InputStream in, HostGate gate, long idleMs) {
+            super(in);
+            this.gate = gate;
+            this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMs);
+            watch(idleNanos);
+        }
+
+        private void watch(long delayNanos) {
+            TIMER.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void check() {
+            if (closed.get()) return;
+            long idle = System.nanoTime() - lastRead;
+            if (idle < idleNanos) { watch(idleNanos - idle); return; }
+            timedOut = true;
+            try { close(); } catch (IOException ignored) {}
+        }
+
+        @Override public int read() throws IOException {
+            try {
+                return progress(super.read());
+            } catch (IOException e) {
+                throw timedOut ? new HttpTimeoutException("响应体读取超时") : e;
+            }
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return progress(super.read(b, off, len));
+            } catch (IOException e) {
+                throw timedOut ? new HttpTimeoutException("响应体读取超时") : e;
+            }
+        }
+
+        /** 被掐断的流可能直接读到 EOF：不能当成完整的响应体 */
+        private int progress(int r) throws IOException {
+            if (timedOut) throw new HttpTimeoutException("响应体读取超时");
+            lastRead = System.nanoTime();
+            return r;
+        }
+
+        @Override public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) return;
+            try { super.close(); } finally { gate.release(); }
+        }
+    }
 
     private HttpTool() {}
 }
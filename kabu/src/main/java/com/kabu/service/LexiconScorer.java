@@ -0,0 +1,252 @@
+package com.kabu.service;  // LexiconScorer.java
+// 本地新闻情绪打分：不调用模型，按 Kabutan 分类标签（材料/開示/テク…）与加权日文词表给标题摘要打 0-100 分。
+// 词表预编译为 Aho–Corasick 自动机（稠密字母表 + 完整转移表），每行标题一次线性扫描；
+// 重叠命中取“最左最长”（赤字縮小 优先于 赤字）。输出与 GPT 相同的 NewsScore(pct, reason)。
+
+import java.util.*;
+
+public final class LexiconScorer {
+
+    // ====== 词表：短语 -> 权重（正=利好，负=利空） ======
+    static final Object[][] LEXICON = {
+            // 业绩 / 指引
+            {"上方修正", 3.0}, {"上振れ", 2.0}, {"最高益", 3.0}, {"過去最高", 2.0}, {"増益", 2.0}, {"増収", 1.0},
+            {"黒字転換", 3.0}, {"黒字化", 2.5}, {"赤字縮小", 1.0}, {"減益幅縮小", 0.5}, {"好決算", 2.5}, {"好調", 1.5},
+            {"下方修正", -3.0}, {"下振れ", -2.0}, {"減益", -2.0}, {"減収", -1.0}, {"赤字", -2.0}, {"最終赤字", -2.5},
+            {"赤字転落", -3.0}, {"赤字拡大", -2.5}, {"特別損失", -1.5}, {"減損", -1.5}, {"不振", -1.5},
+            // 股东回报 / 资本
+            {"増配", 2.0}, {"復配", 2.5}, {"記念配当", 1.5}, {"自社株買い", 2.5}, {"自己株式取得", 2.5}, {"株式分割", 1.5},
+            {"株主優待", 1.0}, {"減配", -2.5}, {"無配", -2.5}, {"公募増資", -2.0}, {"売出し", -1.5}, {"新株予約権", -1.0},
+            {"希薄化", -2.0}, {"第三者割当", -1.0},
+            // 评级 / 股价
+            {"格上げ", 2.0}, {"目標株価引き上げ", 2.0}, {"買い推奨", 2.0}, {"格下げ", -2.0}, {"目標株価引き下げ", -2.0},
+            {"ストップ高", 2.0}, {"急伸", 1.5}, {"大幅高", 1.5}, {"年初来高値", 1.5}, {"上場来高値", 2.0}, {"続伸", 0.8},
+            {"反発", 0.5}, {"上昇", 0.5}, {"ストップ安", -2.0}, {"急落", -1.5}, {"大幅安", -1.5}, {"年初来安値", -1.5},
+            {"続落", -0.8}, {"反落", -0.5}, {"下落", -0.5},
+            // 事件
+            {"受注", 1.0}, {"提携", 1.0}, {"業務提携", 1.5}, {"資本提携", 1.5}, {"買収", 0.5}, {"TOB", 2.0}, {"承認取得", 2.0},
+            {"不祥事", -3.0}, {"不正", -2.5}, {"行政処分", -2.5}, {"訴訟", -1.5}, {"リコール", -2.0}, {"債務超過", -3.0},
+            {"継続企業の前提", -3.0}, {"上場廃止", -4.0}, {"監理銘柄", -3.0}, {"延期", -1.0},
+    };
+
+    // 分类标签权重：開示/決算 最可信，テク/市況 多为行情描述
+    static final Map<String, Double> CATEGORY_WEIGHT = Map.of(
+            "開示", 1.2, "決算", 1.2, "材料", 1.0, "注目", 0.8, "特集", 0.5, "テク", 0.5, "市況", 0.3);
+
+    static final double RECENCY_DECAY = 0.15;  // 第 i 行（新→旧）权重 1/(1+0.15·i)
+    static final double SCALE         = 4.0;   // pct = 50 + 50·tanh(raw/SCALE)
+    static final double AMBIG_BAND    = 12.0;  // |pct-50| 小于此值视为不明确
+    static final double CONFLICT_RATIO = 0.5;  // 利好利空两边都强（小边/大边 ≥ 此值）也视为不明确
+
+    /** 打分结果：score 为对外形状；ambiguous 供 HYBRID 决定是否交给模型 */
+    public static final class Result {
+        public final NewsScorer.NewsScore score;
+        public final int hits;
+        public final double pos, neg;
+
+        Result(NewsScorer.NewsScore score, int hits, double pos, double neg) {
+            this.score = score; this.hits = hits; this.pos = pos; this.neg = neg;
+        }
+
+        public boolean ambiguous() {
+            if (hits == 0) return true;
+            if (Math.abs(score.getPct() - 50.0) < AMBIG_BAND) return true;
+            double lo = Math.min(pos, neg), hi = Math.max(pos, neg);
+            return hi > 0 && lo / hi >= CONFLICT_RATIO;
+        }
+    }
+
+    // ====== 自动机 ======
+
+    private static final String[] PATTERNS;
+    private static final double[] WEIGHTS;
+    private static final char[] ALPHA = new char[65536];  // 字符 -> 稠密下标（0 = 不在词表中）
+    private static final int SIGMA;
+    private static final int[] GOTO;        // state * SIGMA + c
+    private static final int[] OUT;         // 该状态结束的最长模式（-1 无）
+    private static final int[] OUT_LINK;    // 后缀链上下一个有输出的状态（-1 无）
+
+    static {
+        PATTERNS = new String[LEXICON.length];
+        WEIGHTS = new double[LEXICON.length];
+        int sigma = 1;
+        for (int i = 0; i < LEXICON.length; i++) {
+            PATTERNS[i] = (String) LEXICON[i][0];
+            WEIGHTS[i] = ((Number) LEXICON[i][1]).doubleValue();
+            for (char ch : PATTERNS[i].toCharArray()) if (ALPHA[ch] == 0) ALPHA[ch] = (char) sigma++;
+        }
+        SIGMA = sigma;
+
+        // trie
+        List<int[]> next = new ArrayList<>();
+        List<Integer> out = new ArrayList<>();
+        next.add(new int[SIGMA]);
+        out.add(-1);
+        for (int p = 0; p < PATTERNS.length; p++) {
+            int s = 0;
+            for (char ch : PATTERNS[p].toCharArray()) {
+                int c = ALPHA[ch];
+                if (next.get(s)[c] == 0) {
+                    next.get(s)[c] = next.size();
+                    next.add(new int[SIGMA]);
+                    out.add(-1);
+                }
+                s = next.get(s)[c];
+            }
+            out.set(s, p);
+        }
+
+        // BFS：失配指针折进转移表，得到完整 DFA
+        int n = next.size();
+        GOTO = new int[n * SIGMA];
+        OUT = new int[n];
+        OUT_LINK = new int[n];
+        int[] fail = new int[n];
+        for (int s = 0; s < n; s++) OUT[s] = out.get(s);
+        Arrays.fill(OUT_LINK, -1);
+        ArrayDeque<Integer> q = new ArrayDeque<>();
+        for (int c = 1; c < SIGMA; c++) {
+            int t = next.get(0)[c];
+            GOTO[c] = t;
+            if (t != 0) { fail[t] = 0; q.add(t); }
+        }
+        while (!q.isEmpty()) {
+            int s = q.poll();
+            int f = fail[s];
+            OUT_LINK[s] = OUT[f] >= 0 ? f : OUT_LINK[f];
+            for (int c = 1; c < SIGMA; c++) {
+                int t = next.get(s)[c];
+                if (t != 0) {
+                    fail[t] = GOTO[f * SIGMA + c];
+                    GOTO[s * SIGMA + c] = t;
+                    q.add(t);
+                } else {
+                    GOTO[s * SIGMA + c] = GOTO[f * SIGMA + c];
+                }
+            }
+        }
+    }
+
+    private LexiconScorer() {}
+
+    // ====== 打分 ======
+
+    /** 对 NewsScorer 生成的多行摘要打分（每行 “・时间 [分类] 标题”，新→旧） */
+    public static Result score(String digest) {
+        if (digest == null || digest.isBlank()) return new Result(new NewsScorer.NewsScore(50.0, "信息不足"), 0, 0, 0);
+        double pos = 0, neg = 0;
+        int hits = 0, lineNo = 0;
+        double[] contrib = new double[PATTERNS.length];
+        int[] touched = new int[PATTERNS.length];
+        int nTouched = 0;
+        Scratch sc = new Scratch();
+
+        int n = digest.length();
+        for (int from = 0; from < n; ) {
+            int to = digest.indexOf('\n', from);
+            if (to < 0) to = n;
+            if (to > from && !digest.substring(from, to).isBlank()) {
+                double w = categoryWeight(digest, from, to) / (1.0 + RECENCY_DECAY * lineNo++);
+                int m = match(digest, from, to, sc);
+                for (int k = 0; k < m; k++) {
+                    int pt = sc.pats[k];
+                    double v = WEIGHTS[pt] * w;
+                    if (v > 0) pos += v; else neg -= v;
+                    if (contrib[pt] == 0) touched[nTouched++] = pt;
+                    contrib[pt] += v;
+                    hits++;
+                }
+            }
+            from = to + 1;
+        }
+
+        double raw = pos - neg;
+        double pct = 50.0 + 50.0 * Math.tanh(raw / SCALE);
+        return new Result(new NewsScorer.NewsScore(Math.round(pct * 10) / 10.0, reason(contrib, touched, nTouched)), hits, pos, neg);
+    }
+
+    private static double categoryWeight(String s, int from, int to) {
+        int a = s.indexOf('[', from);
+        if (a < 0 || a >= to) return 1.0;
+        int b = s.indexOf(']', a);
+        if (b < 0 || b >= to) return 1.0;
+        return CATEGORY_WEIGHT.getOrDefault(s.substring(a + 1, b), 1.0);
+    }
+
+    /** match 的复用缓冲：候选（起点、长度、模式）与选中结果 */
+    static final class Scratch {
+        int[] cs = new int[16], cl = new int[16], cp = new int[16];
+        int[] pats = new int[16];
+    }
+
+    /**
+     * 扫描 text[from, to)，把不重叠的命中（最左最长）按起点升序写进 sc.pats，返回个数。
+     * 每行候选很少，排序用原地插入法。
+     */
+    static int match(String text, int from, int to, Scratch sc) {
+        int s = 0, cn = 0;
+        for (int i = from; i < to; i++) {
+            s = GOTO[s * SIGMA + ALPHA[text.charAt(i)]];
+            for (int t = OUT[s] >= 0 ? s : OUT_LINK[s]; t >= 0; t = OUT_LINK[t]) {
+                int p = OUT[t], len = PATTERNS[p].length(), st = i - len + 1;
+                if (cn == sc.cs.length) {
+                    sc.cs = Arrays.copyOf(sc.cs, cn * 2); sc.cl = Arrays.copyOf(sc.cl, cn * 2); sc.cp = Arrays.copyOf(sc.cp, cn * 2);
+                }
+                // 插入：起点升序、同起点长度降序
+                int k = cn++;
+                while (k > 0 && (sc.cs[k - 1] > st || (sc.cs[k - 1] == st && sc.cl[k - 1] < len))) {
+                    sc.cs[k] = sc.cs[k - 1]; sc.cl[k] = sc.cl[k - 1]; sc.cp[k] = sc.cp[k - 1];
+                    k--;
+                }
+                sc.cs[k] = st; sc.cl[k] = len; sc.cp[k] = p;
+            }
+        }
+        if (sc.pats.length < cn) sc.pats = new int[sc.cs.length];
+        int cnt = 0, end = -1;
+        for (int k = 0; k < cn; k++) {
+            if (sc.cs[k] <= end) continue;
+            sc.pats[cnt++] = sc.cp[k];
+            end = sc.cs[k] + sc.cl[k] - 1;
+        }
+        return cnt;
+    }
+
+    /** 贡献最大的几个词拼成理由（≤15 字，与模型理由长度一致） */
+    private static String reason(double[] contrib, int[] touched, int n) {
+        if (n == 0) return "信息不足";
+        // 按 |贡献| 降序（n 很小，插入排序）
+        for (int i = 1; i < n; i++) {
+            int x = touched[i], j = i;
+            while (j > 0 && Math.abs(contrib[touched[j - 1]]) < Math.abs(contrib[x])) { touched[j] = touched[j - 1]; j--; }
+            touched[j] = x;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < n; k++) {
+            String w = PATTERNS[touched[k]];
+            if (sb.length() + w.length() + (sb.length() > 0 ? 1 : 0) > 15) break;
+            if (sb.length() > 0) sb.append('・');
+            sb.append(w);
+        }
+        return sb.length() == 0 ? "信息不足" : sb.toString();
+    }
+
+    // 用法: java LexiconScorer [news_headlines.tsv]  —— 对标题库里每只股票打分并计时
+    public static void main(String[] args) {
+        HeadlineStore store = HeadlineStore.open(args.length > 0 ? args[0] : HeadlineStore.STORE_TSV);
+        List<String> symbols = store.symbols();
+        long t0 = System.nanoTime();
+        List<String> lines = new ArrayList<>(symbols.size());
+        int ambiguous = 0;
+        for (String sym : symbols) {
+            StringBuilder dg = new StringBuilder();
+            for (HeadlineStore.Headline h : store.get(sym)) dg.append(h.line()).append('\n');
+            Result r = score(dg.toString());
+            if (r.ambiguous()) ambiguous++;
+            lines.add(String.format(Locale.ROOT, "%s\t%.1f\t%s%s", sym, r.score.getPct(), r.score.getReason(),
+                    r.ambiguous() ? "\t(不明确)" : ""));
+        }
+        double ms = (System.nanoTime() - t0) / 1e6;
+        for (String l : lines) System.out.println(l);
+        System.out.printf(Locale.ROOT, "共 %d 只，不明确 %d 只，耗时 %.2f ms%n", symbols.size(), ambiguous, ms);
+    }
+}
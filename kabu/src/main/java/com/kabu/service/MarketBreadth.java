@@ -0,0 +1,199 @@
+package com.kabu.service;  // MarketBreadth.java
+// 市场宽度：TrendScreener 预筛拉日线时对整个股票池顺手累计（无锁 LongAdder；价格/流动性过滤之前，不偏向大盘股），
+// 收盘后写入 market_breadth.tsv（每天一行）。
+// TrendSellAdvisor 读取最近一行，与基准均线一起决定 MarketOK。
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class MarketBreadth {
+
+    static final String BREADTH_TSV     = "market_breadth.tsv";
+    static final int    HILO_LOOKBACK   = 252;   // 52 周新高/新低（不足时用已有历史）
+    static final double MIN_ABOVE50_PCT = 40.0;  // 站上 50 日线比例低于此值视为宽度走弱
+    static final int    MAX_STALE_DAYS  = 7;     // 宽度数据过旧则不参与判定
+
+    private MarketBreadth() {}
+
+    // ====== 扫描期累计 ======
+
+    /** 按最后一根 K 线的日期分桶：停牌股的陈旧 K 线不会混进当天的统计 */
+    static final class Accumulator {
+        final LongAdder stocks = new LongAdder();
+        final LongAdder elig50 = new LongAdder(), above50 = new LongAdder();
+        final LongAdder elig200 = new LongAdder(), above200 = new LongAdder();
+        final LongAdder newHighs = new LongAdder(), newLows = new LongAdder();
+        final LongAdder advancers = new LongAdder(), decliners = new LongAdder();
+        final LongAdder advVolume = new LongAdder(), decVolume = new LongAdder();
+    }
+
+    private static final Map<LocalDate, Accumulator> BY_DAY = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一只股票的日线（close/high/low/volume 按时间升序，最后一格为当天）。
+     * 只做 O(回看) 的加法，不影响扫描本身。
+     */
+    static void observe(LocalDate day, double[] close, double[] high, double[] low, long[] volume) {
+        int n = close.length;
+        if (n < 2) return;
+        Accumulator a = BY_DAY.computeIfAbsent(day, k -> new Accumulator());
+        int last = n - 1;
+        double c = close[last];
+        a.stocks.increment();
+
+        if (n >= 50) {
+            a.elig50.increment();
+            if (c > mean(close, n - 50, n)) a.above50.increment();
+        }
+        if (n >= 200) {
+            a.elig200.increment();
+            if (c > mean(close, n - 200, n)) a.above200.increment();
+        }
+
+        double hi = Double.NEGATIVE_INFINITY, lo = Double.POSITIVE_INFINITY;
+        for (int i = Math.max(0, last - HILO_LOOKBACK + 1); i < last; i++) {
+            hi = Math.max(hi, high[i]);
+            lo = Math.min(lo, low[i]);
+        }
+        if (high[last] > hi) a.newHighs.increment();
+        if (low[last] < lo) a.newLows.increment();
+
+        double prev = close[last - 1];
+        if (c > prev) {
+            a.advancers.increment();
+            a.advVolume.add(volume[last]);
+        } else if (c < prev) {
+            a.decliners.increment();
+            a.decVolume.add(volume[last]);
+        }
+    }
+
+    private static double mean(double[] x, int from, int to) {
+        double s = 0.0;
+        for (int i = from; i < to; i++) s += x[i];
+        return s / (to - from);
+    }
+
+    /** 覆盖股票数最多的那天即扫描日；无数据返回 null */
+    static Snapshot snapshot() {
+        LocalDate best = null;
+        long bestN = -1;
+        for (Map.Entry<LocalDate, Accumulator> e : BY_DAY.entrySet()) {
+            long k = e.getValue().stocks.sum();
+            if (k > bestN || (k == bestN && e.getKey().isAfter(best))) { best = e.getKey(); bestN = k; }
+        }
+        if (best == null) return null;
+        Accumulator a = BY_DAY.get(best);
+        Snapshot s = new Snapshot();
+        s.date = best;
+        s.stocks = a.stocks.sum();
+        s.above50Pct = pct(a.above50.sum(), a.elig50.sum());
+        s.above200Pct = pct(a.above200.sum(), a.elig200.sum());
+        s.newHighs = a.newHighs.sum();
+        s.newLows = a.newLows.sum();
+        s.advancers = a.advancers.sum();
+        s.decliners = a.decliners.sum();
+        s.advVolume = a.advVolume.sum();
+        s.decVolume = a.decVolume.sum();
+        return s;
+    }
+
+    private static double pct(long k, long n) { return n == 0 ? Double.NaN : 100.0 * k / n; }
+
+    // ====== 文件 ======
+
+    public static final class Snapshot {
+        public LocalDate date;
+        public long stocks, newHighs, newLows, advancers, decliners, advVolume, decVolume;
+        public double above50Pct, above200Pct;
+
+        public long netHighs() { return newHighs - newLows; }
+
+        public double upDownVolume() { return decVolume == 0 ? Double.NaN : (double) advVolume / decVolume; }
+
+        /** 宽度是否健康：站上 50 日线的比例够高，且新高不少于新低 */
+        public boolean healthy() {
+            return (Double.isNaN(above50Pct) || above50Pct >= MIN_ABOVE50_PCT) && netHighs() >= 0;
+        }
+
+        String toTsv() {
+            return String.format(Locale.US, "%s\t%d\t%.1f\t%.1f\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%.2f",
+                    date, stocks, above50Pct, above200Pct, newHighs, newLows, netHighs(),
+                    advancers, decliners, advVolume, decVolume, upDownVolume());
+        }
+
+        static Snapshot parse(String line) {
+            String[] f = line.split("\t", -1);
+            if (f.length < 11) return null;
+            try {
+                Snapshot s = new Snapshot();
+                s.date = LocalDate.parse(f[0]);
+                s.stocks = Long.parseLong(f[1]);
+                s.above50Pct = Double.parseDouble(f[2]);
+                s.above200Pct = Double.parseDouble(f[3]);
+                s.newHighs = Long.parseLong(f[4]);
+                s.newLows = Long.parseLong(f[5]);
+                s.advancers = Long.parseLong(f[7]);
+                s.decliners = Long.parseLong(f[8]);
+                s.advVolume = Long.parseLong(f[9]);
+                s.decVolume = Long.parseLong(f[10]);
+                return s;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    static final String HEADER = "Date\tStocks\tAbove50%\tAbove200%\tNewHighs\tNewLows\tNetHighs"
+            + "\tAdvancers\tDecliners\tAdvVolume\tDecVolume\tUpDownVol";
+
+    /** 把本次扫描的结果写入历史文件（同一天覆盖），临时文件 + 原子替换；同进程里已读过的历史随之作废 */
+    static synchronized Snapshot writeDaily(String path) throws IOException {
+        Snapshot s = snapshot();
+        if (s == null) return null;
+        TreeMap<LocalDate, Snapshot> all = readAll(path);
+        all.put(s.date, s);
+        Path p = Paths.get(path);
+        Path tmp = Paths.get(path + ".tmp");
+        List<String> lines = new ArrayList<>(all.size() + 1);
+        lines.add(HEADER);
+        for (Snapshot x : all.values()) lines.add(x.toTsv());
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        loaded = null;   // 下次 asOf 重新读，能看到今天这一行
+        return s;
+    }
+
+    static TreeMap<LocalDate, Snapshot> readAll(String path) {
+        TreeMap<LocalDate, Snapshot> out = new TreeMap<>();
+        Path p = Paths.get(path);
+        if (!Files.exists(p)) return out;
+        try {
+            for (String line : Files.readAllLines(p, StandardCharsets.UTF_8)) {
+                if (line.startsWith("Date")) continue;
+                Snapshot s = Snapshot.parse(line);
+                if (s != null) out.put(s.date, s);
+            }
+        } catch (IOException e) {
+            System.err.println("读宽度文件失败: " + e.getMessage());
+        }
+        return out;
+    }
+
+    // ====== 读取端（TrendSellAdvisor）======
+
+    private static TreeMap<LocalDate, Snapshot> loaded;
+
+    /** day 当天或之前最近一行；没有或已过旧返回 null（调用方按“未知”处理） */
+    public static synchronized Snapshot asOf(LocalDate day) {
+        if (loaded == null) loaded = readAll(BREADTH_TSV);
+        Map.Entry<LocalDate, Snapshot> e = loaded.floorEntry(day);
+        if (e == null || e.getKey().plusDays(MAX_STALE_DAYS).isBefore(day)) return null;
+        return e.getValue();
+    }
+}
@@ -0,0 +1,141 @@
+package com.kabu.service;  // MarketRegime.java
+// 市场环境（顺风/逆风）：以指数 ETF 的日线为基准，全进程共享一份。
+// 口径沿用原 marketTailwind：收盘 > MA50 且 > MA200，且 MA200 较前一日上行；数据不足 210 根时视为顺风。
+// 均线用滚动和增量维护：append 为新的一天，replaceLast 为盘中刷新当天。
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Locale;
+
+public final class MarketRegime {
+
+    static final String[] BENCHMARKS = {"1306.T", "1321.T"}; // TOPIX ETF 优先，日经225 ETF 兜底
+    static final String   RANGE      = "2y";                 // 多取一年，便于按历史日期回看
+    static final int FAST = 50, SLOW = 200, MIN_BARS = 210;
+
+    private static MarketRegime shared;
+    private static LocalDate sharedDay;
+
+    final String symbol;
+    private long[] ts = new long[0];
+    private double[] close = new double[0];
+    private double[] maFast = new double[0], maSlow = new double[0];
+    private int n;
+    private double sumFast, sumSlow;
+
+    MarketRegime(String symbol) { this.symbol = symbol; }
+
+    /**
+     * 进程内共享实例：每个交易日只拉一次基准行情（常驻进程跨日会自动重取）。
+     * 基准全部取不到时返回空序列，tailwind 恒为 true（与原先数据不足时一致）。
+     */
+    public static synchronized MarketRegime shared() {
+        LocalDate today = LocalDate.now(TrendSellAdvisor.JP);
+        if (shared != null && today.equals(sharedDay)) return shared;
+        MarketRegime r = null;
+        for (String sym : BENCHMARKS) {
+            try {
+                r = fetch(sym);
+                if (r.size() >= MIN_BARS) break;
+            } catch (Exception e) {
+                System.err.println("基准行情获取失败 " + sym + " -> " + e.getMessage());
+            }
+        }
+        shared = (r != null) ? r : new MarketRegime("N/A");
+        sharedDay = today;
+        System.out.println("市场环境: " + shared.describe());
+        return shared;
+    }
+
+    static MarketRegime fetch(String symbol) throws Exception {
+        String url = TrendSellAdvisor.yahooBase() + "/v8/finance/chart/" + symbol + "?range=" + RANGE + "&interval=1d";
+        JsonNode res = TrendSellAdvisor.getJson(url, symbol).path("chart").path("result").path(0);
+        JsonNode t = res.path("timestamp");
+        JsonNode q = res.path("indicators").path("quote").path(0);
+        MarketRegime r = new MarketRegime(symbol);
+        for (int i = 0; i < t.size(); i++) {
+            double c = TrendSellAdvisor.getNum(q, "close", i);
+            if (!Double.isNaN(c)) r.append(t.get(i).asLong(), c);
+        }
+        return r;
+    }
+
+    // ====== 增量维护 ======
+
+    /** 追加新的一天（ts 须递增） */
+    public synchronized void append(long epochSec, double c) {
+        if (n == ts.length) grow();
+        ts[n] = epochSec;
+        close[n] = c;
+        sumFast += c;
+        sumSlow += c;
+        if (n >= FAST) sumFast -= close[n - FAST];
+        if (n >= SLOW) sumSlow -= close[n - SLOW];
+        n++;
+        maFast[n - 1] = n >= FAST ? sumFast / FAST : Double.NaN;
+        maSlow[n - 1] = n >= SLOW ? sumSlow / SLOW : Double.NaN;
+    }
+
+    /** 盘中刷新最后一天的收盘（新的一天请用 append） */
+    public synchronized void replaceLast(double c) {
+        if (n == 0) return;
+        double d = c - close[n - 1];
+        close[n - 1] = c;
+        sumFast += d;
+        sumSlow += d;
+        if (n >= FAST) maFast[n - 1] = sumFast / FAST;
+        if (n >= SLOW) maSlow[n - 1] = sumSlow / SLOW;
+    }
+
+    private void grow() {
+        int cap = Math.max(256, ts.length * 2);
+        ts = Arrays.copyOf(ts, cap);
+        close = Arrays.copyOf(close, cap);
+        maFast = Arrays.copyOf(maFast, cap);
+        maSlow = Arrays.copyOf(maSlow, cap);
+    }
+
+    // ====== 查询 ======
+
+    public synchronized int size() { return n; }
+
+    /** epochSec 是否与最后一天同属一个东京交易日 */
+    public synchronized boolean isSameDay(long epochSec) {
+        return n > 0 && dayOf(ts[n - 1]).equals(dayOf(epochSec));
+    }
+
+    private static LocalDate dayOf(long epochSec) {
+        return Instant.ofEpochSecond(epochSec).atZone(TrendSellAdvisor.JP).toLocalDate();
+    }
+
+    /** 最新一天是否顺风 */
+    public synchronized boolean tailwind() { return tailwindIdx(n - 1); }
+
+    /** 截至 epochSec 当天（含）最近一个交易日是否顺风；用于按持仓的 K 线日期对齐 */
+    public synchronized boolean tailwindAt(long epochSec) {
+        // 按东京日历日对齐（Yahoo 日线时间戳在 9:00，Stooq 在 0:00）
+        long dayEnd = dayOf(epochSec).plusDays(1).atStartOfDay(TrendSellAdvisor.JP).toEpochSecond();
+        int lo = 0, hi = n - 1, idx = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] < dayEnd) { idx = mid; lo = mid + 1; } else hi = mid - 1;
+        }
+        return tailwindIdx(idx);
+    }
+
+    private boolean tailwindIdx(int i) {
+        if (i + 1 < MIN_BARS) return true;
+        return close[i] > maFast[i] && close[i] > maSlow[i] && (maSlow[i] - maSlow[i - 1]) > 0;
+    }
+
+    public synchronized String describe() {
+        if (n == 0) return symbol + " 无数据（按顺风处理）";
+        int i = n - 1;
+        return String.format(Locale.US, "%s %s close=%.2f MA%d=%.2f MA%d=%.2f → %s",
+                symbol, dayOf(ts[i]),
+                close[i], FAST, maFast[i], SLOW, maSlow[i], tailwindIdx(i) ? "顺风" : "逆风");
+    }
+}
@@ -4,9 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openai.models.responses.*;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import com.openai.client.OpenAIClient;
 import com.openai.client.okhttp.OpenAIOkHttpClient;
@@ -15,9 +13,8 @@ import com.openai.models.ChatModel;
 import java.util.regex.*;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
 
-/** 只处理传入的候选；为每只股票生成新闻摘要，并让 GPT 一次性打出 0-100 的看多百分比。 */
+/** 只处理传入的候选；为每只股票生成新闻摘要，并让 GPT 分块打出 0-100 的看多百分比。 */
 public final class NewsScorer {
 
     // 用便宜一些的模型做情绪分析，减少成本；也可以用你同一个模型
@@ -25,57 +22,278 @@ public final class NewsScorer {
     private static final ObjectMapper JSON = new ObjectMapper();
 
 
+    // 打分方式：LEXICON 只用本地词表；GPT 全部交给模型；HYBRID 词表明确的直接采用，不明确的才交给模型。
+    // 环境变量 NEWS_MODE 可指定；未指定时有 OPENAI_API_KEY 用 HYBRID，没有就只用词表（不发任何远程请求）
+    enum Mode { LEXICON, GPT, HYBRID }
+    static final Mode NEWS_MODE = Mode.valueOf(System.getenv().getOrDefault("NEWS_MODE",
+            System.getenv("OPENAI_API_KEY") != null ? "HYBRID" : "LEXICON").trim().toUpperCase(Locale.ROOT));
+
+    static final int  NEWS_CHUNK        = 8;    // 每次 GPT 调用最多评几只
+    static final long NEWS_DIGEST_WAIT_S = 60;  // 等抓取的上限
+    static final long NEWS_SCORE_WAIT_S  = 120; // 等全部评分的上限
+
     public static Map<String, NewsScore>  fillNewsScoreBatch(List<GptRanker.Candidate> cands) {
-        Map<String, NewsScore> scores=new HashMap<>();
-        if (cands == null || cands.isEmpty()) return scores;
+        return fillNewsScoreBatch(cands, null);
+    }
 
-        // 1) 并发抓网页 -> 提炼每只的 “标题摘要”
-        Map<String, String> digestBySymbol = fetchNewsDigests(cands);
+    /**
+     * 流水线：每只股票的摘要一抓好就进入待评队列，凑满 NEWS_CHUNK 只立即发出一次异步 GPT 调用，
+     * 抓取与评分重叠进行；每个分块各自解析，坏掉的一块不影响其它块。
+     * onScore 非空时，每块返回就逐只回调（可能在其它线程）。
+     * 摘要与上次相同（ScoreCache 按内容命中且未过期）的股票直接用缓存分数，不进入分块。
+     * NEWS_MODE 为 HYBRID 时先用 LexiconScorer 预筛，只有不明确的才进入分块；模型那块失败时退回词表分数。
+     */
+    public static Map<String, NewsScore> fillNewsScoreBatch(List<GptRanker.Candidate> cands,
+                                                            java.util.function.BiConsumer<String, NewsScore> onScore) {
+        if (cands == null || cands.isEmpty()) return new HashMap<>();
 
-        // 把摘要写回去，空的置为中性
+        // 分数到达之前没有新闻分（不预设中性值：RubricRanker 对缺新闻分的候选按 NEWS_MISSING 计）
         for (GptRanker.Candidate c : cands) {
-            String dg = digestBySymbol.getOrDefault(c.symbol, "");
-            c.newsBrief = dg;
-            c.newsPct = 50.0; // 默认中性，等会儿再被 GPT 覆盖
+            c.newsBrief = "";
+            c.newsPct = null;
         }
 
-        // 2) 组合成一个批量 prompt，让 GPT 对所有有摘要的股票一次性输出 TSV: symbol\tpct\treason
-        List<GptRanker.Candidate> withDigest = cands.stream()
-                .filter(x -> x.newsBrief != null && !x.newsBrief.isBlank())
-                .collect(Collectors.toList());
-        if (withDigest.isEmpty()) return scores;
+        long now = System.currentTimeMillis();
+        ScoreCache cache = ScoreCache.open(ScoreCache.CACHE_TSV);
+        ScorePipeline pipeline = new ScorePipeline(null, onScore, cache, now, NEWS_MODE);
+        HeadlineStore store = HeadlineStore.open(HeadlineStore.STORE_TSV);
+        List<CompletableFuture<Void>> digests = new ArrayList<>(cands.size());
+        for (GptRanker.Candidate c : cands) {
+            digests.add(digestAsync(c, store, now).thenAccept(dg -> pipeline.offer(c, dg)));
+        }
 
-        StringBuilder user = new StringBuilder();
-        user.append("请对以下每只股票，根据“仅有的新闻标题摘要”，评估短期(5-10个交易日)看多概率百分比(0-100)，")
-                .append("并给出不超过15字的中文理由。只输出 TSV：symbol\\tbullishPct\\treason，每行一只，按给出顺序；")
-                .append("若信息不足请给 50 并写 '信息不足'。\n\n");
+        CompletableFuture<Void> fetched = CompletableFuture.allOf(digests.toArray(new CompletableFuture<?>[0]));
+        try {
+            fetched.get(NEWS_DIGEST_WAIT_S, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            System.err.println("抓取 kabutan 未全部完成: " + e.getMessage());
+        }
+        // 标题库等全部抓取结束再存：超时后晚到的也会并进库里，且不会与 save 交错（按时完成时就在本线程存）
+        fetched.handle((x, err) -> { store.save(); return null; });
+        Map<String, NewsScore> scores = pipeline.finish(NEWS_SCORE_WAIT_S);
+        cache.save(System.currentTimeMillis());
+        System.out.println(cache.stats());
+        return scores;
+    }
 
-        for (GptRanker.Candidate c : withDigest) {
-            user.append("### ").append(c.symbol).append("\n").append(c.newsBrief).append("\n\n");
+    static final String NEWS_PROMPT_HEAD = "请对以下每只股票，根据“仅有的新闻标题摘要”，评估短期(5-10个交易日)看多概率百分比(0-100)，"
+            + "并给出不超过15字的中文理由。每只输出一项 {symbol, bullishPct, reason}，按给出顺序；"
+            + "若信息不足请给 50 并写 '信息不足'。\n\n";
+    static final String NEWS_SYSTEM = "你是金融新闻情绪分析助手。不要编造新闻，只依据给出的标题列表判断。严格按 JSON schema 输出。";
+
+    /** 分块评分：offer 攒批，满块即发；finish 关闭入口、发出余下的并等待全部返回（之后到的摘要一律丢弃） */
+    static final class ScorePipeline {
+        private final java.util.function.Function<List<GptRanker.Candidate>, CompletableFuture<Map<String, NewsScore>>> scorer;
+        private final java.util.function.BiConsumer<String, NewsScore> onScore;
+        private final Map<String, NewsScore> scores = new ConcurrentHashMap<>();
+        private final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        private final ScoreCache cache;              // 可为 null
+        private final long now;
+        private final Mode mode;
+        private final Map<String, String> keys = new ConcurrentHashMap<>();  // symbol -> 缓存键
+        private final Map<String, NewsScore> fallback = new ConcurrentHashMap<>();  // HYBRID：送模型的股票的词表分
+        private List<GptRanker.Candidate> pending = new ArrayList<>(NEWS_CHUNK);
+        private int chunks, failed, late;
+        private boolean closed;
+
+        /** scorer 为 null 时用 GPT（客户端按环境变量 OPENAI_API_KEY / OPENAI_BASE_URL 在首次发送时创建，可指向本地桩） */
+        ScorePipeline(java.util.function.Function<List<GptRanker.Candidate>, CompletableFuture<Map<String, NewsScore>>> scorer,
+                      java.util.function.BiConsumer<String, NewsScore> onScore) {
+            this(scorer, onScore, null, 0L, Mode.GPT);
         }
 
-        String system = "你是金融新闻情绪分析助手。不要编造新闻，只依据给出的标题列表判断。严格输出 TSV。";
+        ScorePipeline(java.util.function.Function<List<GptRanker.Candidate>, CompletableFuture<Map<String, NewsScore>>> scorer,
+                      java.util.function.BiConsumer<String, NewsScore> onScore, ScoreCache cache, long now, Mode mode) {
+            this.scorer = scorer != null ? scorer : new GptChunkScorer();
+            this.onScore = onScore;
+            this.cache = cache;
+            this.now = now;
+            this.mode = mode;
+        }
+
+        /** 摘要到达：写进候选并送评；finish 之后才到的不再改动候选，返回 false */
+        synchronized boolean offer(GptRanker.Candidate c, String digest) {
+            if (closed) {
+                late++;
+                return false;
+            }
+            c.newsBrief = digest;
+            if (!digest.isBlank()) offer(c);
+            return true;
+        }
 
-        OpenAIClient client = OpenAIOkHttpClient.fromEnv();
-        ResponseCreateParams params = ResponseCreateParams.builder()
+        synchronized void offer(GptRanker.Candidate c) {
+            if (closed) {
+                late++;
+                return;
+            }
+            if (mode != Mode.GPT) {
+                LexiconScorer.Result lx = LexiconScorer.score(c.newsBrief);
+                if (mode == Mode.LEXICON || !lx.ambiguous()) {
+                    deliver(c.symbol, lx.score);
+                    return;
+                }
+                fallback.put(c.symbol, lx.score);
+            }
+            if (cache != null) {
+                String key = ScoreCache.key(MODEL_FOR_NEWS.asString(), NEWS_SYSTEM + "\n" + NEWS_PROMPT_HEAD, c.symbol, c.newsBrief);
+                NewsScore hit = cache.get(key, now);
+                if (hit != null) {
+                    deliver(c.symbol, hit);
+                    return;
+                }
+                keys.put(c.symbol, key);
+            }
+            pending.add(c);
+            if (pending.size() >= NEWS_CHUNK) launch();
+        }
+
+        Map<String, NewsScore> finish(long timeoutSec) {
+            CompletableFuture<?>[] all;
+            synchronized (this) {
+                closed = true;
+                if (!pending.isEmpty()) launch();
+                all = inFlight.toArray(new CompletableFuture<?>[0]);
+            }
+            try {
+                CompletableFuture.allOf(all).get(timeoutSec, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                System.err.println("NewsScorer 评分未全部完成: " + e.getMessage());
+            }
+            synchronized (this) {
+                if (failed > 0) System.err.println("NewsScorer: " + failed + "/" + chunks + " 个分块评分失败");
+                if (late > 0) System.err.println("NewsScorer: " + late + " 只的摘要在收尾后才到，未评分");
+            }
+            return new LinkedHashMap<>(scores);
+        }
+
+        private void launch() {
+            List<GptRanker.Candidate> chunk = pending;
+            pending = new ArrayList<>(NEWS_CHUNK);
+            int no = ++chunks;
+            CompletableFuture<Void> f;
+            try {
+                f = scorer.apply(chunk).thenAccept(got -> accept(chunk, got));
+            } catch (RuntimeException e) {
+                f = CompletableFuture.failedFuture(e);
+            }
+            inFlight.add(f.exceptionally(e -> {
+                synchronized (this) { failed++; }
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                System.err.println("NewsScorer 分块 #" + no + " 调用 GPT 失败: " + cause.getMessage());
+                for (GptRanker.Candidate c : chunk) {
+                    NewsScore lx = fallback.get(c.symbol);
+                    if (lx != null) deliver(c.symbol, lx);
+                }
+                return null;
+            }));
+        }
+
+        private void accept(List<GptRanker.Candidate> chunk, Map<String, NewsScore> got) {
+            for (GptRanker.Candidate c : chunk) {
+                NewsScore sc = got.get(c.symbol);
+                String key = keys.get(c.symbol);
+                if (sc != null && key != null) cache.put(key, sc, System.currentTimeMillis());
+                if (sc == null) sc = fallback.get(c.symbol);   // 模型漏掉的退回词表分（不入缓存）
+                if (sc != null) deliver(c.symbol, sc);
+            }
+        }
+
+        private void deliver(String symbol, NewsScore sc) {
+            scores.put(symbol, sc);
+            if (onScore != null) onScore.accept(symbol, sc);
+        }
+    }
+
+    /** 一块一次异步 Responses 调用；OkHttp 的调度器限制同一主机的并发 */
+    static final class GptChunkScorer
+            implements java.util.function.Function<List<GptRanker.Candidate>, CompletableFuture<Map<String, NewsScore>>> {
+        private OpenAIClient client;
+
+        @Override public synchronized CompletableFuture<Map<String, NewsScore>> apply(List<GptRanker.Candidate> chunk) {
+            if (client == null) client = OpenAIOkHttpClient.fromEnv();
+            return client.async().responses().create(chunkParams(chunk)).thenApply(resp -> parseScores(outputText(resp)));
+        }
+    }
+
+    static ResponseCreateParams chunkParams(List<GptRanker.Candidate> chunk) {
+        StringBuilder user = new StringBuilder();
+        user.append(NEWS_PROMPT_HEAD);
+        for (GptRanker.Candidate c : chunk) {
+            user.append("### ").append(c.symbol).append("\n").append(c.newsBrief).append("\n\n");
+        }
+        return ResponseCreateParams.builder()
                 .model(MODEL_FOR_NEWS)
-                .instructions(system)
+                .instructions(NEWS_SYSTEM)
                 .input(user.toString())
+                .text(ResponseTextConfig.builder().format(scoreFormat()).build())
                 .build();
+    }
 
+    // {"scores":[{"symbol":..,"bullishPct":..,"reason":..}]}，严格模式；用到时才构建（不评分时不加载 SDK）
+    private static ResponseFormatTextJsonSchemaConfig scoreFormat;
 
-        try {
-            Response resp = client.responses().create(params);
-            String respStr = String.valueOf(resp);
-             scores =
-                    parseFromResponseToString(respStr);
-        } catch (Exception e) {
-            System.err.println("NewsScorer 调用 GPT 失败: " + e.getMessage());
-            return scores;
-        }
-           return scores;
+    private static synchronized ResponseFormatTextJsonSchemaConfig scoreFormat() {
+        if (scoreFormat == null) scoreFormat = buildScoreFormat();
+        return scoreFormat;
+    }
+
+    private static ResponseFormatTextJsonSchemaConfig buildScoreFormat() {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("type", "object");
+        item.put("properties", Map.of(
+                "symbol", Map.of("type", "string"),
+                "bullishPct", Map.of("type", "number"),
+                "reason", Map.of("type", "string")));
+        item.put("required", List.of("symbol", "bullishPct", "reason"));
+        item.put("additionalProperties", false);
+
+        ResponseFormatTextJsonSchemaConfig.Schema.Builder schema = ResponseFormatTextJsonSchemaConfig.Schema.builder()
+                .putAdditionalProperty("type", com.openai.core.JsonValue.from("object"))
+                .putAdditionalProperty("properties", com.openai.core.JsonValue.from(
+                        Map.of("scores", Map.of("type", "array", "items", item))))
+                .putAdditionalProperty("required", com.openai.core.JsonValue.from(List.of("scores")))
+                .putAdditionalProperty("additionalProperties", com.openai.core.JsonValue.from(false));
+        return ResponseFormatTextJsonSchemaConfig.builder()
+                .name("news_scores")
+                .schema(schema.build())
+                .strict(true)
+                .build();
+    }
 
+    /** 按类型取出所有 output_text（不再对 Response.toString() 做正则） */
+    static String outputText(Response resp) {
+        StringBuilder sb = new StringBuilder();
+        for (ResponseOutputItem item : resp.output()) {
+            item.message().ifPresent(m -> {
+                for (ResponseOutputMessage.Content ct : m.content()) {
+                    ct.outputText().ifPresent(t -> sb.append(t.text()).append('\n'));
+                }
+            });
+        }
+        return sb.toString().trim();
+    }
 
+    /** 优先按 JSON schema 解析；模型没按格式回时退回 TSV 解析 */
+    static Map<String, NewsScore> parseScores(String text) {
+        Map<String, NewsScore> map = new LinkedHashMap<>();
+        String t = text.trim();
+        if (t.startsWith("```")) t = t.replaceAll("^```[a-zA-Z]*\\s*", "").replaceAll("```\\s*$", "").trim();
+        if (t.startsWith("{")) {
+            try {
+                JsonNode arr = JSON.readTree(t).path("scores");
+                for (JsonNode n : arr) {
+                    String sym = n.path("symbol").asText("").trim();
+                    JsonNode pct = n.path("bullishPct");
+                    if (sym.isEmpty() || !pct.isNumber()) continue;
+                    map.put(sym, new NewsScore(pct.asDouble(), n.path("reason").asText("")));
+                }
+                return map;
+            } catch (java.io.IOException e) {
+                // 落到 TSV
+            }
+        }
+        return parseNewsScoresTsv(t);
     }
 
     // —— 抓 minkabu 新闻页，提炼最多 8 条 “- 标题 (时间?)” —— //
@@ -94,84 +312,104 @@ public final class NewsScorer {
      * @param cands  有信号的候选
      * @return       每只股票“新闻摘要”的 map，用于拼进 GPT 提示词
      */
-// 需要：Jsoup + 你的 HttpTool.get(String url, Map<String,String> headers, int connMs, int readMs)
+// 需要：Jsoup + HttpTool.getStreamAsync（共享连接池，同一主机并发受限）
+
+    private static final int NEWS_PAGES = 2;       // 每只股抓多少页
+    private static final int NEWS_MAX_LINES = 10;  // 每只股最多保留多少条
+    private static final String NEWS_NMODE = "1";  // 0=全部，想只看“開示”可改 3（你也可根据页面 Tab 的 nmode 调整）
+    private static final Map<String, String> NEWS_HEADERS =
+            Map.of("User-Agent","Mozilla/5.0", "Accept","text/html,application/xhtml+xml");
+
+    // 每只股票的第 1 页都立即发出（由 HttpTool 按主机限流、复用 keep-alive 连接），页面直接从响应流解析。
+    // 增量：HeadlineStore 记着每只股票见过的标题，翻页遇到已知条目即停，只把新条目并进摘要；
+    // 30 分钟内抓过的股票不再请求。第 1 页就失败时保留库里的旧摘要，不刷新抓取时刻。
+    private static CompletableFuture<String> digestAsync(GptRanker.Candidate c, HeadlineStore store, long now) {
+        String code = (c.symbol == null ? "" : c.symbol.replaceAll("\\D", ""));
+        if (code.isEmpty()) return CompletableFuture.completedFuture("");
+        if (store.fresh(c.symbol, now)) return CompletableFuture.completedFuture(digestOf(store.get(c.symbol)));
+        return fetchNewsPages(c.symbol, code, 1, new Scan(), store).thenApply(scan ->
+                digestOf(scan == null ? store.get(c.symbol) : store.merge(c.symbol, scan.items, now)));
+    }
 
-    private static Map<String, String> fetchNewsDigests(List<GptRanker.Candidate> cands) {
-        final int PAGES = 2;      // 每只股抓多少页
-        final int MAX_LINES = 10; // 每只股最多保留多少条
-        final String NMODE = "1"; // 0=全部，想只看“開示”可改 3（你也可根据页面 Tab 的 nmode 调整）
+    // 近似重复（同一事件的 開示/材料/续报）先折叠成一条，再拼摘要
+    private static String digestOf(List<HeadlineStore.Headline> items) {
+        items = HeadlineDedup.collapse(items);
+        List<String> lines = new ArrayList<>(items.size());
+        for (HeadlineStore.Headline h : items) lines.add(h.line());
+        return String.join("\n", lines);
+    }
 
-        Map<String, String> out = new ConcurrentHashMap<>();
-        int threads = Math.min(6, Math.max(2, cands.size()));
-        ExecutorService pool = Executors.newFixedThreadPool(threads);
-        List<Future<?>> futures = new ArrayList<>();
+    /** 翻页状态：本轮新抓到的条目（新→旧），以及是否已碰到库里已有的条目 */
+    private static final class Scan {
+        final List<HeadlineStore.Headline> items = new ArrayList<>();
+        boolean reachedKnown;
+    }
 
-        for (GptRanker.Candidate c : cands) {
-            futures.add(pool.submit(() -> {
-                String code = (c.symbol == null ? "" : c.symbol.replaceAll("\\D", ""));
-                if (code.isEmpty()) return;
-
-                List<String> lines = new ArrayList<>();
-
-                for (int p = 1; p <= PAGES && lines.size() < MAX_LINES; p++) {
-                    String url = "https://kabutan.jp/stock/news?code=" + code + "&nmode=" + NMODE + "&page=" + p;
-                    try {
-                        String html = HttpTool.get(
-                                url,
-                                Map.of("User-Agent","Mozilla/5.0",
-                                        "Accept","text/html,application/xhtml+xml"),
-                                10000, 10000);
-                        Document doc = Jsoup.parse(html, url);
-
-                        // 兼容两种表格：s_news_list（个股页）/ g_news_list（部分列表页）
-                        Elements rows = doc.select("table.s_news_list tr, table.g_news_list tr");
-                        for (Element tr : rows) {
-                            // 时间
-                            String when = "";
-                            Element t = tr.selectFirst("td.news_time time");
-                            if (t != null) {
-                                String dt = t.hasAttr("datetime") ? t.attr("datetime") : t.text();
-                                if (dt != null && !dt.isBlank()) when = dt.replace('\u00A0',' ').trim();
-                            } else {
-                                Element td = tr.selectFirst("td.news_time");
-                                if (td != null) when = td.text().replace('\u00A0',' ').trim();
-                            }
-
-                            // 分类（材料/開示/特集/テク…）
-                            String cat = "";
-                            Element catEl = tr.selectFirst("div.newslist_ctg");
-                            if (catEl != null) cat = catEl.text().replace('\u00A0',' ').trim();
-
-                            // 标题：优先 IR/開示（disclosures），否则普通新闻（/news/）
-                            Element a = tr.selectFirst("td.td_kaiji a[href*=disclosures], td a[href^=/stock/news], td a[href^=/news/], td a[href^=https://kabutan.jp/news/]");
-                            if (a == null) continue;
-
-                            String title = a.text().replace('\u00A0',' ').trim();
-                            if (title.isBlank()) continue;
-
-                            String line = "・" + (when.isBlank() ? "" : when + " ")
-                                    + (cat.isBlank() ? "" : "[" + cat + "] ")
-                                    + title;
-                            lines.add(line);
-                            if (lines.size() >= MAX_LINES) break;
-                        }
-                    } catch (Exception e) {
-                        System.err.println("抓取 kabutan 失败 " + c.symbol + " p=" + p + " : " + e.getMessage());
+    private static CompletableFuture<Scan> fetchNewsPages(String symbol, String code, int p, Scan scan, HeadlineStore store) {
+        if (p > NEWS_PAGES || scan.reachedKnown || scan.items.size() >= NEWS_MAX_LINES) {
+            return CompletableFuture.completedFuture(scan);
+        }
+        String url = "https://kabutan.jp/stock/news?code=" + code + "&nmode=" + NEWS_NMODE + "&page=" + p;
+        return HttpTool.getStreamAsync(url, NEWS_HEADERS, HttpTool.DEFAULT_TIMEOUT_MS)
+                .thenApply(body -> {
+                    try (HttpTool.Body b = body) {
+                        parseNewsRows(new java.io.InputStreamReader(b.in, b.charset), symbol, scan, store);
+                    } catch (java.io.IOException e) {
+                        throw new CompletionException(e);
                     }
-                }
+                    return scan;
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    System.err.println("抓取 kabutan 失败 " + symbol + " p=" + p + " : " + cause.getMessage());
+                    return p == 1 ? null : scan;
+                })
+                .thenCompose(sc -> sc == null ? CompletableFuture.completedFuture(null)
+                        : fetchNewsPages(symbol, code, p + 1, sc, store));
+    }
 
-                if (!lines.isEmpty()) {
-                    // 去重并写回
-                    LinkedHashSet<String> dedup = new LinkedHashSet<>(lines);
-                    out.put(c.symbol, String.join("\n", dedup));
-                }
-            }));
+    // 只截取新闻表格的 <tr>（HtmlRowScanner 流式扫描，不建整页 DOM），逐行解析；
+    // 遇到已知条目或凑满 NEWS_MAX_LINES 即停止读取，余下的响应体不再下载解析。
+    private static final Set<String> NEWS_TABLES = Set.of("s_news_list", "g_news_list");
+
+    private static void parseNewsRows(java.io.Reader html, String symbol, Scan scan, HeadlineStore store) throws java.io.IOException {
+        HtmlRowScanner.scan(html, NEWS_TABLES, row -> {
+            HeadlineStore.Headline h = parseNewsRow(Jsoup.parseBodyFragment("<table>" + row + "</table>").selectFirst("tr"));
+            if (h == null) return true;
+            if (store.known(symbol, h)) { scan.reachedKnown = true; return false; }
+            scan.items.add(h);
+            return scan.items.size() < NEWS_MAX_LINES;
+        });
+    }
+
+    /** 一行新闻表格 -> 标题；不是新闻行（表头等）返回 null */
+    private static HeadlineStore.Headline parseNewsRow(Element tr) {
+        if (tr == null) return null;
+        // 时间
+        String when = "";
+        Element t = tr.selectFirst("td.news_time time");
+        if (t != null) {
+            String dt = t.hasAttr("datetime") ? t.attr("datetime") : t.text();
+            if (dt != null && !dt.isBlank()) when = dt.replace('\u00A0',' ').trim();
+        } else {
+            Element td = tr.selectFirst("td.news_time");
+            if (td != null) when = td.text().replace('\u00A0',' ').trim();
         }
 
-        for (Future<?> f : futures) try { f.get(30, TimeUnit.SECONDS); } catch (Exception ignore) {}
-        pool.shutdown();
-        return out;
+        // 分类（材料/開示/特集/テク…）
+        String cat = "";
+        Element catEl = tr.selectFirst("div.newslist_ctg");
+        if (catEl != null) cat = catEl.text().replace('\u00A0',' ').trim();
+
+        // 标题：优先 IR/開示（disclosures），否则普通新闻（/news/）
+        Element a = tr.selectFirst("td.td_kaiji a[href*=disclosures], td a[href^=/stock/news], td a[href^=/news/], td a[href^=https://kabutan.jp/news/]");
+        if (a == null) return null;
+
+        String title = a.text().replace('\u00A0',' ').trim();
+        if (title.isBlank()) return null;
+        return new HeadlineStore.Headline(when, cat, title);
     }
+
     public static final class NewsScore {
         private final double pct;
         private final String reason;
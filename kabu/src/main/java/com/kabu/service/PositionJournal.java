@@ -0,0 +1,336 @@
+package com.kabu.service;  // PositionJournal.java
+// 持仓流水：只追加的文本日志（positions.journal），启动时顺序回放成 Position/Lot，不再每次用 POI 打开整本 Excel。
+// Excel 只作为导入/导出格式；TrendSellAdvisor 以 RECORD 运行时按 planSellLots 给出的卖出分配记一笔 SELL。
+//
+// 每行一条记录，TAB 分隔（# 开头为注释）：
+//   B  lotId  代码  买入时刻(epoch秒)  买入价  股数  层级(- 为空)
+//   S  lotId  股数  日期  成交价(NaN 为未知)  动作  来源(AUTO/MANUAL)
+//   L  lotId  层级
+//   C                                   清空（IMPORT / COMPACT 的起点）
+// 写入中途崩溃只会留下一行残缺记录：回放时跳过并计数，下次追加前先补换行。
+
+import com.kabu.service.TrendSellAdvisor.Lot;
+import com.kabu.service.TrendSellAdvisor.LotSell;
+import com.kabu.service.TrendSellAdvisor.Position;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+public final class PositionJournal {
+
+    static final String JOURNAL_PATH = "positions.journal";
+    static final String HEADER       = "# kabu position journal v1";
+    static final String SRC_AUTO     = "AUTO";
+    static final String SRC_MANUAL   = "MANUAL";
+
+    private final Path path;
+    private final Map<String, Position> positions = new LinkedHashMap<>();
+    private final Map<Long, Lot> lotsById = new HashMap<>();
+    private final Map<Long, String> symbolOf = new HashMap<>();
+    private final Set<String> autoSold = new HashSet<>();   // 代码|日期|动作：同一天重复运行不重复记同一笔卖出
+    private long nextId = 1;
+    private int records, skipped;
+    private boolean needsNewline;
+
+    private PositionJournal(Path path) { this.path = path; }
+
+    // ====== 打开 / 回放 ======
+
+    /** 回放已有日志；文件不存在时得到空持仓 */
+    public static PositionJournal open(String path) throws IOException {
+        PositionJournal j = new PositionJournal(Paths.get(path));
+        j.replay();
+        return j;
+    }
+
+    /** 日志不存在而 Excel 存在时先导入一次（首次迁移），之后只读日志 */
+    public static PositionJournal openOrImport(String path, String excel) throws IOException {
+        boolean fresh = !Files.exists(Paths.get(path));
+        PositionJournal j = open(path);
+        if (fresh && new File(excel).exists()) {
+            List<Position> ps = TrendSellAdvisor.loadPositionsFromExcel(excel);
+            if (!ps.isEmpty()) {
+                j.importAll(ps);
+                System.out.println("首次运行：已从 " + excel + " 导入 " + ps.size() + " 只股票到 " + path);
+            }
+        }
+        return j;
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(path)) return;
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                try {
+                    apply(line.split("\t", -1));
+                    records++;
+                } catch (RuntimeException e) {
+                    skipped++;
+                }
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            long len = raf.length();
+            if (len > 0) { raf.seek(len - 1); needsNewline = raf.read() != '\n'; }
+        }
+        if (skipped > 0) System.err.println("持仓流水中有 " + skipped + " 行无法解析，已跳过: " + path);
+        normalize();
+    }
+
+    private void apply(String[] f) {
+        switch (f[0]) {
+            case "B": {
+                long id = Long.parseLong(f[1]);
+                Integer level = "-".equals(f[6]) ? null : Integer.valueOf(f[6]);
+                Lot lot = new Lot(Long.parseLong(f[3]), Double.parseDouble(f[4]), Integer.parseInt(f[5]), level);
+                lot.id = id;
+                positions.computeIfAbsent(f[2], Position::new).lots.add(lot);
+                lotsById.put(id, lot);
+                symbolOf.put(id, f[2]);
+                nextId = Math.max(nextId, id + 1);
+                break;
+            }
+            case "S": {
+                long id = Long.parseLong(f[1]);
+                int qty = Integer.parseInt(f[2]);
+                if (SRC_AUTO.equals(f[6])) autoSold.add(autoKey(symbolOf.get(id), f[3], f[5]));
+                reduce(id, qty);
+                break;
+            }
+            case "L": {
+                Lot lot = lotsById.get(Long.parseLong(f[1]));
+                if (lot != null) lot.level = "-".equals(f[2]) ? null : Integer.valueOf(f[2]);
+                break;
+            }
+            case "C":
+                positions.clear();
+                lotsById.clear();
+                symbolOf.clear();
+                autoSold.clear();
+                break;
+            default:
+                throw new IllegalArgumentException("未知记录: " + f[0]);
+        }
+    }
+
+    private void reduce(long id, int qty) {
+        Lot lot = lotsById.get(id);
+        if (lot == null) return;
+        lot.qty -= qty;
+        if (lot.qty > 0) return;
+        lotsById.remove(id);
+        Position p = positions.get(symbolOf.get(id));
+        if (p == null) return;
+        p.lots.remove(lot);
+        if (p.lots.isEmpty()) positions.remove(p.symbol);
+    }
+
+    private void normalize() {
+        for (Position p : positions.values()) TrendSellAdvisor.normalizeLevels(p);
+    }
+
+    // ====== 查询 ======
+
+    /** 当前持仓（与日志共享对象；自动记卖出会同步修改其中的 Lot） */
+    public synchronized List<Position> positions() { return new ArrayList<>(positions.values()); }
+
+    public synchronized String describe() {
+        long lots = positions.values().stream().mapToLong(p -> p.lots.size()).sum();
+        return path + ": " + records + " 条记录 -> " + positions.size() + " 只股票 / " + lots + " 笔持仓";
+    }
+
+    // ====== 追加 ======
+
+    public synchronized Lot buy(String symbol, long buyTs, double price, int qty, Integer level) throws IOException {
+        Lot lot = new Lot(buyTs, price, qty, level);
+        lot.id = nextId++;
+        append(Collections.singletonList(buyRecord(symbol, lot)));
+        Position p = positions.computeIfAbsent(symbol, Position::new);
+        p.lots.add(lot);
+        lotsById.put(lot.id, lot);
+        symbolOf.put(lot.id, symbol);
+        TrendSellAdvisor.normalizeLevels(p);
+        return lot;
+    }
+
+    /**
+     * 按分配卖出（lotIndex 指 pos.lots 的下标，即 planSellLots 的输出）。
+     * AUTO 来源同一代码同一天同一动作只记一次（重复运行得到的还是这笔卖出；换了动作的是新的一笔），
+     * 返回是否实际写入。
+     */
+    public synchronized boolean sell(Position pos, List<LotSell> plan, LocalDate day, double price,
+                                     String action, String src) throws IOException {
+        if (plan == null || plan.isEmpty()) return false;
+        if (SRC_AUTO.equals(src) && !autoSold.add(autoKey(pos.symbol, day.toString(), action))) return false;
+        List<long[]> moves = new ArrayList<>(plan.size());
+        List<String> lines = new ArrayList<>(plan.size());
+        for (LotSell s : plan) {
+            Lot lot = pos.lots.get(s.lotIndex);
+            moves.add(new long[]{lot.id, s.sellQty});
+            lines.add("S\t" + lot.id + "\t" + s.sellQty + "\t" + day + "\t" + price + "\t" + action + "\t" + src);
+        }
+        append(lines);
+        for (long[] m : moves) reduce(m[0], (int) m[1]);
+        return true;
+    }
+
+    private static String autoKey(String symbol, String day, String action) {
+        return symbol + "|" + day + "|" + action;
+    }
+
+    public synchronized void setLevel(Lot lot, Integer level) throws IOException {
+        append(Collections.singletonList("L\t" + lot.id + "\t" + (level == null ? "-" : level)));
+        lot.level = level;
+        Position p = positions.get(symbolOf.get(lot.id));
+        if (p != null) TrendSellAdvisor.normalizeLevels(p);
+    }
+
+    /** 以给定持仓整体替换当前状态（C + 全部 B），用于 Excel 导入 */
+    public synchronized void importAll(List<Position> ps) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("C");
+        apply(new String[]{"C"});
+        for (Position p : ps) {
+            for (Lot src : p.lots) {
+                Lot lot = new Lot(src.buyTs, src.buyPrice, src.qty, src.level);
+                lot.id = nextId++;
+                String rec = buyRecord(p.symbol, lot);
+                lines.add(rec);
+                apply(rec.split("\t", -1));
+            }
+        }
+        append(lines);
+        normalize();
+    }
+
+    /** 把日志重写为 C + 当前持仓的 B 记录（临时文件 + 原子替换），卖出历史随之丢弃 */
+    public synchronized void compact() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        lines.add("C");
+        for (Position p : positions.values()) for (Lot lot : p.lots) lines.add(buyRecord(p.symbol, lot));
+        Path tmp = Paths.get(path + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        autoSold.clear();
+        records = lines.size() - 1;
+        needsNewline = false;
+    }
+
+    private static String buyRecord(String symbol, Lot lot) {
+        return "B\t" + lot.id + "\t" + symbol + "\t" + lot.buyTs + "\t" + lot.buyPrice + "\t" + lot.qty
+                + "\t" + (lot.level == null ? "-" : lot.level);
+    }
+
+    /** 一次追加一批记录并刷盘；新文件先写表头 */
+    private void append(List<String> lines) throws IOException {
+        boolean fresh = !Files.exists(path) || Files.size(path) == 0;
+        try (BufferedWriter w = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (fresh) { w.write(HEADER); w.write('\n'); }
+            else if (needsNewline) w.write('\n');
+            for (String l : lines) { w.write(l); w.write('\n'); }
+        }
+        needsNewline = false;
+        records += lines.size();
+    }
+
+    // ====== Excel 导出 ======
+
+    /** 导出为与导入相同的列（股票编号 / 买入价 / 买入时间 / 买入股数 / 层级） */
+    public synchronized void exportExcel(String xlsx) throws IOException {
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(TrendSellAdvisor.JP);
+        try (Workbook wb = new XSSFWorkbook(); OutputStream os = new FileOutputStream(xlsx)) {
+            Sheet sh = wb.createSheet("positions");
+            String[] cols = {"股票编号", "买入价", "买入时间", "买入股数", "层级"};
+            Row h = sh.createRow(0);
+            for (int i = 0; i < cols.length; i++) h.createCell(i).setCellValue(cols[i]);
+            int r = 1;
+            for (Position p : positions.values()) {
+                for (Lot lot : p.lots) {
+                    Row row = sh.createRow(r++);
+                    row.createCell(0).setCellValue(p.symbol);
+                    row.createCell(1).setCellValue(lot.buyPrice);
+                    row.createCell(2).setCellValue(lot.buyTs == 0 ? "" : fmt.format(Instant.ofEpochSecond(lot.buyTs)));
+                    row.createCell(3).setCellValue(lot.qty);
+                    if (lot.level != null) row.createCell(4).setCellValue(lot.level);
+                }
+            }
+            wb.write(os);
+        }
+    }
+
+    // ====== 命令行 ======
+    // 用法: java PositionJournal [SHOW | IMPORT [xlsx] | EXPORT [xlsx] | COMPACT
+    //                            | BUY 代码 价格 股数 [日期] [层级] | SELL 代码 股数 [价格] | LEVEL 代码 序号 层级]
+    public static void main(String[] args) throws Exception {
+        String cmd = args.length > 0 ? args[0].toUpperCase(Locale.ROOT) : "SHOW";
+        PositionJournal j = open(JOURNAL_PATH);
+        switch (cmd) {
+            case "IMPORT": {
+                String xlsx = args.length > 1 ? args[1] : TrendSellAdvisor.INPUT_EXCEL;
+                List<Position> ps = TrendSellAdvisor.loadPositionsFromExcel(xlsx);
+                if (ps.isEmpty()) { System.err.println("Excel 内未读取到任何持仓: " + xlsx); return; }
+                j.importAll(ps);
+                break;
+            }
+            case "EXPORT": {
+                String xlsx = args.length > 1 ? args[1] : TrendSellAdvisor.INPUT_EXCEL;
+                j.exportExcel(xlsx);
+                System.out.println("已导出 -> " + xlsx);
+                break;
+            }
+            case "COMPACT":
+                j.compact();
+                break;
+            case "BUY": {
+                if (args.length < 4) { System.err.println("用法: BUY 代码 价格 股数 [日期] [层级]"); return; }
+                long ts = args.length > 4 ? TrendSellAdvisor.parseDateToEpoch(args[4]) : Instant.now().getEpochSecond();
+                Integer level = args.length > 5 ? Integer.valueOf(args[5]) : null;
+                j.buy(args[1], ts, Double.parseDouble(args[2]), Integer.parseInt(args[3]), level);
+                break;
+            }
+            case "SELL": {
+                if (args.length < 3) { System.err.println("用法: SELL 代码 股数 [价格]"); return; }
+                Position p = j.positions.get(args[1]);
+                if (p == null) { System.err.println("没有持仓: " + args[1]); return; }
+                List<LotSell> plan = TrendSellAdvisor.allocateLifo(p, Long.parseLong(args[2]));
+                double px = args.length > 3 ? Double.parseDouble(args[3]) : Double.NaN;
+                j.sell(p, plan, LocalDate.now(TrendSellAdvisor.JP), px, "SELL_QTY_" + args[2], SRC_MANUAL);
+                break;
+            }
+            case "LEVEL": {
+                if (args.length < 4) { System.err.println("用法: LEVEL 代码 序号 层级"); return; }
+                Position p = j.positions.get(args[1]);
+                if (p == null) { System.err.println("没有持仓: " + args[1]); return; }
+                j.setLevel(p.lots.get(Integer.parseInt(args[2])), "-".equals(args[3]) ? null : Integer.valueOf(args[3]));
+                break;
+            }
+            case "SHOW":
+                break;
+            default:
+                System.err.println("未知命令: " + cmd);
+                return;
+        }
+        System.out.println(j.describe());
+        for (Position p : j.positions()) {
+            for (int i = 0; i < p.lots.size(); i++) {
+                Lot l = p.lots.get(i);
+                System.out.printf(Locale.US, "%s\t#%d\tlv=%s\t%.2f x %d\t%s%n", p.symbol, i,
+                        l.level == null ? "-" : l.level, l.buyPrice, l.qty,
+                        l.buyTs == 0 ? "-" : TrendSellAdvisor.fmtDay(l.buyTs));
+            }
+        }
+    }
+}
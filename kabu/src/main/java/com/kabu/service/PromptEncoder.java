@@ -0,0 +1,182 @@
+package com.kabu.service;  // PromptEncoder.java
+// GptRanker 候选表的紧凑编码：只发评分细则用得到的列，数值按有意义的精度取整（日元取整、比率 3 位小数），
+// 重复出现的分类值（信号、业种）用字典短码并在表前给出对照；按 token 预算从优先级最低的候选开始裁掉。
+
+import java.util.*;
+
+public final class PromptEncoder {
+
+    static final int DEFAULT_TOKEN_BUDGET = 6000;  // 候选表（含对照行）的 token 上限
+    static final int BRIEF_MAX = 15;               // 新闻理由截断长度（与 NewsScorer 的理由长度一致）
+
+    /** 表头：各列含义写在 GptRanker 的提示词里 */
+    static final String HEADER = "symbol\tsig\tsec\tclose\tsma10\tsma20\tsma50\td52w\tvolx\tturn\tadx\tdip\tdim\tatr\tnews\tbrief";
+
+    /** 编码结果与前后大小（token 为估算值） */
+    public static final class Encoded {
+        public final String text;
+        public final int rows, dropped;
+        public final int beforeChars, beforeTokens, afterChars, afterTokens;
+
+        Encoded(String text, int rows, int dropped, int beforeChars, int beforeTokens, int afterChars, int afterTokens) {
+            this.text = text; this.rows = rows; this.dropped = dropped;
+            this.beforeChars = beforeChars; this.beforeTokens = beforeTokens;
+            this.afterChars = afterChars; this.afterTokens = afterTokens;
+        }
+
+        public String report() {
+            return String.format(Locale.ROOT, "候选表: %d 字符/~%d tokens -> %d 字符/~%d tokens，候选 %d 只（预算裁掉 %d 只）",
+                    beforeChars, beforeTokens, afterChars, afterTokens, rows, dropped);
+        }
+    }
+
+    private PromptEncoder() {}
+
+    /**
+     * 按 RubricRanker 的本地分数从高到低排好候选，逐行加入直到超出 tokenBudget；
+     * 字典对照只包含实际用到的值。
+     */
+    public static Encoded encode(List<GptRanker.Candidate> cands, int tokenBudget) {
+        String before = legacyTable(cands);
+
+        List<GptRanker.Candidate> ordered = new ArrayList<>(cands);
+        Map<GptRanker.Candidate, Double> prio = new IdentityHashMap<>();
+        for (GptRanker.Candidate c : ordered) prio.put(c, RubricRanker.breakdown(c).total);
+        ordered.sort(Comparator.comparingDouble((GptRanker.Candidate c) -> -prio.get(c)));
+
+        Dict sig = new Dict("S"), sec = new Dict("G");
+        List<String> rows = new ArrayList<>(ordered.size());
+        int tokens = estimateTokens(HEADER) + 1;
+        for (GptRanker.Candidate c : ordered) {
+            Dict.Mark ms = sig.mark(), mg = sec.mark();
+            String row = row(c, sig, sec);
+            int t = estimateTokens(row) + 1 + sig.pendingTokens(ms) + sec.pendingTokens(mg);
+            if (tokens + t > tokenBudget && !rows.isEmpty()) {
+                sig.rollback(ms);
+                sec.rollback(mg);
+                break;
+            }
+            tokens += t;
+            rows.add(row);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sig.legend("sig", sb);
+        sec.legend("sec", sb);
+        sb.append(HEADER);
+        for (String r : rows) sb.append('\n').append(r);
+        String after = sb.toString();
+        return new Encoded(after, rows.size(), ordered.size() - rows.size(),
+                before.length(), estimateTokens(before), after.length(), estimateTokens(after));
+    }
+
+    private static String row(GptRanker.Candidate c, Dict sig, Dict sec) {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append(nz(c.symbol)).append('\t');
+        sb.append(sig.code(c.signal)).append('\t');
+        sb.append(sec.code(c.sector)).append('\t');
+        sb.append(yen(c.close)).append('\t');
+        sb.append(yen(c.sma10)).append('\t');
+        sb.append(yen(c.sma20)).append('\t');
+        sb.append(yen(c.sma50)).append('\t');
+        sb.append(dec(c.dist52w, 3)).append('\t');
+        sb.append(c.volMA20 > 0 ? dec(c.todayVol / c.volMA20, 2) : "").append('\t');
+        sb.append(c.turnoverMA20 > 0 ? dec(c.turnoverMA20 / 1e8, 1) : "").append('\t');   // 亿円
+        sb.append(c.adx == null ? "" : Long.toString(Math.round(c.adx))).append('\t');
+        sb.append(c.diPlus == null ? "" : Long.toString(Math.round(c.diPlus))).append('\t');
+        sb.append(c.diMinus == null ? "" : Long.toString(Math.round(c.diMinus))).append('\t');
+        sb.append(c.atrPct == null ? "" : dec(c.atrPct, 3)).append('\t');
+        sb.append(c.newsPct == null ? "" : Long.toString(Math.round(c.newsPct))).append('\t');
+        sb.append(brief(c.newsBrief));
+        return sb.toString();
+    }
+
+    /** 原先 rankWithGPT 的整表格式（全部 17 列、%.6f），只用于比较大小 */
+    static String legacyTable(List<GptRanker.Candidate> cands) {
+        StringBuilder sb = new StringBuilder("symbol\tname\tsignal\tclose\tsma10\tsma20\tsma50\tdist52w\tvolMA20\ttodayVol"
+                + "\tturnoverMA20\tadx\tdiPlus\tdiMinus\tatrPct\tnewsPct\tnewsBrief");
+        for (GptRanker.Candidate c : cands) {
+            sb.append('\n').append(String.join("\t", nz(c.symbol), nz(c.name), nz(c.signal),
+                    f6(c.close), f6(c.sma10), f6(c.sma20), f6(c.sma50),
+                    f6(c.dist52w), f6(c.volMA20), f6(c.todayVol), f6(c.turnoverMA20),
+                    f6(c.adx), f6(c.diPlus), f6(c.diMinus), f6(c.atrPct),
+                    f6(c.newsPct), nz(c.newsBrief)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 粗估 token 数：ASCII 约 4 字符 1 token，汉字/假名约 1 字符 1 token。
+     * 只用于预算和对比，不追求与具体分词器一致。
+     */
+    static int estimateTokens(CharSequence s) {
+        int ascii = 0, other = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < 128) ascii++; else other++;
+        }
+        return (ascii + 3) / 4 + other;
+    }
+
+    // ====== 字典编码 ======
+
+    /** 分类值 -> 短码（前缀 + 序号）；第一次出现时登记，表前输出对照 */
+    private static final class Dict {
+        final String prefix;
+        final Map<String, String> codes = new LinkedHashMap<>();
+
+        /** 回滚点：被预算挡下的行登记的新值要撤销 */
+        static final class Mark { final int size; Mark(int size) { this.size = size; } }
+
+        Dict(String prefix) { this.prefix = prefix; }
+
+        String code(String v) {
+            if (v == null || v.isEmpty()) return "";
+            return codes.computeIfAbsent(v, k -> prefix + codes.size());
+        }
+
+        Mark mark() { return new Mark(codes.size()); }
+
+        int pendingTokens(Mark m) {
+            int t = 0, i = 0;
+            for (Map.Entry<String, String> e : codes.entrySet()) {
+                if (i++ >= m.size) t += estimateTokens(e.getValue() + "=" + e.getKey() + " ");
+            }
+            return t;
+        }
+
+        void rollback(Mark m) {
+            Iterator<String> it = codes.keySet().iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                it.next();
+                if (i >= m.size) it.remove();
+            }
+        }
+
+        void legend(String col, StringBuilder sb) {
+            if (codes.isEmpty()) return;
+            sb.append(col).append(':');
+            for (Map.Entry<String, String> e : codes.entrySet()) sb.append(' ').append(e.getValue()).append('=').append(e.getKey());
+            sb.append('\n');
+        }
+    }
+
+    // ====== 数值 ======
+
+    private static String yen(double v) { return v > 0 ? Long.toString(Math.round(v)) : ""; }
+
+    /** 定点小数去掉末尾的 0（0.120 -> 0.12，2.0 -> 2） */
+    private static String dec(double v, int places) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return "";
+        return java.math.BigDecimal.valueOf(v).setScale(places, java.math.RoundingMode.HALF_UP)
+                .stripTrailingZeros().toPlainString();
+    }
+
+    private static String brief(String s) {
+        if (s == null) return "";
+        String t = s.replace('\t', ' ').replace('\n', ' ').trim();
+        return t.length() > BRIEF_MAX ? t.substring(0, BRIEF_MAX) : t;
+    }
+
+    private static String f6(Double v) { return v == null ? "" : String.format(Locale.US, "%.6f", v); }
+    private static String nz(String s) { return s == null ? "" : s; }
+}
@@ -14,6 +14,8 @@ import java.util.*;
  * 从 window_rank_YYYY-MM-DD.tsv 里读取前 N 名股票，
  * 假设在 BUY_DATE 按当天第一个交易日的「开盘价」买入，
  * 持有到最近一根日K 的「收盘价」，计算盈亏。
+ * 同时按日K 收盘价构建逐日净值曲线，输出最大回撤、最差单日、Sharpe/Sortino、水下天数（单股 + 组合）。
+ * TSV 路径可用逗号分隔传入多个（多个篮子一次跑完），同一股票的K线只拉一次。
  *
  * 依赖 TrendScreener.fetchChart1yDaily(...) / TrendScreener.Chart / TrendScreener.Bar / TrendScreener.JP
  */
@@ -26,6 +28,10 @@ public class RankTsvBacktester {
     private static int SHARES_PER_STOCK = 100;  // 每只股票买入股数
 
     private static final ZoneId JP = TrendScreener.JP;
+    private static final int TRADING_DAYS_PER_YEAR = 252; // 年化用
+
+    // 多篮子共用：symbol -> 列式日K（同一股票只拉一次）
+    private static final Map<String, Series> SERIES_CACHE = new HashMap<>();
 
     private static class PLRow {
         String symbol;
@@ -33,10 +39,61 @@ public class RankTsvBacktester {
         double buyPrice, lastPrice;
         int shares;
         double pl, plPct;
+
+        Series series;  // 列式日K
+        int buyIdx;     // 实际买入日在 series 中的下标
+        PathStats stats;
+    }
+
+    /** 列式日K：按日期升序，epochDay/open/close 三列（回测只用到这些） */
+    private static final class Series {
+        String symbol;
+        long[] day;
+        double[] open, close;
+
+        static Series of(TrendScreener.Chart chart) {
+            int n = chart.bars.size();
+            Series s = new Series();
+            s.symbol = chart.symbol;
+            s.day = new long[n];
+            s.open = new double[n];
+            s.close = new double[n];
+            for (int i = 0; i < n; i++) {
+                TrendScreener.Bar b = chart.bars.get(i);
+                s.day[i] = Instant.ofEpochSecond(b.ts).atZone(JP).toLocalDate().toEpochDay();
+                s.open[i] = b.open;
+                s.close[i] = b.close;
+            }
+            return s;
+        }
+
+        /** 第一个 day >= d 的下标；没有则返回 -1 */
+        int firstAtOrAfter(long d) {
+            int lo = 0, hi = day.length - 1, ans = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (day[mid] >= d) { ans = mid; hi = mid - 1; } else { lo = mid + 1; }
+            }
+            return ans;
+        }
+    }
+
+    /** 路径相关指标（基于逐日净值曲线） */
+    private static final class PathStats {
+        double totalPct;          // 期末 / 期初 - 1
+        double maxDdPct;          // 最大回撤（正数，%）
+        LocalDate ddPeak, ddTrough;
+        double worstDayPct;       // 最差单日收益（%）
+        LocalDate worstDay;
+        double sharpe, sortino;   // 年化（无风险利率按 0）
+        int days;                 // 收益天数
+        int underwaterDays;       // 低于历史峰值的天数
+        int maxUnderwaterRun;     // 最长连续水下天数
+        int belowCostDays;        // 低于期初成本的天数
     }
 
     public static void main(String[] args) throws Exception {
-        // 参数: [tsvPath] [buyDate yyyy-MM-dd] [topN] [shares]
+        // 参数: [tsvPath[,tsvPath2,...]] [buyDate yyyy-MM-dd] [topN] [shares]
         if (args.length >= 1 && !args[0].isEmpty()) {
             TSV_PATH = args[0];
         }
@@ -50,22 +107,58 @@ public class RankTsvBacktester {
             SHARES_PER_STOCK = Integer.parseInt(args[3]);
         }
 
-        System.out.println("TSV 文件: " + TSV_PATH);
+        List<String> tsvPaths = new ArrayList<>();
+        for (String t : TSV_PATH.split(",")) {
+            if (!t.trim().isEmpty()) tsvPaths.add(t.trim());
+        }
+
+        System.out.println("TSV 文件: " + String.join(", ", tsvPaths));
         System.out.println("名义买入日: " + BUY_DATE + "  (实际用该日及之后第一个交易日的开盘价)");
         System.out.println("取前 " + TOP_N + " 名股票, 每只 " + SHARES_PER_STOCK + " 股\n");
 
-        List<String> symbols = loadSymbolsFromTsv(TSV_PATH, TOP_N);
+        Map<String, PathStats> basketStats = new LinkedHashMap<>();
+        for (String tsv : tsvPaths) {
+            if (tsvPaths.size() > 1) System.out.println("########## 篮子: " + tsv + " ##########");
+            PathStats bs = runBasket(tsv);
+            if (bs != null) basketStats.put(tsv, bs);
+        }
+
+        if (basketStats.size() > 1) {
+            printBasketComparison(basketStats);
+        }
+    }
+
+    /** 回测一个 TSV 篮子；返回组合净值曲线指标（失败返回 null） */
+    private static PathStats runBasket(String tsvPath) throws IOException {
+        List<String> symbols = loadSymbolsFromTsv(tsvPath, TOP_N);
+        if (symbols.isEmpty()) {
+            System.err.println("没有从 TSV 中读到任何股票代码: " + tsvPath);
+            return null;
+        }
+        return runBasket(symbols, BUY_DATE, SHARES_PER_STOCK);
+    }
+
+    /**
+     * 同进程调用（DailyPipeline）：回测 tsvPath 的前 topN 名，不改动命令行用的静态配置。
+     * K 线经 TrendScreener.fetchChart1yDaily，扫描阶段已拉过的代码直接命中其缓存。
+     */
+    static void backtestTsv(String tsvPath, LocalDate buyDate, int topN, int sharesPerStock) throws IOException {
+        List<String> symbols = loadSymbolsFromTsv(tsvPath, topN);
+        System.out.println("回测篮子: " + tsvPath + "  名义买入日: " + buyDate + "  前 " + topN + " 名");
         if (symbols.isEmpty()) {
-            System.err.println("没有从 TSV 中读到任何股票代码");
+            System.err.println("没有从 TSV 中读到任何股票代码: " + tsvPath);
             return;
         }
+        runBasket(symbols, buyDate, sharesPerStock);
+    }
 
+    private static PathStats runBasket(List<String> symbols, LocalDate buyDate, int sharesPerStock) {
         System.out.println("股票列表: " + String.join(", ", symbols));
         System.out.println();
 
         List<PLRow> results = new ArrayList<>();
         for (String symbol : symbols) {
-            PLRow r = backtestOne(symbol, BUY_DATE, SHARES_PER_STOCK);
+            PLRow r = backtestOne(symbol, buyDate, sharesPerStock);
             if (r != null) {
                 results.add(r);
             }
@@ -73,14 +166,14 @@ public class RankTsvBacktester {
 
         if (results.isEmpty()) {
             System.out.println("所有股票都回测失败或无数据。");
-            return;
+            return null;
         }
 
         // 按收益率从高到低排序
         results.sort(Comparator.comparingDouble((PLRow r) -> r.plPct).reversed());
 
         printResultTable(results);
-        printSummary(results);
+        return printSummary(results);
     }
 
     /**
@@ -120,37 +213,25 @@ public class RankTsvBacktester {
 
     /**
      * 对单个股票回测：买入日 = buyDate 起，第一个交易日的开盘价；卖出价 = 最新一根日K 收盘价。
+     * 净值曲线：买入日开盘价为起点，之后每日收盘价为一个点。
      */
     private static PLRow backtestOne(String symbol, LocalDate buyDate, int sharesPerStock) {
         try {
-            TrendScreener.Chart chart = TrendScreener.fetchChart1yDaily(symbol);
-            if (chart == null || chart.bars == null || chart.bars.isEmpty()) {
+            Series s = loadSeries(symbol);
+            if (s == null || s.day.length == 0) {
                 System.out.println("[" + symbol + "] 无K线数据，跳过");
                 return null;
             }
 
-            TrendScreener.Bar buyBar = null;
-            LocalDate realBuyDate = null;
-
-            for (TrendScreener.Bar b : chart.bars) {
-                LocalDate d = Instant.ofEpochSecond(b.ts).atZone(JP).toLocalDate();
-                if (!d.isBefore(buyDate)) { // d >= buyDate
-                    buyBar = b;
-                    realBuyDate = d;
-                    break;
-                }
-            }
-
-            if (buyBar == null) {
+            int buyIdx = s.firstAtOrAfter(buyDate.toEpochDay());
+            if (buyIdx < 0) {
                 System.out.println("[" + symbol + "] 在 " + buyDate + " 之后没有交易日，跳过");
                 return null;
             }
 
-            TrendScreener.Bar lastBar = chart.bars.get(chart.bars.size() - 1);
-            LocalDate lastDate = Instant.ofEpochSecond(lastBar.ts).atZone(JP).toLocalDate();
-
-            double buyPrice = buyBar.open;
-            double lastPrice = lastBar.close;
+            int lastIdx = s.day.length - 1;
+            double buyPrice = s.open[buyIdx];
+            double lastPrice = s.close[lastIdx];
 
             if (buyPrice <= 0 || Double.isNaN(buyPrice) || Double.isNaN(lastPrice)) {
                 System.out.println("[" + symbol + "] 买入价或现价非法，跳过");
@@ -159,13 +240,27 @@ public class RankTsvBacktester {
 
             PLRow row = new PLRow();
             row.symbol = symbol;
-            row.buyDate = realBuyDate;
-            row.lastDate = lastDate;
+            row.buyDate = LocalDate.ofEpochDay(s.day[buyIdx]);
+            row.lastDate = LocalDate.ofEpochDay(s.day[lastIdx]);
             row.buyPrice = buyPrice;
             row.lastPrice = lastPrice;
             row.shares = sharesPerStock;
             row.pl = (lastPrice - buyPrice) * sharesPerStock;
             row.plPct = (lastPrice - buyPrice) / buyPrice * 100.0;
+            row.series = s;
+            row.buyIdx = buyIdx;
+
+            // 单股净值曲线（每股）：[买入开盘, 买入日收盘, ..., 最新收盘]
+            int n = lastIdx - buyIdx + 2;
+            long[] days = new long[n];
+            double[] eq = new double[n];
+            days[0] = s.day[buyIdx];
+            eq[0] = buyPrice;
+            for (int i = buyIdx; i <= lastIdx; i++) {
+                days[i - buyIdx + 1] = s.day[i];
+                eq[i - buyIdx + 1] = Double.isNaN(s.close[i]) ? eq[i - buyIdx] : s.close[i];
+            }
+            row.stats = pathStats(days, eq);
 
             return row;
         } catch (Exception e) {
@@ -174,16 +269,139 @@ public class RankTsvBacktester {
         }
     }
 
+    private static Series loadSeries(String symbol) throws Exception {
+        Series s = SERIES_CACHE.get(symbol);
+        if (s != null) return s;
+        TrendScreener.Chart chart = TrendScreener.fetchChart1yDaily(symbol);
+        if (chart == null || chart.bars == null || chart.bars.isEmpty()) return null;
+        s = Series.of(chart);
+        SERIES_CACHE.put(symbol, s);
+        return s;
+    }
+
+    /**
+     * 组合净值曲线：各股票日期取并集，停牌日沿用上一收盘；
+     * 某股实际买入日之前按成本（现金）计入，因此期初净值 = 总成本。
+     */
+    private static PathStats basketStats(List<PLRow> rows) {
+        long start = Long.MAX_VALUE;
+        for (PLRow r : rows) start = Math.min(start, r.series.day[r.buyIdx]);
+
+        TreeSet<Long> timeline = new TreeSet<>();
+        for (PLRow r : rows) {
+            for (int i = r.buyIdx; i < r.series.day.length; i++) timeline.add(r.series.day[i]);
+        }
+
+        int m = rows.size();
+        int[] ptr = new int[m];          // 每只股票：下一个待消费的下标
+        double[] mark = new double[m];   // 每只股票：当前估值（每股）
+        double cost = 0.0;
+        for (int k = 0; k < m; k++) {
+            PLRow r = rows.get(k);
+            ptr[k] = r.buyIdx;
+            mark[k] = r.buyPrice;
+            cost += r.buyPrice * r.shares;
+        }
+
+        long[] days = new long[timeline.size() + 1];
+        double[] eq = new double[timeline.size() + 1];
+        days[0] = start;
+        eq[0] = cost;
+        int j = 1;
+        for (long d : timeline) {
+            double v = 0.0;
+            for (int k = 0; k < m; k++) {
+                PLRow r = rows.get(k);
+                Series s = r.series;
+                while (ptr[k] < s.day.length && s.day[ptr[k]] <= d) {
+                    if (!Double.isNaN(s.close[ptr[k]])) mark[k] = s.close[ptr[k]];
+                    ptr[k]++;
+                }
+                v += mark[k] * r.shares;
+            }
+            days[j] = d;
+            eq[j] = v;
+            j++;
+        }
+        return pathStats(days, eq);
+    }
+
+    /** 单次遍历净值曲线计算路径指标；eq[0] 为期初（成本） */
+    private static PathStats pathStats(long[] days, double[] eq) {
+        PathStats ps = new PathStats();
+        int n = eq.length;
+        ps.days = n - 1;
+        ps.totalPct = (eq[n - 1] / eq[0] - 1.0) * 100.0;
+        ps.worstDayPct = Double.NaN;
+
+        double peak = eq[0];
+        int peakIdx = 0;
+        double maxDd = 0.0;
+        int ddPeakIdx = 0, ddTroughIdx = 0, worstIdx = -1;
+        int run = 0;
+        double sum = 0.0, sumSq = 0.0, sumDownSq = 0.0;
+
+        for (int i = 1; i < n; i++) {
+            double ret = eq[i] / eq[i - 1] - 1.0;
+            sum += ret;
+            sumSq += ret * ret;
+            if (ret < 0) sumDownSq += ret * ret;
+            if (worstIdx < 0 || ret * 100.0 < ps.worstDayPct) {
+                ps.worstDayPct = ret * 100.0;
+                worstIdx = i;
+            }
+
+            if (eq[i] >= peak) {
+                peak = eq[i];
+                peakIdx = i;
+                run = 0;
+            } else {
+                ps.underwaterDays++;
+                run++;
+                ps.maxUnderwaterRun = Math.max(ps.maxUnderwaterRun, run);
+                double dd = (peak - eq[i]) / peak;
+                if (dd > maxDd) {
+                    maxDd = dd;
+                    ddPeakIdx = peakIdx;
+                    ddTroughIdx = i;
+                }
+            }
+            if (eq[i] < eq[0]) ps.belowCostDays++;
+        }
+
+        ps.maxDdPct = maxDd * 100.0;
+        ps.ddPeak = LocalDate.ofEpochDay(days[ddPeakIdx]);
+        ps.ddTrough = LocalDate.ofEpochDay(days[ddTroughIdx]);
+        ps.worstDay = worstIdx > 0 ? LocalDate.ofEpochDay(days[worstIdx]) : null;
+        if (worstIdx < 0) ps.worstDayPct = 0.0;
+
+        int k = n - 1;
+        if (k >= 2) {
+            double mean = sum / k;
+            double sd = Math.sqrt(Math.max(0.0, (sumSq - k * mean * mean) / (k - 1)));
+            double downSd = Math.sqrt(sumDownSq / k);
+            double ann = Math.sqrt(TRADING_DAYS_PER_YEAR);
+            ps.sharpe = sd > 0 ? mean / sd * ann : Double.NaN;
+            ps.sortino = downSd > 0 ? mean / downSd * ann : Double.NaN;
+        } else {
+            ps.sharpe = Double.NaN;
+            ps.sortino = Double.NaN;
+        }
+        return ps;
+    }
+
     private static void printResultTable(List<PLRow> rows) {
         // 简单表格输出
         System.out.println("=== 单股盈亏（按每只 " + rows.get(0).shares + " 股） ===");
         System.out.printf(
-                "%-8s %-10s %-9s %-10s %-9s %6s %12s %8s%n",
-                "Symbol", "BuyDate", "BuyPrice", "LastDate", "LastPrice", "Shares", "PL(JPY)", "PL(%)"
+                "%-8s %-10s %-9s %-10s %-9s %6s %12s %8s %8s %8s %7s %7s %5s%n",
+                "Symbol", "BuyDate", "BuyPrice", "LastDate", "LastPrice", "Shares", "PL(JPY)", "PL(%)",
+                "MaxDD%", "Worst%", "Sharpe", "Sortino", "UW"
         );
         for (PLRow r : rows) {
+            PathStats ps = r.stats;
             System.out.printf(
-                    "%-8s %-10s %9.2f %-10s %9.2f %6d %12.2f %8.2f%n",
+                    "%-8s %-10s %9.2f %-10s %9.2f %6d %12.2f %8.2f %8.2f %8.2f %7.2f %7.2f %5d%n",
                     r.symbol,
                     r.buyDate,
                     r.buyPrice,
@@ -191,13 +409,18 @@ public class RankTsvBacktester {
                     r.lastPrice,
                     r.shares,
                     r.pl,
-                    r.plPct
+                    r.plPct,
+                    ps.maxDdPct,
+                    ps.worstDayPct,
+                    ps.sharpe,
+                    ps.sortino,
+                    ps.underwaterDays
             );
         }
         System.out.println();
     }
 
-    private static void printSummary(List<PLRow> rows) {
+    private static PathStats printSummary(List<PLRow> rows) {
         double totalCost = 0.0;
         double totalValue = 0.0;
         int win = 0, lose = 0, flat = 0;
@@ -226,5 +449,34 @@ public class RankTsvBacktester {
         System.out.printf("总盈亏:     %.2f 日元%n", totalPl);
         System.out.printf("组合整体收益率: %.2f%%%n", overallPct);
         System.out.printf("等权平均收益率: %.2f%%%n", avgPct);
+
+        // 路径指标：组合净值曲线
+        PathStats bs = basketStats(rows);
+        System.out.println();
+        System.out.println("=== 组合净值曲线 ===");
+        System.out.printf("交易日数: %d  (水下: %d 天, 最长连续水下: %d 天, 低于成本: %d 天)%n",
+                bs.days, bs.underwaterDays, bs.maxUnderwaterRun, bs.belowCostDays);
+        System.out.printf("最大回撤: %.2f%%  (%s 峰值 -> %s 谷底)%n", bs.maxDdPct, bs.ddPeak, bs.ddTrough);
+        System.out.printf("最差单日: %.2f%%  (%s)%n", bs.worstDayPct, bs.worstDay);
+        System.out.printf("Sharpe(年化): %.2f   Sortino(年化): %.2f%n", bs.sharpe, bs.sortino);
+
+        double avgDd = rows.stream().mapToDouble(r -> r.stats.maxDdPct).average().orElse(0.0);
+        PLRow worstDd = Collections.max(rows, Comparator.comparingDouble((PLRow r) -> r.stats.maxDdPct));
+        System.out.printf("单股平均最大回撤: %.2f%%   最大: %s %.2f%%%n",
+                avgDd, worstDd.symbol, worstDd.stats.maxDdPct);
+        return bs;
+    }
+
+    private static void printBasketComparison(Map<String, PathStats> baskets) {
+        System.out.println();
+        System.out.println("=== 篮子对比 ===");
+        System.out.printf("%-32s %8s %8s %8s %7s %7s %5s %5s%n",
+                "TSV", "Total%", "MaxDD%", "Worst%", "Sharpe", "Sortino", "UW", "MaxUW");
+        for (Map.Entry<String, PathStats> e : baskets.entrySet()) {
+            PathStats ps = e.getValue();
+            System.out.printf("%-32s %8.2f %8.2f %8.2f %7.2f %7.2f %5d %5d%n",
+                    e.getKey(), ps.totalPct, ps.maxDdPct, ps.worstDayPct,
+                    ps.sharpe, ps.sortino, ps.underwaterDays, ps.maxUnderwaterRun);
+        }
     }
 }
@@ -0,0 +1,219 @@
+package com.kabu.service;  // RubricRanker.java
+// GptRanker 提示词里那套评分细则的本地确定性实现：不调用模型，对每个 Candidate 直接算 0-100 分并给出入场区间与止损。
+// 40% 趋势质量 / 30% 入场位置 / 15% 流动性 / 10% 消息面 / 5% 风险；缺失数据按偏低的默认分计入而不淘汰。
+// 同样的输入永远得到同样的排名，可直接用于回测（输出 TSV 与 RankTsvBacktester 读取的格式一致）。
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public final class RubricRanker {
+
+    // 权重（与 GptRanker 的提示词一致）
+    static final double W_TREND = 0.40, W_ENTRY = 0.30, W_LIQ = 0.15, W_NEWS = 0.10, W_RISK = 0.05;
+
+    static final double MISSING      = 0.3;    // 缺失指标的子项得分
+    static final double NEWS_MISSING = 0.4;    // 没有新闻分：略低于中性
+    static final double ADX_LO = 20, ADX_HOT = 60;          // ADX 20~60 满分，低于 20 线性减，高于 60 适度降权
+    static final double DI_SPAN      = 20;     // DI+ − DI- 相差 20 即满分 / 零分
+    static final double VOL_FULL     = 3.0;    // BREAKOUT：量比 3 倍满分
+    static final double DIST_FULL    = 0.10;   // BREAKOUT：距 52 周高点 10% 以上不得分
+    static final double HEAT_START   = 0.10;   // 收盘高出 SMA20 超过 10% 开始视为过热
+    static final double NEAR_SMA20   = 0.05;   // 回踩：|close/sma20−1| ≤ 5% 为理想区
+    static final double LIQ_LOG_LO   = 8.3;    // 成交额 2 亿（预筛下限）→ 0 分
+    static final double LIQ_LOG_SPAN = 2.0;    // … 200 亿 → 满分（对数刻度）
+    static final double ATR_CALM = 0.03, ATR_WILD = 0.08;
+    static final double DIST_RISK    = 0.20;   // dist52w > 20% 风险项减半
+    static final double ATR_DEFAULT  = 0.03;   // 无 ATR 时估算入场/止损用
+
+    private RubricRanker() {}
+
+    /** 各子项得分（0-1）与总分，供排序和理由使用 */
+    static final class Breakdown {
+        double trend, entry, liq, news, risk, total;
+    }
+
+    /**
+     * 对全部候选打分，按分数降序（同分按成交额、代码）取前 topN；topN ≤ 0 表示全部。
+     * 只算分数用于排序，入场/止损/理由只给入选的 topN 生成。
+     */
+    public static List<GptRanker.Ranked> rank(List<GptRanker.Candidate> cands, int topN) {
+        List<GptRanker.Candidate> ok = new ArrayList<>(cands.size());
+        for (GptRanker.Candidate c : cands) if (c != null && c.symbol != null && c.close > 0) ok.add(c);
+        int n = ok.size();
+        double[] total = new double[n];
+        Integer[] idx = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            total[i] = Math.round(breakdown(ok.get(i)).total * 1000) / 10.0;
+            idx[i] = i;
+        }
+        Arrays.sort(idx, (x, y) -> {
+            int k = Double.compare(total[y], total[x]);
+            if (k == 0) k = Double.compare(ok.get(y).turnoverMA20, ok.get(x).turnoverMA20);
+            return k != 0 ? k : ok.get(x).symbol.compareTo(ok.get(y).symbol);
+        });
+        int m = topN > 0 ? Math.min(topN, n) : n;
+        List<GptRanker.Ranked> out = new ArrayList<>(m);
+        for (int i = 0; i < m; i++) {
+            GptRanker.Ranked r = score(ok.get(idx[i]));
+            r.rank = i + 1;
+            out.add(r);
+        }
+        return out;
+    }
+
+    /** 单只候选：分数、入场区间、止损与简短理由（rank 由 rank() 填写） */
+    public static GptRanker.Ranked score(GptRanker.Candidate c) {
+        Breakdown b = breakdown(c);
+        GptRanker.Ranked r = new GptRanker.Ranked();
+        r.symbol = c.symbol;
+        r.score = Math.round(b.total * 1000) / 10.0;
+
+        double atr = c.close * (c.atrPct != null && c.atrPct > 0 ? c.atrPct : ATR_DEFAULT);
+        if (isBreakout(c)) {
+            // 突破：收盘价附近追入，回撤半个 ATR 内都可接；止损放在 2 ATR 或 SMA20 下方（取较高者）
+            r.entryLow = c.close - 0.5 * atr;
+            r.entryHigh = c.close;
+            r.stop = Math.max(c.close - 2 * atr, c.sma20 > 0 ? c.sma20 - 0.5 * atr : 0);
+        } else {
+            // 回踩：SMA20 与收盘价之间（宽度不超过 1 ATR）；止损放在 SMA50 下方，不超过入场下沿 2 ATR
+            double lo = c.sma20 > 0 ? Math.min(c.close, c.sma20) : c.close - 0.5 * atr;
+            r.entryLow = lo;
+            r.entryHigh = Math.min(Math.max(c.close, c.sma20), lo + atr);
+            r.stop = Math.max(lo - 2 * atr, c.sma50 > 0 ? c.sma50 - 0.5 * atr : 0);
+        }
+        r.stop = Math.min(r.stop, r.entryLow - 0.5 * atr);
+        r.entryLow = tick(r.entryLow);
+        r.entryHigh = tick(r.entryHigh);
+        r.stop = tick(Math.max(r.stop, 0));
+        r.reason = reason(c, b);
+        return r;
+    }
+
+    static Breakdown breakdown(GptRanker.Candidate c) {
+        Breakdown b = new Breakdown();
+        b.trend = trend(c);
+        b.entry = entry(c);
+        b.liq = c.turnoverMA20 > 0 ? clamp((Math.log10(c.turnoverMA20) - LIQ_LOG_LO) / LIQ_LOG_SPAN) : 0;
+        b.news = c.newsPct != null ? clamp(c.newsPct / 100.0) : NEWS_MISSING;
+        b.risk = risk(c);
+        b.total = W_TREND * b.trend + W_ENTRY * b.entry + W_LIQ * b.liq + W_NEWS * b.news + W_RISK * b.risk;
+        return b;
+    }
+
+    // 趋势质量：均线多头排列 40% + ADX 35% + DI 方向 25%
+    private static double trend(GptRanker.Candidate c) {
+        double align = (c.sma10 > c.sma20 ? 0.5 : 0) + (c.sma20 > c.sma50 ? 0.5 : 0);
+        double adx;
+        if (c.adx == null) adx = MISSING;
+        else if (c.adx < ADX_LO) adx = 0.5 * c.adx / ADX_LO;
+        else if (c.adx <= ADX_HOT) adx = 1.0;
+        else adx = Math.max(0.5, 1.0 - (c.adx - ADX_HOT) / 40.0);   // >60 适度降权
+        double di = c.diPlus == null || c.diMinus == null ? MISSING
+                : clamp(0.5 + (c.diPlus - c.diMinus) / (2 * DI_SPAN));
+        return 0.40 * align + 0.35 * adx + 0.25 * di;
+    }
+
+    // 入场位置：BREAKOUT 看量比与离高点距离（过热打折）；其它看是否贴近并站上 SMA20
+    private static double entry(GptRanker.Candidate c) {
+        double ext = c.sma20 > 0 ? c.close / c.sma20 - 1 : Double.NaN;
+        if (isBreakout(c)) {
+            double vol = c.volMA20 > 0 ? clamp((c.todayVol / c.volMA20 - 1) / (VOL_FULL - 1)) : MISSING;
+            double dist = clamp(1 - c.dist52w / DIST_FULL);
+            double heat = Double.isNaN(ext) ? 0 : clamp((ext - HEAT_START) / HEAT_START);
+            return (0.5 * vol + 0.5 * dist) * (1 - 0.5 * heat);
+        }
+        if (Double.isNaN(ext)) return MISSING;
+        double dev = Math.abs(ext);
+        double near = dev <= NEAR_SMA20 ? 1 - 0.3 * dev / NEAR_SMA20 : clamp(0.7 - 0.7 * (dev - NEAR_SMA20) / NEAR_SMA20);
+        return near * (ext >= 0 ? 1.0 : 0.5);
+    }
+
+    // 风险：ATR% 越小越好；离 52 周高点太远减半
+    private static double risk(GptRanker.Candidate c) {
+        double atr = c.atrPct == null ? 0.5 : clamp((ATR_WILD - c.atrPct) / (ATR_WILD - ATR_CALM));
+        return c.dist52w > DIST_RISK ? atr * 0.5 : atr;
+    }
+
+    private static boolean isBreakout(GptRanker.Candidate c) { return "BREAKOUT".equals(c.signal); }
+
+    /** 与模型输出相当的短理由：均线状态 + 最强/最弱的子项 */
+    private static String reason(GptRanker.Candidate c, Breakdown b) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(c.sma10 > c.sma20 && c.sma20 > c.sma50 ? "多头排列" : "均线未齐");
+        if (c.adx != null) sb.append(String.format(Locale.US, " ADX%.0f", c.adx));
+        if (isBreakout(c) && c.volMA20 > 0) sb.append(String.format(Locale.US, " 量比%.1f", c.todayVol / c.volMA20));
+        else if (c.sma20 > 0) sb.append(String.format(Locale.US, " 离20线%+.1f%%", (c.close / c.sma20 - 1) * 100));
+        if (c.newsPct != null) sb.append(String.format(Locale.US, " 新闻%.0f", c.newsPct));
+        if (b.liq < 0.25) sb.append(" 流动性弱");
+        if (b.risk < 0.3) sb.append(" 波动大");
+        return sb.toString();
+    }
+
+    private static double clamp(double x) { return x < 0 ? 0 : x > 1 ? 1 : x; }
+
+    private static double tick(double p) { return Math.round(p * 10) / 10.0; }
+
+    // ====== 输出 ======
+
+    static final String HEADER = "rank\tsymbol\tscore\tentryLow\tentryHigh\tstop\treason";
+
+    public static void writeTsv(List<GptRanker.Ranked> ranked, Path path) throws IOException {
+        List<String> lines = new ArrayList<>(ranked.size() + 1);
+        lines.add(HEADER);
+        for (GptRanker.Ranked r : ranked) {
+            lines.add(String.format(Locale.US, "%d\t%s\t%.1f\t%.1f\t%.1f\t%.1f\t%s",
+                    r.rank, r.symbol, r.score, r.entryLow, r.entryHigh, r.stop, r.reason));
+        }
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    // 用法: java RubricRanker candidates_YYYY-MM-DD.kbc [topN=50] [输出TSV=candidates_ranked.tsv]
+    // 读 TrendScreener 写出的列式文件（扫描时设 WRITE_COLUMNAR=true；含 ADX/DI/ATR），只排有信号（非 SETUP）的行；没有新闻分时按缺失计。
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("用法: RubricRanker candidates_YYYY-MM-DD.kbc [topN] [out.tsv]");
+            return;
+        }
+        int topN = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        Path outPath = args.length > 2 ? Paths.get(args[2]) : GptRanker.RANKED_TSV;
+
+        CandidateColumnarFile f = CandidateColumnarFile.open(Paths.get(args[0]));
+        String[] sym = f.str(CandidateColumnarFile.C_SYMBOL), name = f.str(CandidateColumnarFile.C_NAME);
+        String[] sig = f.cat(CandidateColumnarFile.C_SIGNAL);
+        double[] close = f.f64(CandidateColumnarFile.C_CLOSE), s10 = f.f64(CandidateColumnarFile.C_SMA10),
+                s20 = f.f64(CandidateColumnarFile.C_SMA20), s50 = f.f64(CandidateColumnarFile.C_SMA50),
+                d52 = f.f64(CandidateColumnarFile.C_DIST52W), vma = f.f64(CandidateColumnarFile.C_VOLMA20),
+                tvol = f.f64(CandidateColumnarFile.C_TODAYVOL), turn = f.f64(CandidateColumnarFile.C_TURNMA20);
+        double[] adx = opt(f, CandidateColumnarFile.C_ADX), dip = opt(f, CandidateColumnarFile.C_DIPLUS),
+                dim = opt(f, CandidateColumnarFile.C_DIMINUS), atr = opt(f, CandidateColumnarFile.C_ATRPCT);
+
+        List<GptRanker.Candidate> cands = new ArrayList<>();
+        for (int i = 0; i < f.rowCount(); i++) {
+            if (sig[i] == null || sig[i].isEmpty() || "SETUP".equals(sig[i])) continue;
+            GptRanker.Candidate c = new GptRanker.Candidate();
+            c.symbol = sym[i]; c.name = name[i]; c.signal = sig[i];
+            c.close = close[i]; c.sma10 = s10[i]; c.sma20 = s20[i]; c.sma50 = s50[i];
+            c.dist52w = d52[i]; c.volMA20 = vma[i]; c.todayVol = tvol[i]; c.turnoverMA20 = turn[i];
+            c.adx = box(adx, i); c.diPlus = box(dip, i); c.diMinus = box(dim, i); c.atrPct = box(atr, i);
+            cands.add(c);
+        }
+
+        long t0 = System.nanoTime();
+        List<GptRanker.Ranked> ranked = rank(cands, topN);
+        long us = (System.nanoTime() - t0) / 1000;
+        for (GptRanker.Ranked r : ranked) {
+            System.out.printf(Locale.ROOT, "#%d %-8s score=%.1f  entry[%.1f~%.1f]  stop=%.1f  %s%n",
+                    r.rank, r.symbol, r.score, r.entryLow, r.entryHigh, r.stop, r.reason);
+        }
+        writeTsv(ranked, outPath);
+        System.out.println("候选 " + cands.size() + " 只，评分用时 " + us + " µs，写出: " + outPath.toAbsolutePath());
+    }
+
+    private static double[] opt(CandidateColumnarFile f, String col) throws IOException {
+        return f.has(col) ? f.f64(col) : null;
+    }
+
+    private static Double box(double[] a, int i) { return a == null || Double.isNaN(a[i]) ? null : a[i]; }
+}
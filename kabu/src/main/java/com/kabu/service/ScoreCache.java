@@ -0,0 +1,109 @@
+package com.kabu.service;  // ScoreCache.java
+// 新闻情绪分的内容寻址缓存（news_scores.tsv）：键 = SHA-256(模型, 指令, 代码, 摘要原文)。
+// 摘要没变的股票直接复用上次的分数，不再发给 GPT；条目超过 TTL 即失效，保存时顺带清理。
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ScoreCache {
+
+    static final String CACHE_TSV = "news_scores.tsv";
+    static final long   TTL_MS    = 3L * 24 * 3600_000L;  // 3 天：标题没变但时间久了，短期情绪也该重评
+
+    static final class Item {
+        final long createdAt;
+        final double pct;
+        final String reason;
+
+        Item(long createdAt, double pct, String reason) { this.createdAt = createdAt; this.pct = pct; this.reason = reason; }
+    }
+
+    private final Path path;
+    private final Map<String, Item> items = new ConcurrentHashMap<>();
+    private int hits, misses;
+
+    private ScoreCache(Path path) { this.path = path; }
+
+    public static ScoreCache open(String path) {
+        ScoreCache c = new ScoreCache(Paths.get(path));
+        c.load();
+        return c;
+    }
+
+    /** 键：各字段以 \0 分隔后取 SHA-256（十六进制） */
+    public static String key(String model, String instructions, String symbol, String digest) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{model, instructions, symbol, digest}) {
+                md.update(part.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            byte[] h = md.digest();
+            StringBuilder sb = new StringBuilder(h.length * 2);
+            for (byte b : h) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 未过期的缓存分数；没有返回 null */
+    public synchronized NewsScorer.NewsScore get(String key, long nowMs) {
+        Item it = items.get(key);
+        if (it == null || nowMs - it.createdAt >= TTL_MS) { misses++; return null; }
+        hits++;
+        return new NewsScorer.NewsScore(it.pct, it.reason);
+    }
+
+    public void put(String key, NewsScorer.NewsScore s, long nowMs) {
+        items.put(key, new Item(nowMs, s.getPct(), s.getReason()));
+    }
+
+    public synchronized String stats() {
+        return "新闻评分缓存: 命中 " + hits + " / 未命中 " + misses + "，共 " + items.size() + " 条";
+    }
+
+    // ====== 文件 ======
+
+    static final String HEADER = "Key\tCreatedAt\tPct\tReason";
+
+    private void load() {
+        if (!Files.exists(path)) return;
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.startsWith("Key\t")) continue;
+                String[] f = line.split("\t", 4);
+                if (f.length < 4) continue;
+                try {
+                    items.put(f[0], new Item(Long.parseLong(f[1]), Double.parseDouble(f[2]), f[3]));
+                } catch (NumberFormatException ignored) {}
+            }
+        } catch (IOException e) {
+            System.err.println("读新闻评分缓存失败: " + e.getMessage());
+        }
+    }
+
+    /** 去掉过期条目后整表重写（临时文件 + 原子替换） */
+    public void save(long nowMs) {
+        List<String> lines = new ArrayList<>(items.size() + 1);
+        lines.add(HEADER);
+        for (Map.Entry<String, Item> e : items.entrySet()) {
+            Item it = e.getValue();
+            if (nowMs - it.createdAt >= TTL_MS) continue;
+            lines.add(e.getKey() + "\t" + it.createdAt + "\t" + it.pct + "\t"
+                    + it.reason.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+        }
+        try {
+            Path tmp = Paths.get(path + ".tmp");
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("写新闻评分缓存失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.kabu.service;  // SellRuleSweep.java
+// 卖出规则阈值扫参：把一批历史/合成建仓在多组阈值下用 SellRules 逐日回放，
+// 统计离场时间、实际兑现收益与利润回吐。每只股票的 K 线与指标序列只取/算一次，各组参数并行共享。
+//
+// 用法: java SellRuleSweep <entries.tsv | positions.xlsx | SYNTH:7203.T,6758.T> [网格] [持有上限天数] [行情区间]
+//   entries.tsv：每行 Symbol<TAB>BuyDate[<TAB>BuyPrice]，# 开头为注释
+//   SYNTH：对列出的股票每隔 SYNTH_STEP 根 K 线合成一次建仓
+//   网格：  "ddAtrMult=1.4,1.8,2.2;timeTpDays=30,45,60"（字段名即 SellRules.Params 的字段）
+//   规则表：环境变量 SELL_RULES（如 "TIME_TP=off,PEAK_DD=off"），与 TrendSellAdvisor 一致
+
+import com.kabu.service.TrendSellAdvisor.Bar;
+import com.kabu.service.TrendSellAdvisor.Chart;
+import com.kabu.service.TrendSellAdvisor.Decision;
+import com.kabu.service.TrendSellAdvisor.Indicators;
+import com.kabu.service.TrendSellAdvisor.Lot;
+import com.kabu.service.TrendSellAdvisor.Position;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class SellRuleSweep {
+
+    static final String DEFAULT_GRID =
+            "ddAtrMult=1.4,1.8,2.2;ddPctMin=0.02,0.03;ddPctMax=0.08,0.12;rsiPriceDelta=0.01,0.02,0.03;"
+                    + "macdHistDropRatio=0.25,0.35,0.45;lpMinDayGain=0.05,0.06,0.08;"
+                    + "peakDrawdownPct=0.04,0.05,0.07;timeTpDays=30,45,60";
+    static final int    HORIZON_DAYS   = 120;   // 最长持有；到期按收盘价结算剩余
+    static final String CHART_RANGE    = "5y";
+    static final int    SYNTH_STEP     = 10;    // 合成建仓间隔（K 线根数）
+    static final int    SYNTH_WARMUP   = 60;    // 合成建仓前至少留出的历史
+    static final double DUST_FRACTION  = 0.05;  // 剩余仓位低于此比例视为清完
+    static final String OUTPUT_PREFIX  = "sweep";
+
+    private SellRuleSweep() {}
+
+    /** 一只股票的行情与整段指标（只读，各线程共享；各组合规则集相同，依赖序列按默认规则预算一次） */
+    static final class Series {
+        final String symbol;
+        final List<Bar> bars;
+        final Indicators ind;
+
+        Series(String symbol, List<Bar> bars) {
+            this.symbol = symbol; this.bars = bars; this.ind = SellRules.DEFAULT.prepare(bars);
+        }
+    }
+
+    /** 一笔待回放的建仓：持仓 + 首次买入所在 K 线 */
+    static final class Entry {
+        final Series s;
+        final Position pos;
+        final int entryIdx;
+
+        Entry(Series s, Position pos, int entryIdx) { this.s = s; this.pos = pos; this.entryIdx = entryIdx; }
+    }
+
+    /** 一组参数在全部建仓上的汇总 */
+    static final class Result {
+        final Map<String, String> combo;
+        int n, wins, fullExits;
+        double sumExitDays, sumFirstExit, firstExitCnt, sumCaptured, sumPeak, sumGiveBack;
+
+        Result(Map<String, String> combo) { this.combo = combo; }
+
+        double avg(double x) { return n == 0 ? Double.NaN : x / n; }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: SellRuleSweep <entries.tsv | positions.xlsx | SYNTH:代码,...> [网格] [持有上限天数] [行情区间]");
+            return;
+        }
+        String grid = args.length > 1 ? args[1] : DEFAULT_GRID;
+        int horizon = args.length > 2 ? Integer.parseInt(args[2]) : HORIZON_DAYS;
+        String range = args.length > 3 ? args[3] : CHART_RANGE;
+
+        List<Entry> entries = loadEntries(args[0], range);
+        List<Map<String, String>> combos = expand(grid);
+        System.out.println("建仓数=" + entries.size() + "  参数组合=" + combos.size() + "  持有上限=" + horizon + "天"
+                + "  规则=" + SellRules.DEFAULT.order());
+        if (entries.isEmpty() || combos.isEmpty()) return;
+
+        long t0 = System.currentTimeMillis();
+        List<Result> results = sweep(entries, combos, horizon);
+        long ms = System.currentTimeMillis() - t0;
+
+        results.sort(Comparator.comparingDouble((Result r) -> -r.avg(r.sumCaptured)));
+        String out = OUTPUT_PREFIX + "_" + LocalDate.now() + ".tsv";
+        write(results, out);
+        System.out.printf(Locale.US, "完成：%d 组 × %d 笔，用时 %.1fs -> %s%n", combos.size(), entries.size(), ms / 1000.0, out);
+        for (int i = 0; i < Math.min(10, results.size()); i++) {
+            Result r = results.get(i);
+            System.out.printf(Locale.US, "#%d 兑现=%.2f%% 回吐=%.2f%% 离场=%.1f天 胜率=%.1f%%  %s%n", i + 1,
+                    r.avg(r.sumCaptured) * 100, r.avg(r.sumGiveBack) * 100, r.avg(r.sumExitDays),
+                    100.0 * r.wins / r.n, r.combo);
+        }
+    }
+
+    // ====== 扫参 ======
+
+    static List<Result> sweep(List<Entry> entries, List<Map<String, String>> combos, int horizon) throws Exception {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicInteger done = new AtomicInteger();
+        try {
+            List<Future<Result>> fs = new ArrayList<>(combos.size());
+            for (Map<String, String> combo : combos) {
+                fs.add(pool.submit(() -> {
+                    SellRules.Compiled rules = SellRules.compile(paramsOf(combo), SellRules.RULE_OVERRIDES);
+                    Result r = new Result(combo);
+                    for (Entry e : entries) simulate(rules, e, horizon, r);
+                    int k = done.incrementAndGet();
+                    if (k % 500 == 0) System.out.println("  进度 " + k + "/" + combos.size());
+                    return r;
+                }));
+            }
+            List<Result> out = new ArrayList<>(fs.size());
+            for (Future<Result> f : fs) out.add(f.get());
+            return out;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 回放一笔建仓：卖出动作按剩余仓位比例在当日收盘成交；到持有上限时剩余按收盘结算。
+     * 兑现收益 = Σ 卖出比例 × 收益；回吐 = 持有期最高收盘对应的浮盈 − 兑现收益。
+     */
+    static void simulate(SellRules.Compiled rules, Entry e, int horizon, Result r) {
+        List<Bar> bars = e.s.bars;
+        int end = Math.min(bars.size() - 1, e.entryIdx + horizon);
+        if (end <= e.entryIdx) return;
+        SellRules.Timeline tl = rules.timeline(e.pos, bars.subList(0, end + 1), e.s.ind);
+
+        double entryPx = e.pos.avgCost();
+        double remaining = 1.0, captured = 0.0, exitDays = 0.0, peak = entryPx;
+        int firstExit = -1;
+        for (int k = 0; k < tl.days.length && remaining > 0; k++) {
+            int i = tl.from + k;
+            if (i < e.entryIdx) continue;
+            double close = bars.get(i).close;
+            peak = Math.max(peak, close);
+            double frac = sellFraction(tl.days[k].action) * remaining;
+            if (frac <= 0) continue;
+            if (firstExit < 0) firstExit = i - e.entryIdx;
+            if (remaining - frac < DUST_FRACTION) frac = remaining;
+            captured += frac * (close / entryPx - 1.0);
+            exitDays += frac * (i - e.entryIdx);
+            remaining -= frac;
+        }
+        boolean fullExit = remaining <= 0;
+        if (!fullExit) {
+            captured += remaining * (bars.get(end).close / entryPx - 1.0);
+            exitDays += remaining * (end - e.entryIdx);
+        }
+        double peakGain = peak / entryPx - 1.0;
+
+        r.n++;
+        if (captured > 0) r.wins++;
+        if (fullExit) r.fullExits++;
+        r.sumCaptured += captured;
+        r.sumPeak += peakGain;
+        r.sumGiveBack += peakGain - captured;
+        r.sumExitDays += exitDays;
+        if (firstExit >= 0) { r.sumFirstExit += firstExit; r.firstExitCnt++; }
+    }
+
+    // 与 TrendSellAdvisor.planSellLots 的动作口径一致，按比例计
+    static double sellFraction(String action) {
+        if (action == null) return 0.0;
+        switch (action) {
+            case "SELL_ALL": return 1.0;
+            case "SELL_1_2": return 0.5;
+            case "SELL_1_4": return 0.25;
+            case "TRIM_1_3": return 1.0 / 3.0;
+            default:
+                if (action.startsWith("SELL_PCT_")) {
+                    try { return Integer.parseInt(action.substring("SELL_PCT_".length())) / 100.0; }
+                    catch (NumberFormatException ex) { return 0.0; }
+                }
+                return 0.0;
+        }
+    }
+
+    // ====== 参数网格 ======
+
+    /** "a=1,2;b=x,y" → 笛卡尔积（保持字段顺序） */
+    static List<Map<String, String>> expand(String grid) {
+        List<Map<String, String>> out = new ArrayList<>();
+        out.add(new LinkedHashMap<>());
+        for (String part : grid.split(";")) {
+            if (part.trim().isEmpty()) continue;
+            String[] kv = part.split("=", 2);
+            if (kv.length < 2) throw new IllegalArgumentException("网格格式错误: " + part);
+            String key = kv[0].trim();
+            field(key); // 提前校验字段名
+            List<Map<String, String>> next = new ArrayList<>();
+            for (Map<String, String> base : out) {
+                for (String v : kv[1].split(",")) {
+                    Map<String, String> m = new LinkedHashMap<>(base);
+                    m.put(key, v.trim());
+                    next.add(m);
+                }
+            }
+            out = next;
+        }
+        return out;
+    }
+
+    static SellRules.Params paramsOf(Map<String, String> combo) throws IllegalAccessException {
+        SellRules.Params p = new SellRules.Params();
+        p.marketFlag = false;
+        for (Map.Entry<String, String> e : combo.entrySet()) {
+            Field f = field(e.getKey());
+            Class<?> t = f.getType();
+            String v = e.getValue();
+            if (t == double.class) f.setDouble(p, Double.parseDouble(v));
+            else if (t == int.class) f.setInt(p, Integer.parseInt(v));
+            else if (t == boolean.class) f.setBoolean(p, Boolean.parseBoolean(v));
+            else f.set(p, v);
+        }
+        return p;
+    }
+
+    static Field field(String name) {
+        try {
+            return SellRules.Params.class.getField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("SellRules.Params 没有字段: " + name);
+        }
+    }
+
+    // ====== 建仓来源 ======
+
+    static List<Entry> loadEntries(String src, String range) throws IOException {
+        Map<String, Series> cache = new HashMap<>();
+        List<Entry> out = new ArrayList<>();
+        if (src.startsWith("SYNTH:")) {
+            for (String raw : src.substring("SYNTH:".length()).split(",")) {
+                Series s = series(TrendSellAdvisor.ensureTokyoSymbol(raw.trim()), range, cache);
+                if (s == null) continue;
+                for (int i = SYNTH_WARMUP; i < s.bars.size() - 1; i += SYNTH_STEP) {
+                    Bar b = s.bars.get(i);
+                    Position p = new Position(s.symbol);
+                    p.lots.add(new Lot(b.ts, b.close, 100, 0));
+                    out.add(new Entry(s, p, i));
+                }
+            }
+        } else if (src.endsWith(".xlsx") || src.endsWith(".xls")) {
+            for (Position p : TrendSellAdvisor.loadPositionsFromExcel(src)) {
+                Series s = series(TrendSellAdvisor.ensureTokyoSymbol(p.symbol), range, cache);
+                if (s == null || p.lots.isEmpty()) continue;
+                long first = Long.MAX_VALUE;
+                for (Lot l : p.lots) first = Math.min(first, l.buyTs);
+                int idx = TrendSellAdvisor.firstBarIndexAtOrAfter(s.bars, first);
+                if (idx > 0) out.add(new Entry(s, p, idx));
+            }
+        } else {
+            for (String line : Files.readAllLines(Paths.get(src), StandardCharsets.UTF_8)) {
+                String t = line.trim();
+                if (t.isEmpty() || t.startsWith("#") || t.startsWith("Symbol")) continue;
+                String[] f = t.split("\t");
+                if (f.length < 2) continue;
+                Series s = series(TrendSellAdvisor.ensureTokyoSymbol(f[0].trim()), range, cache);
+                if (s == null) continue;
+                long ts = TrendSellAdvisor.parseDateToEpoch(f[1].trim());
+                int idx = TrendSellAdvisor.firstBarIndexAtOrAfter(s.bars, ts);
+                if (idx <= 0) { System.err.println("建仓日不在行情区间内，跳过: " + t); continue; }
+                double px = f.length > 2 ? TrendSellAdvisor.parseD(f[2].trim()) : Double.NaN;
+                if (Double.isNaN(px)) px = s.bars.get(idx).close;
+                Position p = new Position(s.symbol);
+                p.lots.add(new Lot(ts, px, 100, 0));
+                out.add(new Entry(s, p, idx));
+            }
+        }
+        return out;
+    }
+
+    static Series series(String symbol, String range, Map<String, Series> cache) {
+        if (cache.containsKey(symbol)) return cache.get(symbol);
+        Series s = null;
+        try {
+            Chart c = TrendSellAdvisor.fetchChartFromYahoo(symbol, range);
+            if (c.bars.size() >= SYNTH_WARMUP) s = new Series(symbol, c.bars);
+            else System.err.println("历史不足，跳过 " + symbol);
+        } catch (Exception e) {
+            System.err.println("行情获取失败 " + symbol + " -> " + e.getMessage());
+        }
+        cache.put(symbol, s);
+        return s;
+    }
+
+    // ====== 输出 ======
+
+    static void write(List<Result> results, String path) throws IOException {
+        if (results.isEmpty()) return;
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8))) {
+            StringBuilder h = new StringBuilder();
+            for (String k : results.get(0).combo.keySet()) h.append(k).append('\t');
+            h.append("Entries\tCaptured%\tPeakGain%\tGiveBack%\tAvgExitDays\tAvgFirstExitDays\tWinRate%\tFullExit%");
+            pw.println(h);
+            for (Result r : results) {
+                StringBuilder sb = new StringBuilder();
+                for (String v : r.combo.values()) sb.append(v).append('\t');
+                pw.println(sb + String.format(Locale.US, "%d\t%.3f\t%.3f\t%.3f\t%.1f\t%.1f\t%.1f\t%.1f",
+                        r.n, r.avg(r.sumCaptured) * 100, r.avg(r.sumPeak) * 100, r.avg(r.sumGiveBack) * 100,
+                        r.avg(r.sumExitDays),
+                        r.firstExitCnt == 0 ? Double.NaN : r.sumFirstExit / r.firstExitCnt,
+                        r.n == 0 ? Double.NaN : 100.0 * r.wins / r.n,
+                        r.n == 0 ? Double.NaN : 100.0 * r.fullExits / r.n));
+            }
+        }
+    }
+}
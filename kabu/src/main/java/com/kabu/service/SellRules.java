@@ -0,0 +1,641 @@
+package com.kabu.service;  // SellRules.java
+// TrendSellAdvisor 的卖出规则表：每条规则有 id、优先级、依赖指标和默认开关；
+// compile() 按优先级排成数组得到求值器，并汇总启用规则的依赖指标（requires）。单次评估时指标在 Ctx 中
+// 按需计算、每次评估只算一次；批量回放先用 prepare() 按 requires 算好整段序列，逐日直接查表。
+// 命中第一条终止规则即返回。规则可在运行时开关/改优先级，参数集中在 Params，
+// 便于回测与盘中对大量 持仓×交易日 批量评估。
+
+import com.kabu.service.TrendSellAdvisor.Bar;
+import com.kabu.service.TrendSellAdvisor.Decision;
+import com.kabu.service.TrendSellAdvisor.Indicators;
+import com.kabu.service.TrendSellAdvisor.Lot;
+import com.kabu.service.TrendSellAdvisor.Position;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+import static com.kabu.service.TrendSellAdvisor.*;
+
+public final class SellRules {
+
+    private SellRules() {}
+
+    // ====== 指标 ======
+
+    /** 规则可声明依赖的指标；Ctx 内惰性计算并缓存 */
+    enum Ind { M10, M15, M20, M30, M40, ATR14, VMA20, BOLL_UP, RSI14, PEAK_HIGH }
+
+    /** 与规则无关、每次评估都要用的指标（LossMA、买回提示、CSV 参考列） */
+    static final EnumSet<Ind> BASE = EnumSet.of(Ind.M10, Ind.M15, Ind.M20, Ind.ATR14, Ind.VMA20, Ind.RSI14);
+
+    // ====== 参数（默认值取自 TrendSellAdvisor 的常量）======
+
+    public static final class Params implements Cloneable {
+        public double gap20dMinPct        = GAP_20D_MIN_PCT;
+        public double dropDayPct          = 0.04;    // 单日跌幅阈值
+        public double maBuffer            = 0.997;   // 均线止损缓冲
+        public int    probeMaxDaysNoBreakout = PROBE_MAX_DAYS_NO_BREAKOUT;
+        public int    probeMaxDaysNoGain  = PROBE_MAX_DAYS_NO_GAIN;
+        public double probeMinGain        = PROBE_MIN_GAIN;
+        public double peakDrawdownPct     = PEAK_DRAWDOWN_5PCT;
+        public String peakDrawdownAction  = PEAK_DRAWDOWN_ACTION;
+        public double ddPnlOn             = DD_PNL_ON;
+        public double ddPctFloor          = DD_PCT_FLOOR;
+        public boolean ddUseAtr           = DD_USE_ATR;
+        public double ddAtrMult           = DD_ATR_MULT;
+        public double ddPctMin            = DD_PCT_MIN;
+        public double ddPctMax            = DD_PCT_MAX;
+        public int    rsiDivWin           = RSI_DIV_WIN;
+        public double rsiPriceDelta       = RSI_PRICE_DELTA;
+        public int    macdHistDownDays    = MACD_HIST_DOWN_DAYS;
+        public double macdHistDropRatio   = MACD_HIST_DROP_RATIO;
+        public boolean momUseConfirm      = MOM_USE_CONFIRM;
+        public int    momConfirmWindow    = MOM_CONFIRM_WINDOW;
+        public int    momConfirmMinHits   = MOM_CONFIRM_MIN_HITS;
+        public double lpMinDayGain        = LP_MIN_DAY_GAIN;
+        public double lpFromHighPct       = LP_FROM_HIGH_PCT;
+        public double lpVolMult           = LP_VOL_MULT;
+        public int    lpSellPct           = LP_SELL_PCT;
+        public int    timeTpDays          = TIME_TP_DAYS;
+        public int    timeTpLookback      = TIME_TP_LOOKBACK;
+        public int    timeTpSellPct       = TIME_TP_SELL_PCT;
+        public double bollRsiMin          = 78;
+        public boolean marketFlag         = true;    // false：不查市场环境（批量回放时省掉共享锁），MarketOK 记为 1
+
+        public Params copy() {
+            try { return (Params) clone(); } catch (CloneNotSupportedException e) { throw new AssertionError(e); }
+        }
+    }
+
+    // ====== 规则表 ======
+
+    /** 规则体：返回 true 表示已给出终止动作 */
+    interface Body { boolean apply(Ctx c, Decision d); }
+
+    static final class Rule {
+        final String id;
+        final int priority;
+        final EnumSet<Ind> deps;
+        final boolean enabled;
+        final Body body;
+
+        Rule(String id, int priority, boolean enabled, EnumSet<Ind> deps, Body body) {
+            this.id = id; this.priority = priority; this.enabled = enabled; this.deps = deps; this.body = body;
+        }
+
+        Rule with(int priority, boolean enabled) { return new Rule(id, priority, enabled, deps, body); }
+    }
+
+    /** 默认规则表，顺序即原 decide() 的判定顺序 */
+    static List<Rule> defaultRules() {
+        List<Rule> r = new ArrayList<>();
+        r.add(new Rule("GAP_20D",        10,  true, EnumSet.of(Ind.M20), SellRules::gap20d));
+        r.add(new Rule("DROP_4PCT_VOL",  20,  true, EnumSet.of(Ind.VMA20, Ind.M20), SellRules::dropHighVol));
+        r.add(new Rule("PROBE_TIMEOUT",  30,  true, EnumSet.of(Ind.M10), SellRules::probeTimeout));
+        r.add(new Rule("MA_STOP",        40,  true, EnumSet.of(Ind.M20, Ind.M30, Ind.M40), SellRules::maStop));
+        r.add(new Rule("PEAK_DD",        50,  ENABLE_PEAK_DRAWDOWN_5PCT, EnumSet.of(Ind.PEAK_HIGH), SellRules::peakDrawdown));
+        r.add(new Rule("PROFIT_DD",      60,  ENABLE_PROFIT_DRAWDOWN, EnumSet.of(Ind.PEAK_HIGH, Ind.ATR14), SellRules::profitDrawdown));
+        r.add(new Rule("MOM_RSI_DIV",    70,  ENABLE_MOMENTUM_DECAY, EnumSet.noneOf(Ind.class), SellRules::momentumRsi));
+        r.add(new Rule("MOM_MACD",       80,  ENABLE_MOMENTUM_DECAY, EnumSet.noneOf(Ind.class), SellRules::momentumMacd));
+        r.add(new Rule("LATE_PULLBACK",  90,  ENABLE_LATE_PULLBACK_PROXY, EnumSet.of(Ind.VMA20), SellRules::latePullback));
+        r.add(new Rule("ATR_TRAIL",      100, true, EnumSet.of(Ind.ATR14, Ind.M10, Ind.M15, Ind.M20), SellRules::atrTrail));
+        r.add(new Rule("TIME_TP",        110, ENABLE_TIME_TP, EnumSet.noneOf(Ind.class), SellRules::timeTakeProfit));
+        r.add(new Rule("BOLL_RSI_TRIM",  120, true, EnumSet.of(Ind.BOLL_UP, Ind.RSI14), SellRules::bollRsiTrim));
+        return r;
+    }
+
+    /** 规则表的运行时覆盖，如 SELL_RULES="TIME_TP=off,LATE_PULLBACK=15"；TrendSellAdvisor 与 SellRuleSweep 共用 */
+    static final String[] RULE_OVERRIDES = Arrays.stream(System.getenv().getOrDefault("SELL_RULES", "").split(","))
+            .map(String::trim).filter(s -> !s.isEmpty()).toArray(String[]::new);
+
+    /** 默认参数 + SELL_RULES 覆盖后的编译结果（TrendSellAdvisor.decide 使用） */
+    static final Compiled DEFAULT = compile(new Params(), RULE_OVERRIDES);
+
+    static Compiled compile(List<Rule> rules, Params params) {
+        List<Rule> on = new ArrayList<>();
+        for (Rule x : rules) if (x.enabled) on.add(x);
+        on.sort(Comparator.comparingInt((Rule x) -> x.priority)); // 稳定排序：同优先级保持表内顺序
+        return new Compiled(on.toArray(new Rule[0]), params);
+    }
+
+    /**
+     * 在默认规则表上做运行时调整。overrides 形如 "TIME_TP=off", "PEAK_DD=off", "LATE_PULLBACK=15"（改优先级）。
+     */
+    static Compiled compile(Params params, String... overrides) {
+        Map<String, Rule> byId = new LinkedHashMap<>();
+        for (Rule x : defaultRules()) byId.put(x.id, x);
+        for (String o : overrides) {
+            String[] kv = o.split("=", 2);
+            Rule x = byId.get(kv[0].trim());
+            if (x == null || kv.length < 2) throw new IllegalArgumentException("未知规则覆盖: " + o);
+            String v = kv[1].trim();
+            if ("off".equalsIgnoreCase(v)) byId.put(x.id, x.with(x.priority, false));
+            else if ("on".equalsIgnoreCase(v)) byId.put(x.id, x.with(x.priority, true));
+            else byId.put(x.id, x.with(Integer.parseInt(v), x.enabled));
+        }
+        return compile(new ArrayList<>(byId.values()), params);
+    }
+
+    public static final class Compiled {
+        final Rule[] rules;
+        final Params params;
+        final EnumSet<Ind> requires;
+
+        Compiled(Rule[] rules, Params params) {
+            this.rules = rules;
+            this.params = params;
+            this.requires = EnumSet.copyOf(BASE);
+            for (Rule x : rules) requires.addAll(x.deps);
+        }
+
+        /** 批量回放用的整段指标：Indicators.of 之外，再按 requires 预算逐日序列 */
+        public Indicators prepare(List<Bar> bars) {
+            Indicators ind = Indicators.of(bars);
+            precompute(ind, bars, requires);
+            return ind;
+        }
+
+        /** 启用的规则 id（按求值顺序） */
+        public List<String> order() {
+            List<String> ids = new ArrayList<>();
+            for (Rule x : rules) ids.add(x.id);
+            return ids;
+        }
+
+        /** 单次评估；bars 的最后一根即评估日，ind 可以比 bars 长（指标都是因果的） */
+        public Decision evaluate(Position pos, List<Bar> bars, Indicators ind) {
+            return evaluate(new Ctx(), pos, bars, ind);
+        }
+
+        /**
+         * 同一持仓逐日评估 [fromIdx, bars.size()) 的每一天，复用同一个 Ctx 和整段指标；
+         * 每天的 bars 是 subList 视图，不拷贝。
+         */
+        public Decision[] evaluateDays(Position pos, List<Bar> bars, Indicators ind, int fromIdx) {
+            int from = Math.max(1, fromIdx);
+            Decision[] out = new Decision[Math.max(0, bars.size() - from)];
+            Ctx c = new Ctx();
+            for (int i = from; i < bars.size(); i++) out[i - from] = evaluate(c, pos, bars.subList(0, i + 1), ind);
+            return out;
+        }
+
+        /**
+         * 单遍回放一个持仓的历史：从最早一笔买入所在的 K 线起，逐日给出“当天会做出的决策”。
+         * 每天的持仓只含当天及以前已买入的 lots；依赖过去的状态（买入后峰值、试仓后最高收盘、
+         * 动量检测器的逐日结果）随日推进增量维护，整段 O(N)，而不是每天重扫一遍。
+         * 与对每一天单独调用 evaluate(当日持仓, bars[0..i], ind) 的结果一致。
+         */
+        public Timeline timeline(Position pos, List<Bar> bars, Indicators ind) {
+            int nLots = pos.lots.size();
+            int[] lotIdx = new int[nLots];
+            int from = Integer.MAX_VALUE;
+            for (int k = 0; k < nLots; k++) {
+                lotIdx[k] = firstBarIndexAtOrAfter(bars, pos.lots.get(k).buyTs);
+                if (lotIdx[k] >= 0) from = Math.min(from, lotIdx[k]);
+            }
+            from = Math.max(1, from);   // 至少要有前一根
+            if (from >= bars.size()) return new Timeline(pos.symbol, bars, from, new Decision[0], new int[0]);
+
+            Carry carry = new Carry(bars.size());
+            for (int k = 0; k < nLots; k++) carry.lotIdx.put(pos.lots.get(k), lotIdx[k]);
+            Ctx c = new Ctx();
+            c.carry = carry;
+            Decision[] out = new Decision[bars.size() - from];
+            int[] held = new int[out.length];
+            Position asOf = null;
+            int included = -1;
+            for (int i = from; i < bars.size(); i++) {
+                // 当日持仓：lots 按原顺序过滤（试仓判定/卖出分配依赖原顺序）；
+                // 最近买入日 = 已含 lots 的最大下标（下标随时间单调）
+                int cnt = 0, lastBuyIdx = -1;
+                for (int k = 0; k < nLots; k++) {
+                    if (lotIdx[k] >= 0 && lotIdx[k] <= i) { cnt++; lastBuyIdx = Math.max(lastBuyIdx, lotIdx[k]); }
+                }
+                if (cnt != included) {
+                    asOf = new Position(pos.symbol);
+                    for (int k = 0; k < nLots; k++) if (lotIdx[k] >= 0 && lotIdx[k] <= i) asOf.lots.add(pos.lots.get(k));
+                    included = cnt;
+                }
+                held[i - from] = cnt;
+                carry.advance(bars, i, lastBuyIdx);
+                out[i - from] = evaluate(c, asOf, bars.subList(0, i + 1), ind);
+            }
+            return new Timeline(pos.symbol, bars, from, out, held);
+        }
+
+        Decision evaluate(Ctx c, Position pos, List<Bar> bars, Indicators ind) {
+            c.reset(pos, bars, ind, params);
+            Decision d = new Decision(); d.action = "HOLD";
+
+            // 层级 & “全清参考线”（LossMA 用于 CSV 展示）：0→20D，1→20D，2+→15D
+            double lossMA = c.adds <= 1 ? c.get(Ind.M20) : c.get(Ind.M15);
+            d.refs.put("Adds", (double) c.adds);
+            d.refs.put("LossMA", lossMA);
+
+            for (Rule x : rules) {
+                if (x.body.apply(c, d)) {
+                    d.rule = x.id;
+                    c.fillRefs(d);
+                    return d;
+                }
+            }
+
+            // 未触发：买回提示 & 市场顺风标识
+            boolean reAdd = (c.last.close > c.get(Ind.M10) && c.last.volume >= c.get(Ind.VMA20));
+            d.refs.put("readdSignal", reAdd ? 1.0 : 0.0);
+            boolean mktOk = !USE_MARKET_TAILWIND || !params.marketFlag || marketOk(c.last.ts);
+            d.refs.put("marketOK", mktOk ? 1.0 : 0.0);
+            d.reasons.add("趋势完好（≥10/15/20D）");
+            c.fillRefs(d);
+            return d;
+        }
+    }
+
+    /**
+     * 按 which 把依赖的均线/ATR/量均/布林上轨逐日算好存进 ind.series（RSI 已在 Indicators 里，峰值随持仓变不预算）。
+     * 每一天仍用同一个函数在 bars[0..i] 上求值，结果与 Ctx 现算逐位相同；只是同一段行情被多组参数、
+     * 多个交易日反复评估时只算一遍。ind 只读共享前调用（结果写进 ind，不加锁）。
+     */
+    static void precompute(Indicators ind, List<Bar> bars, EnumSet<Ind> which) {
+        int N = bars.size();
+        double[][] series = new double[Ind.values().length][];
+        for (Ind k : which) {
+            if (k == Ind.RSI14 || k == Ind.PEAK_HIGH) continue;
+            double[] s = new double[N];
+            for (int i = 0; i < N; i++) {
+                List<Bar> b = bars.subList(0, i + 1);
+                switch (k) {
+                    case M10:     s[i] = sma(b, 10, -1); break;
+                    case M15:     s[i] = sma(b, 15, -1); break;
+                    case M20:     s[i] = sma(b, 20, -1); break;
+                    case M30:     s[i] = sma(b, 30, -1); break;
+                    case M40:     s[i] = sma(b, 40, -1); break;
+                    case ATR14:   s[i] = atr(b, 14, -1); break;
+                    case VMA20:   s[i] = avgVol(b, 20, -1); break;
+                    case BOLL_UP: s[i] = boll(b, 20, -1)[1]; break;
+                    default: throw new IllegalStateException(k.name());
+                }
+            }
+            series[k.ordinal()] = s;
+        }
+        ind.series = series;
+    }
+
+    // ====== 逐日回放 ======
+
+    /** 逐日决策流水：days[i - from] 对应 bars[i] */
+    public static final class Timeline {
+        public final String symbol;
+        public final List<Bar> bars;
+        public final int from;
+        public final Decision[] days;
+        public final int[] lotsHeld;
+
+        Timeline(String symbol, List<Bar> bars, int from, Decision[] days, int[] lotsHeld) {
+            this.symbol = symbol; this.bars = bars; this.from = from; this.days = days; this.lotsHeld = lotsHeld;
+        }
+
+        /** 每条规则第一次触发的 K 线下标（按时间先后） */
+        public Map<String, Integer> firstFired() {
+            Map<String, Integer> m = new LinkedHashMap<>();
+            for (int i = 0; i < days.length; i++) {
+                if (days[i].rule != null) m.putIfAbsent(days[i].rule, from + i);
+            }
+            return m;
+        }
+    }
+
+    /**
+     * 回放时跨日携带的状态。单次评估（carry == null）时各规则按原方式现算。
+     */
+    static final class Carry {
+        final Hits rsiDiv, macdDiv;     // 动量检测：按下标缓存 + 确认窗口内的滚动命中数
+        final Map<Lot, Integer> lotIdx = new IdentityHashMap<>(); // 每笔买入对应的 K 线下标
+        int lastBuyIdx = -1;
+        int peakFrom = -1, peakTo = -1;
+        double peakHigh;
+        Lot probe;
+        int probeIdx = -1, probeTo = -1;
+        double probeMaxClose;
+
+        Carry(int n) { rsiDiv = new Hits(n); macdDiv = new Hits(n); }
+
+        /** 推进到第 i 天；峰值从最近买入日起逐日累计，买入日变化时才重算 */
+        void advance(List<Bar> bars, int i, int lastBuyIdx) {
+            this.lastBuyIdx = lastBuyIdx;
+            int start = Math.max(0, lastBuyIdx);
+            if (start != peakFrom) {
+                peakFrom = start;
+                peakHigh = maxHigh(bars, start, i);
+            } else {
+                for (int k = peakTo + 1; k <= i; k++) peakHigh = Math.max(peakHigh, bars.get(k).high);
+            }
+            peakTo = i;
+        }
+
+        /** 试仓 lot 自买入以来的最高收盘（截至 n）；试仓 lot 变化时重算，否则只补新的天 */
+        double probeMaxClose(Lot lot, int idx, List<Bar> bars, int n) {
+            if (lot != probe || idx != probeIdx) {
+                probe = lot; probeIdx = idx; probeTo = idx - 1;
+                probeMaxClose = Double.NEGATIVE_INFINITY;
+            }
+            for (int k = probeTo + 1; k <= n; k++) probeMaxClose = Math.max(probeMaxClose, bars.get(k).close);
+            probeTo = Math.max(probeTo, n);
+            return probeMaxClose;
+        }
+    }
+
+    // ====== 求值上下文 ======
+
+    static final class Ctx {
+        Position pos;
+        List<Bar> bars;
+        Indicators ind;
+        Params p;
+        Bar last, prev;
+        int n;                  // 最后一根下标
+        int adds;
+        double avgCost, pnl;
+        int lastBuyIdx;         // -2 = 尚未计算
+        Carry carry;            // 逐日回放时非空
+
+        private final double[] memo = new double[Ind.values().length];
+        private int have;       // 位图：已计算的指标
+
+        void reset(Position pos, List<Bar> bars, Indicators ind, Params p) {
+            this.pos = pos; this.bars = bars; this.ind = ind; this.p = p;
+            this.n = bars.size() - 1;
+            this.last = bars.get(n);
+            this.prev = bars.get(n - 1);
+            this.adds = pos.addCount();
+            this.avgCost = pos.avgCost();
+            this.pnl = Double.isNaN(avgCost) ? Double.NaN : (last.close - avgCost) / avgCost;
+            this.lastBuyIdx = -2;
+            this.have = 0;
+        }
+
+        double get(Ind k) {
+            int bit = 1 << k.ordinal();
+            if ((have & bit) != 0) return memo[k.ordinal()];
+            double[] pre = ind.series != null ? ind.series[k.ordinal()] : null;
+            double v;
+            if (pre != null && n < pre.length) v = pre[n];
+            else switch (k) {
+                case M10:       v = sma(bars, 10, -1); break;
+                case M15:       v = sma(bars, 15, -1); break;
+                case M20:       v = sma(bars, 20, -1); break;
+                case M30:       v = sma(bars, 30, -1); break;
+                case M40:       v = sma(bars, 40, -1); break;
+                case ATR14:     v = atr(bars, 14, -1); break;
+                case VMA20:     v = avgVol(bars, 20, -1); break;
+                case BOLL_UP:   v = boll(bars, 20, -1)[1]; break;
+                case RSI14:     v = ind.rsi14[n]; break;   // 与 rsi(bars,14,-1) 同口径
+                case PEAK_HIGH: v = carry != null ? carry.peakHigh : maxHigh(bars, Math.max(0, lastBuyIdx()), n); break;
+                default: throw new IllegalStateException(k.name());
+            }
+            memo[k.ordinal()] = v;
+            have |= bit;
+            return v;
+        }
+
+        /** 最近一次买入对应的 K 线下标（找不到为 -1） */
+        int lastBuyIdx() {
+            if (lastBuyIdx == -2) lastBuyIdx = carry != null ? carry.lastBuyIdx : firstBarIndexAtOrAfter(bars, pos.lastBuyTs());
+            return lastBuyIdx;
+        }
+
+        void fillRefs(Decision d) {
+            TrendSellAdvisor.fillRefs(d, get(Ind.M10), get(Ind.M15), get(Ind.M20),
+                    get(Ind.ATR14), get(Ind.RSI14), avgCost, pnl);
+        }
+    }
+
+    // ====== 规则实现 ======
+
+    // 大幅跳空跌破 20D（昨收仍在 20D 上方）
+    static boolean gap20d(Ctx c, Decision d) {
+        double m20 = c.get(Ind.M20);
+        if (Double.isNaN(m20) || m20 <= 0) return false;
+        boolean wasAbove20 = c.prev.close > m20;
+        double gapFrom20Pct = (m20 - c.last.open) / m20;
+        if (!(wasAbove20 && gapFrom20Pct >= c.p.gap20dMinPct && c.last.close < m20)) return false;
+        if (c.adds == 0) {
+            d.action = "SELL_ALL";
+            d.reasons.add(String.format(Locale.US, "观察仓：Gap-down %.2f%% 跳空跌破20D并收在其下→全清", gapFrom20Pct * 100.0));
+        } else {
+            d.action = "SELL_1_2";
+            d.reasons.add(String.format(Locale.US, "重仓：Gap-down %.2f%% 跳空跌破20D并收在其下→先减半", gapFrom20Pct * 100.0));
+        }
+        return true;
+    }
+
+    static boolean dropHighVol(Ctx c, Decision d) {
+        if ((c.last.close - c.prev.close) / c.prev.close <= -c.p.dropDayPct && c.last.volume >= c.get(Ind.VMA20)) {
+            d.action = "SELL_1_2"; d.reasons.add("单日-4%且放量");
+            if (c.last.close < c.get(Ind.M20)) d.reasons.add("收破20D");
+            return true;
+        }
+        return false;
+    }
+
+    // 试仓时间止损（Adds=0）
+    static boolean probeTimeout(Ctx c, Decision d) {
+        if (c.adds != 0 || c.pos.lots.isEmpty()) return false;
+        Lot probe = null;
+        for (Lot l : c.pos.lots) { if (l.level != null && l.level == 0) { probe = l; break; } }
+        if (probe == null) probe = c.pos.lots.get(0);
+        int idxEntry = c.carry != null ? c.carry.lotIdx.get(probe) : firstBarIndexAtOrAfter(c.bars, probe.buyTs);
+        if (idxEntry < 0 || idxEntry >= c.n) return false;
+
+        int daysSince = c.n - idxEntry;
+        double trigger20h = rollingHigh(c.bars, 20, -2);
+        double maxCloseSince = c.carry != null
+                ? c.carry.probeMaxClose(probe, idxEntry, c.bars, c.n)
+                : maxClose(c.bars, idxEntry, c.n);
+        boolean noBreakoutTooLong = daysSince >= c.p.probeMaxDaysNoBreakout
+                && maxCloseSince < trigger20h
+                && c.last.close < c.get(Ind.M10);
+        boolean noGainTooLong = daysSince >= c.p.probeMaxDaysNoGain
+                && (c.last.close - probe.buyPrice) / probe.buyPrice < c.p.probeMinGain;
+        if (noBreakoutTooLong) {
+            d.action = "SELL_ALL"; d.reasons.add("试仓超时：10日未突破20H且低于10D");
+            return true;
+        }
+        if (noGainTooLong) {
+            d.action = "SELL_ALL"; d.reasons.add("试仓超时：15日无进展(<+5%)");
+            return true;
+        }
+        return false;
+    }
+
+    // 分层均线止损（带缓冲）
+    static boolean maStop(Ctx c, Decision d) {
+        double buf = c.p.maBuffer, close = c.last.close;
+        if (c.adds == 0) {
+            if (close < c.get(Ind.M20) * buf) { d.action = "SELL_ALL"; d.reasons.add("观察仓：收盘跌破20D"); return true; }
+        } else if (c.adds == 1) {
+            if (close < c.get(Ind.M40) * buf) { d.action = "SELL_ALL"; d.reasons.add("一层仓：收盘跌破40D→清仓"); return true; }
+            if (close < c.get(Ind.M30) * buf) { d.action = "SELL_1_2"; d.reasons.add("一层仓：收盘跌破30D→减半"); return true; }
+        } else {
+            if (close < c.get(Ind.M30) * buf) { d.action = "SELL_ALL"; d.reasons.add("两层及以上：收盘跌破30D→清仓"); return true; }
+            if (close < c.get(Ind.M20) * buf) { d.action = "SELL_1_2"; d.reasons.add("两层及以上：收盘跌破20D→减半"); return true; }
+        }
+        return false;
+    }
+
+    // 固定峰值回撤止盈（自最近买入后的最高点）
+    static boolean peakDrawdown(Ctx c, Decision d) {
+        if (Double.isNaN(c.pnl) || c.pnl <= 0) return false;
+        double peak = c.get(Ind.PEAK_HIGH);
+        if (peak <= 0) return false;
+        double dd = (peak - c.last.close) / peak;
+        d.refs.put("PeakHigh", peak);
+        d.refs.put("Drawdown%", dd * 100.0);
+        if (dd < c.p.peakDrawdownPct) return false;
+        d.action = c.p.peakDrawdownAction;
+        d.reasons.add(String.format(Locale.US, "固定峰值回撤止盈：自最近买入高点回撤 %.2f%% ≥ %.2f%%",
+                dd * 100.0, c.p.peakDrawdownPct * 100.0));
+        return true;
+    }
+
+    // 浮盈回撤止盈（阈值可随 ATR 动态化）
+    static boolean profitDrawdown(Ctx c, Decision d) {
+        if (Double.isNaN(c.pnl) || c.pnl < c.p.ddPnlOn) return false;
+        double peakH = c.get(Ind.PEAK_HIGH);
+        if (peakH <= 0) return false;
+        double dd = (peakH - c.last.close) / peakH;
+        double ddAtr = c.p.ddUseAtr ? (c.p.ddAtrMult * c.get(Ind.ATR14) / peakH) : 0.0;
+        double ddTrig = clamp(Math.max(c.p.ddPctFloor, ddAtr), c.p.ddPctMin, c.p.ddPctMax);
+        if (dd >= ddTrig) {
+            d.action = (c.pnl >= 0.20 ? "SELL_1_2" : "SELL_PCT_30");
+            d.reasons.add(String.format(Locale.US, "浮盈回撤止盈：从峰值回撤 %.2f%% ≥ 阈值 %.2f%%", dd * 100.0, ddTrig * 100.0));
+            return true;
+        }
+        d.refs.put("PeakHigh", peakH);
+        d.refs.put("Drawdown%", dd * 100.0);
+        d.refs.put("DDTrig%", ddTrig * 100.0);
+        return false;
+    }
+
+    // 动量衰减：RSI 顶背离（可要求最近 momConfirmWindow 天内至少 momConfirmMinHits 次确认）
+    static boolean momentumRsi(Ctx c, Decision d) {
+        if (c.bars.size() < 60) return false;
+        IntPredicate det = k -> rsiTopDivergenceAt(c.bars, c.ind.rsi14, k, c.p.rsiDivWin, c.p.rsiPriceDelta);
+        Hits carried = c.carry != null ? c.carry.rsiDiv : null;
+        boolean ok = c.p.momUseConfirm
+                ? confirmHits(c, carried, det) >= c.p.momConfirmMinHits
+                : (carried != null ? carried.at(c.n, det) : det.test(c.n));
+        if (!ok) return false;
+        d.action = "TRIM_1_3";
+        d.reasons.add(c.p.momUseConfirm ? "动量衰减：顶背离" + confirmLabel(c.p) : "动量衰减：顶背离");
+        return true;
+    }
+
+    // 动量衰减：MACD 柱体正区连续收缩（确认口径同上）
+    static boolean momentumMacd(Ctx c, Decision d) {
+        if (c.bars.size() < 60) return false;
+        IntPredicate det = k -> macdContractionAt(c.ind.hist, k, c.p.macdHistDownDays, c.p.macdHistDropRatio);
+        Hits carried = c.carry != null ? c.carry.macdDiv : null;
+        boolean ok = c.p.momUseConfirm
+                ? confirmHits(c, carried, det) >= c.p.momConfirmMinHits
+                : (carried != null ? carried.at(c.n, det) : det.test(c.n));
+        if (!ok) return false;
+        d.action = "SELL_PCT_30";
+        d.reasons.add(c.p.momUseConfirm ? "动量衰减：MACD柱体连续收缩" + confirmLabel(c.p) : "动量衰减：MACD柱体连续收缩");
+        return true;
+    }
+
+    static String confirmLabel(Params p) {
+        return "（" + p.momConfirmWindow + "天内≥" + p.momConfirmMinHits + "次确认）";
+    }
+
+    /** 最近 momConfirmWindow 天（含今天）的命中数：回放时用滚动计数，单次评估现数 */
+    static int confirmHits(Ctx c, Hits carried, IntPredicate det) {
+        int w = Math.max(1, c.p.momConfirmWindow);
+        if (carried != null) return carried.window(c.n, w, det);
+        int hits = 0;
+        for (int k = Math.max(0, c.n - w + 1); k <= c.n; k++) if (det.test(k)) hits++;
+        return hits;
+    }
+
+    /**
+     * 动量检测在回放中的携带状态。检测结果只依赖下标及以前的数据，每个下标只算一次；
+     * 窗口命中数随回放逐日滑动（进一天加新的一格、减掉滑出的一格），每天 O(1)。
+     */
+    static final class Hits {
+        private final byte[] at;   // 0=未算 1=否 2=是
+        private int to = -1, hits; // hits = (to - w, to] 内的命中数
+
+        Hits(int n) { at = new byte[n]; }
+
+        boolean at(int idx, IntPredicate det) {
+            byte v = at[idx];
+            if (v == 0) {
+                v = det.test(idx) ? (byte) 2 : (byte) 1;
+                at[idx] = v;
+            }
+            return v == 2;
+        }
+
+        int window(int n, int w, IntPredicate det) {
+            if (n < to || n - to > w) {   // 往回跳或一次跨过整个窗口：重数
+                hits = 0;
+                for (int k = Math.max(0, n - w + 1); k <= n; k++) if (at(k, det)) hits++;
+            } else {
+                for (int k = to + 1; k <= n; k++) {
+                    if (at(k, det)) hits++;
+                    if (k - w >= 0 && at(k - w, det)) hits--;
+                }
+            }
+            to = n;
+            return hits;
+        }
+    }
+
+    // 尾盘回落代理（高-收回落 + 放量 + 大阳日）
+    static boolean latePullback(Ctx c, Decision d) {
+        double dayGain = (c.last.close - c.prev.close) / c.prev.close;
+        double backFromHigh = (c.last.high > 0) ? (c.last.high - c.last.close) / c.last.high : 0.0;
+        boolean volUp = c.last.volume >= c.get(Ind.VMA20) * c.p.lpVolMult;
+        if (!(dayGain >= c.p.lpMinDayGain && backFromHigh >= c.p.lpFromHighPct && volUp)) return false;
+        d.action = "SELL_PCT_" + c.p.lpSellPct;
+        d.reasons.add(String.format(Locale.US, "尾盘回落代理：当日涨幅%.2f%%、距高点回落%.2f%%、放量≥%.2fx",
+                dayGain * 100.0, backFromHigh * 100.0, c.p.lpVolMult));
+        return true;
+    }
+
+    // ATR 追踪止盈（分档）
+    static boolean atrTrail(Ctx c, Decision d) {
+        double trail = calcTrail(c.pnl, c.last.close, c.get(Ind.ATR14), c.get(Ind.M10), c.get(Ind.M15), c.get(Ind.M20));
+        d.refs.put("trail", trail);
+        if (!(c.last.close < trail * c.p.maBuffer)) return false;
+        if (!Double.isNaN(c.pnl) && c.pnl >= 0.20) d.action = "SELL_1_2";
+        else if (!Double.isNaN(c.pnl) && c.pnl >= 0.10) d.action = "TRIM_1_3";
+        else d.action = "SELL_1_4";
+        d.reasons.add("跌破ATR追踪线（分档止盈）");
+        return true;
+    }
+
+    // 情景化时间止盈：持仓足够久且近期未创新高
+    static boolean timeTakeProfit(Ctx c, Decision d) {
+        int idx = Math.max(0, c.lastBuyIdx());
+        int daysHeld = c.n - idx;
+        if (daysHeld < c.p.timeTpDays) return false;
+        double rh = rollingHigh(c.bars, c.p.timeTpLookback, -1);
+        if (!(c.last.close < rh)) return false;
+        d.action = "SELL_PCT_" + c.p.timeTpSellPct;
+        d.reasons.add(String.format(Locale.US, "时间止盈：持仓≥%d日且未创新高，先减%s%%",
+                c.p.timeTpDays, String.valueOf(c.p.timeTpSellPct)));
+        return true;
+    }
+
+    // 逢强先减：布林上轨外连收 + RSI 高位
+    static boolean bollRsiTrim(Ctx c, Decision d) {
+        double up = c.get(Ind.BOLL_UP);
+        if (c.last.close > up && c.prev.close > up && c.get(Ind.RSI14) >= c.p.bollRsiMin) {
+            d.action = "TRIM_1_3"; d.reasons.add("布林上轨外连收 + RSI高位");
+            return true;
+        }
+        return false;
+    }
+}
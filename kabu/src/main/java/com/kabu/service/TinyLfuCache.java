@@ -0,0 +1,287 @@
+package com.kabu.service;  // TinyLfuCache.java
+// 按字节预算限容的 W-TinyLFU 缓存：窗口 LRU + 主区分段 LRU（试用/保护）+ Count-Min 频率草图准入。
+// 每个条目带各自的过期时刻（由调用方按交易时段计算），并统计命中/未命中/淘汰。
+// 线程安全：所有操作串行化在一把锁上；条目数为几百~几千级别，临界区很短。
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public final class TinyLfuCache<K, V> {
+
+    static final double WINDOW_RATIO    = 0.01; // 窗口区占总预算 1%
+    static final double PROTECTED_RATIO = 0.80; // 主区中保护段占 80%
+
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final String name;
+    private final long maxWeight, windowMax, protectedMax;
+    private final Map<K, Node<K, V>> data = new HashMap<>();
+    private final Lane<K, V>[] lanes;
+    private final FrequencySketch sketch;
+
+    // 统计
+    private long hits, misses, evictions, evictedWeight, expirations, rejections;
+
+    /**
+     * @param maxWeight       字节预算（按调用方给出的估算权重计）
+     * @param expectedEntries 预计条目数，用于确定频率草图大小
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLfuCache(String name, long maxWeight, int expectedEntries) {
+        this.name = name;
+        this.maxWeight = Math.max(1, maxWeight);
+        this.windowMax = Math.max(1, (long) (this.maxWeight * WINDOW_RATIO));
+        this.protectedMax = (long) ((this.maxWeight - windowMax) * PROTECTED_RATIO);
+        this.lanes = (Lane<K, V>[]) new Lane<?, ?>[]{new Lane<K, V>(WINDOW), new Lane<K, V>(PROBATION), new Lane<K, V>(PROTECTED)};
+        this.sketch = new FrequencySketch(Math.max(64, expectedEntries));
+    }
+
+    /** 命中且未过期返回值；过期条目顺带移除 */
+    public synchronized V get(K key) {
+        int h = spread(key.hashCode());
+        sketch.increment(h);
+        Node<K, V> n = data.get(key);
+        if (n == null) { misses++; return null; }
+        if (n.expireAt <= System.currentTimeMillis()) {
+            remove(n);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        onAccess(n);
+        return n.value;
+    }
+
+    /**
+     * 写入。weight 为估算字节数，expireAt 为绝对过期时刻（毫秒）。
+     * 单个条目超过总预算时直接拒绝，不影响已有内容。
+     */
+    public synchronized void put(K key, V value, long weight, long expireAt) {
+        weight = Math.max(1, weight);
+        Node<K, V> old = data.get(key);
+        if (weight > maxWeight) {
+            rejections++;
+            if (old != null) remove(old);
+            return;
+        }
+        if (old != null) {
+            lanes[old.lane].weight += weight - old.weight;
+            old.value = value;
+            old.weight = weight;
+            old.expireAt = expireAt;
+            onAccess(old);
+        } else {
+            Node<K, V> n = new Node<>(key, value, weight, expireAt, spread(key.hashCode()));
+            data.put(key, n);
+            lanes[WINDOW].addLast(n);
+        }
+        evict();
+    }
+
+    public synchronized void invalidate(K key) {
+        Node<K, V> n = data.get(key);
+        if (n != null) remove(n);
+    }
+
+    public synchronized int size() { return data.size(); }
+
+    public synchronized long weightedSize() {
+        return lanes[WINDOW].weight + lanes[PROBATION].weight + lanes[PROTECTED].weight;
+    }
+
+    public synchronized String stats() {
+        long req = hits + misses;
+        return String.format(Locale.US,
+                "%s: entries=%d size=%.1f/%.1fMB hit=%d miss=%d hitRate=%.1f%% evict=%d(%.1fMB) expired=%d rejected=%d",
+                name, data.size(), weightedSize() / 1048576.0, maxWeight / 1048576.0,
+                hits, misses, req == 0 ? 0.0 : 100.0 * hits / req,
+                evictions, evictedWeight / 1048576.0, expirations, rejections);
+    }
+
+    // ====== 内部：访问与淘汰 ======
+
+    private void onAccess(Node<K, V> n) {
+        if (n.lane == PROBATION) {
+            // 试用段再次命中 → 升入保护段；保护段超额时把最旧的降回试用段
+            lanes[PROBATION].unlink(n);
+            lanes[PROTECTED].addLast(n);
+            while (lanes[PROTECTED].weight > protectedMax && lanes[PROTECTED].head != n) {
+                Node<K, V> demote = lanes[PROTECTED].head;
+                lanes[PROTECTED].unlink(demote);
+                lanes[PROBATION].addLast(demote);
+            }
+        } else {
+            lanes[n.lane].moveToLast(n);
+        }
+    }
+
+    private void evict() {
+        // 窗口溢出的条目作为候选进入主区试用段尾部
+        Node<K, V> candidate = null;
+        while (lanes[WINDOW].weight > windowMax && lanes[WINDOW].head != null) {
+            Node<K, V> n = lanes[WINDOW].head;
+            lanes[WINDOW].unlink(n);
+            lanes[PROBATION].addLast(n);
+            if (candidate == null) candidate = n;
+        }
+        if (weightedSize() <= maxWeight) return;
+
+        purgeExpired();
+
+        // 超预算：候选与主区最旧的受害者比频率，低者出局；频率相同时保留老住户（抗扫描）
+        while (weightedSize() > maxWeight) {
+            Node<K, V> victim = lanes[PROBATION].head;
+            if (victim == null) victim = lanes[PROTECTED].head;
+            if (victim == null) victim = lanes[WINDOW].head;
+            if (victim == null) break;
+
+            if (candidate != null && candidate != victim && candidate.lane == PROBATION) {
+                if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                    evictNode(victim);
+                } else {
+                    Node<K, V> next = candidate.next;
+                    evictNode(candidate);
+                    candidate = next;
+                }
+            } else {
+                if (victim == candidate) candidate = null;
+                evictNode(victim);
+            }
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Lane<K, V> lane : lanes) {
+            for (Node<K, V> n = lane.head; n != null; ) {
+                Node<K, V> next = n.next;
+                if (n.expireAt <= now) {
+                    remove(n);
+                    expirations++;
+                }
+                n = next;
+            }
+        }
+    }
+
+    private void evictNode(Node<K, V> n) {
+        remove(n);
+        evictions++;
+        evictedWeight += n.weight;
+    }
+
+    private void remove(Node<K, V> n) {
+        lanes[n.lane].unlink(n);
+        data.remove(n.key);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    // ====== 内部结构 ======
+
+    private static final class Node<K, V> {
+        final K key;
+        final int hash;
+        V value;
+        long weight, expireAt;
+        int lane;
+        Node<K, V> prev, next;
+
+        Node(K key, V value, long weight, long expireAt, int hash) {
+            this.key = key; this.value = value; this.weight = weight; this.expireAt = expireAt; this.hash = hash;
+        }
+    }
+
+    /** 侵入式双向链表：head 最旧，tail 最新 */
+    private static final class Lane<K, V> {
+        final int id;
+        Node<K, V> head, tail;
+        long weight;
+
+        Lane(int id) { this.id = id; }
+
+        void addLast(Node<K, V> n) {
+            n.lane = id;
+            n.prev = tail; n.next = null;
+            if (tail == null) head = n; else tail.next = n;
+            tail = n;
+            weight += n.weight;
+        }
+
+        void unlink(Node<K, V> n) {
+            if (n.prev == null) head = n.next; else n.prev.next = n.next;
+            if (n.next == null) tail = n.prev; else n.next.prev = n.prev;
+            n.prev = n.next = null;
+            weight -= n.weight;
+        }
+
+        void moveToLast(Node<K, V> n) {
+            if (tail == n) return;
+            unlink(n);
+            addLast(n);
+        }
+    }
+
+    /**
+     * Count-Min 草图：4 行 × 4bit 计数器（每个 long 存 16 个），上限 15。
+     * 累计增量达到 10×宽度 时所有计数器减半，让历史热度随时间衰减。
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expected) {
+            int width = Integer.highestOneBit(Math.max(16, expected - 1) << 1);
+            table = new long[width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        void increment(int h) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int idx = index(h, i), shift = offset(h, i);
+                long cnt = (table[idx] >>> shift) & 0xfL;
+                if (cnt < 15) {
+                    table[idx] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(int h) {
+            int f = 15;
+            for (int i = 0; i < 4; i++) {
+                f = Math.min(f, (int) ((table[index(h, i)] >>> offset(h, i)) & 0xfL));
+            }
+            return f;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & RESET_MASK;
+            additions /= 2;
+        }
+
+        private int index(int h, int i) {
+            long x = (h + SEEDS[i]) * SEEDS[i];
+            return (int) (x >>> 40) & mask;
+        }
+
+        // 每行用自己的 16 个 4bit 槽中的一组（行 i 固定落在 [i*4, i*4+4) 号槽里，按 hash 选其一）
+        private int offset(int h, int i) {
+            return ((i << 2) + ((h >>> (i << 3)) & 3)) << 2;
+        }
+    }
+}
@@ -3,12 +3,6 @@ package com.kabu.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.*;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
 
 import java.io.*;
 import java.net.CookieManager;
@@ -77,6 +71,7 @@ public class TrendScreener {
     // Excel 文件路径
     static final String EXCEL_FILE = "202310.xlsx";
     static final String OUTPUT_CSV = "candidates";
+    static final boolean WRITE_COLUMNAR = Boolean.parseBoolean(System.getenv().getOrDefault("WRITE_COLUMNAR", "false")); // 打开则同时写二进制列式 candidates_日期.kbc（含 ADX/DI/ATR），数值按 CSV 精度取整
 
     // JPX 证券代码列表 CSV（未使用时可忽略）
     static final String JPX_CSV_URL = System.getenv().getOrDefault(
@@ -99,6 +94,11 @@ public class TrendScreener {
 
     static volatile boolean USE_QUERY2 = true;
 
+    // 日线缓存：预筛与扫描、以及同进程里的回测（RankTsvBacktester 经 fetchChart1yDaily）共用，同一代码只拉一次；
+    // 过期时刻与 TrendSellAdvisor 相同（盘中短缓存，收盘定稿后到下个交易日开盘）
+    static final long CHART_CACHE_BYTES = 256L << 20;
+    static final TinyLfuCache<String, Chart> CHART_CACHE = new TinyLfuCache<>("screen-chart", CHART_CACHE_BYTES, 4096);
+
     // ====== Yahoo 并发与节流（新）======
     static final int  YH_MAX_PARALLEL = 6;     // 并发上限（4~8 较稳）
     static final long YH_MIN_GAP_MS   = 150L;  // 任意两次请求的最小全局间隔
@@ -155,26 +155,16 @@ public class TrendScreener {
     static final java.util.List<String> EX_FAIL = new java.util.ArrayList<>();
 
     public static void main(String[] args) throws Exception {
-        // 1) 从 Excel 文件加载股票代码
-        List<String> universe = loadUniverseFromExcel();
-        universe = universe.stream().map(TrendScreener::ensureTokyoSymbol).collect(Collectors.toList());
-        System.out.println("从 Excel 加载股票数量: " + universe.size());
-
-        // 2) 预筛（并发）：价格/流动性快速过滤
-        List<String> tickers = prefilterUsingStooq(universe);
-        System.out.println("预筛选后剩余: " + tickers.size() + " 支股票");
-
-        // 3) 并发跑全市场
-        java.util.List<CsvRow> rows = scanAllParallel(tickers);
-
-        rows.sort(Comparator
-                .comparing((CsvRow r) -> r.signal.isEmpty())
-                .thenComparingDouble(r -> r.dist52w));
+        List<CsvRow> rows = screen(LocalDate.now());
         List<CsvRow> signaled = rows.stream()
                 .filter(r -> r.signal != null && !r.signal.isEmpty()&&!r.signal.equals("SETUP")) // 只要有信号
                 .collect(Collectors.toList());
         int topN = Math.min(50, signaled.size());
 
+        // 抓新闻打分并按本地细则排名（写 candidates_ranked.tsv）；RANK_WITH_GPT 只决定是否另外发给模型
+        List<GptRanker.Ranked> ranked = GptRanker.rankOnlySignaled(signaled, topN);
+        System.out.println("排名 Top " + ranked.size() + " -> " + GptRanker.RANKED_TSV.toAbsolutePath());
+
 //        GptRanker.rankOnlySignaled(signaled, topN);
 //        try {
 //
@@ -188,79 +178,56 @@ public class TrendScreener {
 //        } catch (Exception e) {
 //            System.err.println("GPT 排名失败: " + e.getMessage());
 //        }
-        writeCsv(rows, OUTPUT_CSV);
-        System.out.println("完成 -> " + OUTPUT_CSV + " (总行数=" + rows.size() + ")");
     }
 
-    // ===== 从 Excel 读取股票代码 =====
-    static List<String> loadUniverseFromExcel() {
-        final int CODE_COL  = 1;
-        final int NAME_COL  = 2;
-        final int MKT_COL   = 3;
-        final int TOPIX_COL = 9;
-
-        List<String> symbols = new ArrayList<>();
-        int total = 0, kept = 0;
-        int dropNon4 = 0, dropNotDomestic = 0, dropEtfReit = 0, dropNoTopix = 0;
-
-        try (InputStream is = TrendScreener.class.getClassLoader().getResourceAsStream(EXCEL_FILE)) {
-            if (is == null) {
-                System.err.println("资源 202310.xls 未找到（请放到 src/main/resources/ 下）");
-                return Arrays.asList("5830","1893","8616","5079","6857","5334","5832","8306","6855","5851","8593","1926","8058","6590","4507");
-            }
-            try (Workbook wb = WorkbookFactory.create(is)) {
-                Sheet sheet = wb.getSheetAt(0);
-
-                for (int i = 1; i <= sheet.getLastRowNum(); i++) { // 跳过表头
-                    Row row = sheet.getRow(i);
-                    if (row == null) continue;
-                    total++;
-
-                    String code = getCellAsString(row.getCell(CODE_COL)).trim();
-                    String name = getCellAsString(row.getCell(NAME_COL)).trim();
-                    String mkt  = getCellAsString(row.getCell(MKT_COL)).trim();
-                    String topix= getCellAsString(row.getCell(TOPIX_COL)).trim();
-
-//                    if (!code.matches("\\d{4}")) { dropNon4++; continue; }
-                    if (!mkt.contains("内国株式")) { dropNotDomestic++; continue; }
-
-                    String nLower = name.toLowerCase(Locale.ROOT);
-                    if (nLower.contains("etf") || name.contains("上場投信") || name.contains("投資法人") || name.contains("リート")
-                            || nLower.contains("reit") || name.contains("優先") || name.contains("受益証券")) {
-                        dropEtfReit++; continue;
-                    }
-
-                    //if (topix.isEmpty() || "-".equals(topix)) { dropNoTopix++; continue; }
+    /**
+     * 一次完整扫描：股票池 -> 预筛 -> 全市场指标/信号 -> 市场宽度 -> 写 candidates_{day}.csv/.kbc。
+     * 返回排好序的全部行（有信号的在前），供同进程的后续阶段（DailyPipeline）直接使用。
+     */
+    static List<CsvRow> screen(LocalDate day) throws Exception {
+        // 1) 从股票池索引加载股票代码
+        List<String> universe = loadUniverse();
+        universe = universe.stream().map(TrendScreener::ensureTokyoSymbol).collect(Collectors.toList());
+        System.out.println("股票池数量: " + universe.size());
 
-                    symbols.add(code);
-                    kept++;
-                }
-            }
+        // 市场环境：与 TrendSellAdvisor 共用同一份基准序列（进程内只拉一次），和市场宽度一起打印
+        MarketRegime regime = MarketRegime.shared();
 
-            symbols = symbols.stream().distinct().sorted().collect(Collectors.toList());
+        // 2) 预筛（并发）：价格/流动性快速过滤
+        List<String> tickers = prefilterUsingStooq(universe);
+        System.out.println("预筛选后剩余: " + tickers.size() + " 支股票");
 
-            System.out.printf(
-                    Locale.ROOT,
-                    "Excel 总行=%d, 选中=%d, 丢弃: 非4位=%d, 非内国株=%d, ETF/REIT等=%d, 无TOPIX=%d%n",
-                    total, kept, dropNon4, dropNotDomestic, dropEtfReit, dropNoTopix
-            );
+        // 3) 并发跑全市场
+        java.util.List<CsvRow> rows = scanAllParallel(tickers);
 
-        } catch (Exception e) {
-            System.err.println("读取 Excel 文件出错: " + e.getMessage());
-            e.printStackTrace();
-            return Arrays.asList("6758","8035","7203","9432","9984","6861","4502");
+        // 扫描副产品：市场宽度（每天一行，供 TrendSellAdvisor 判定 MarketOK）
+        try {
+            MarketBreadth.Snapshot b = MarketBreadth.writeDaily(MarketBreadth.BREADTH_TSV);
+            if (b != null) {
+                System.out.printf(Locale.US, "市场宽度 %s: 股票=%d 站上50D=%.1f%% 站上200D=%.1f%% 新高-新低=%d 涨/跌=%d/%d 基准=%s%n",
+                        b.date, b.stocks, b.above50Pct, b.above200Pct, b.netHighs(), b.advancers, b.decliners,
+                        regime.tailwind() ? "顺风" : "逆风");
+            }
+        } catch (IOException e) {
+            System.err.println("写市场宽度失败: " + e.getMessage());
         }
-        return symbols;
+
+        rows.sort(Comparator
+                .comparing((CsvRow r) -> r.signal.isEmpty())
+                .thenComparingDouble(r -> r.dist52w));
+        writeCsv(rows, OUTPUT_CSV, day);
+        System.out.println("完成 -> " + OUTPUT_CSV + "_" + day + ".csv (总行数=" + rows.size() + ")");
+        System.out.println(CHART_CACHE.stats());
+        return rows;
     }
 
-    private static String getCellAsString(Cell cell) {
-        if (cell == null) return "";
-        switch (cell.getCellType()) {
-            case STRING:  return cell.getStringCellValue();
-            case NUMERIC: return String.valueOf((int)cell.getNumericCellValue());
-            case BOOLEAN: return String.valueOf(cell.getBooleanCellValue());
-            default:      return "";
+    // ===== 股票池：来自 UniverseIndex（202310.xlsx 的二进制索引，源文件变化时才重建） =====
+    static List<String> loadUniverse() {
+        List<String> symbols = UniverseIndex.shared().screenSymbols();
+        if (symbols.isEmpty()) {
+            return Arrays.asList("5830","1893","8616","5079","6857","5334","5832","8306","6855","5851","8593","1926","8058","6590","4507");
         }
+        return symbols;
     }
 
 
@@ -269,6 +236,16 @@ public class TrendScreener {
         catch (IOException e) { return fetchChartFromStooq(symbol); }
     }
 
+    // 预筛已拉过的代码，扫描/回测时直接命中缓存
+    static Chart fetchChartFromYahoo(String symbol) throws IOException, InterruptedException {
+        String key = "chart:" + symbol;
+        Chart hit = CHART_CACHE.get(key);
+        if (hit != null) return hit;
+        Chart c = fetchChartFromYahooUncached(symbol);
+        CHART_CACHE.put(key, c, 64L + (long) c.bars.size() * TrendSellAdvisor.BAR_BYTES, TrendSellAdvisor.expiryFor(System.currentTimeMillis()));
+        return c;
+    }
+
     // ===== 并发预筛（价格+流动性粗筛）=====
     static List<String> prefilterUsingStooq(List<String> symbols) throws IOException, InterruptedException {
         java.util.List<String> keep = Collections.synchronizedList(new ArrayList<>());
@@ -282,6 +259,7 @@ public class TrendScreener {
                 String sym = ensureTokyoSymbol(raw);
                 try {
                     Chart c = fetchChartFromYahoo(sym);
+                    observeBreadth(c.bars); // 市场宽度：整个股票池都统计，在长度/价格/流动性过滤之前
                     if (c.bars.size() < 30) return null;
 
                     Bar last = c.bars.get(c.bars.size() - 1);
@@ -364,7 +342,7 @@ public class TrendScreener {
         try{ return Double.parseDouble(s);}catch(Exception e){return Double.NaN;}
     }
 
-    static Chart fetchChartFromYahoo(String symbol) throws IOException, InterruptedException {
+    private static Chart fetchChartFromYahooUncached(String symbol) throws IOException, InterruptedException {
         String url = yahooBase() + "/v8/finance/chart/" + symbol + "?range=1y&interval=1d";
         JsonNode root = getJson(url, symbol);
         JsonNode err = root.path("chart").path("error");
@@ -649,7 +627,12 @@ public class TrendScreener {
     }
 
     static void writeCsv(List<CsvRow> rows, String path) throws IOException {
-        path=path+"_"+ LocalDate.now()+".csv";
+        writeCsv(rows, path, LocalDate.now());
+    }
+
+    static void writeCsv(List<CsvRow> rows, String path, LocalDate day) throws IOException {
+        String base = path + "_" + day;
+        path = base + ".csv";
         try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(
                 new FileOutputStream(path), "UTF-8"))) {
             pw.println("Symbol,Name,Date,Close,SMA10,SMA20,SMA50,52WHigh,Dist52W,VolMA20,TurnoverMA20,Trigger20H,TodayVol,Signal");
@@ -660,6 +643,18 @@ public class TrendScreener {
                         r.high52w, r.dist52w, r.volMA20, r.turnMA20, r.trigger20h, r.todayVol, r.signal);
             }
         }
+        if (WRITE_COLUMNAR) {
+            try {
+                CandidateColumnarFile.write(rows, day, java.nio.file.Paths.get(base + CandidateColumnarFile.SUFFIX));
+            } catch (IOException e) {
+                System.err.println("写列式文件失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /** 按 writeCsv 对应列的格式化精度取整：其它形式交出的数值与读回 CSV 得到的完全相同 */
+    static double csvRound(double v, int places) {
+        return Double.parseDouble(String.format(Locale.US, "%." + places + "f", v));
     }
 
     static String csvSafe(String s) {
@@ -1114,7 +1109,7 @@ public class TrendScreener {
 
     static CsvRow processOneSymbol(String symbol) {
         try {
-            String name = symbol;
+            String name = UniverseIndex.shared().nameOf(symbol);
             Chart chart = fetchChart1yDaily(symbol);
             if (chart.bars.size() < 120) return null;
 
@@ -1208,6 +1203,19 @@ public class TrendScreener {
             return null;
         }
     }
+    static void observeBreadth(List<Bar> bars) {
+        int n = bars.size();
+        if (n < 2) return;
+        double[] c = new double[n], h = new double[n], l = new double[n];
+        long[] v = new long[n];
+        for (int i = 0; i < n; i++) {
+            Bar b = bars.get(i);
+            c[i] = b.close; h[i] = b.high; l[i] = b.low; v[i] = b.volume;
+        }
+        LocalDate day = Instant.ofEpochSecond(bars.get(n - 1).ts).atZone(JP).toLocalDate();
+        MarketBreadth.observe(day, c, h, l, v);
+    }
+
     // 放在 TrendScreener 里（或单独 Utils 类）
     public static class DmiAtr {
         public double adx, diPlus, diMinus, atr, atrPct;
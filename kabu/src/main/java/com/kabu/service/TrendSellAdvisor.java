@@ -13,20 +13,23 @@ import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public class TrendSellAdvisor {
 
     // ====== 基本配置 ======
-    static final String INPUT_EXCEL  = "positions.xlsx";
+    static final String INPUT_EXCEL  = "positions.xlsx";   // 仅首次迁移 / PositionJournal IMPORT 时读取
+    static final boolean JOURNAL_AUTO_SELL = false; // 卖出分配只是建议；确认按建议成交后才记入持仓流水（或命令行加 RECORD）
     static final String OUTPUT_CSV   = "decisions";
     static final ZoneId JP           = ZoneId.of("Asia/Tokyo");
     static final boolean USE_MARKET_TAILWIND = true;
+    static final boolean USE_MARKET_BREADTH  = true;  // MarketOK 另需宽度健康（读 TrendScreener 写的 market_breadth.tsv）
 
     // 网络与解析
-    static final long RATE_LIMIT_MS = 200;
+    static final long RATE_LIMIT_MS = 200;   // 任意两次 Yahoo 请求的最小全局间隔
+    static final int  MAX_PARALLEL  = 4;     // 评估线程数（在途请求另受共享的 TrendScreener.YH_PERMITS 限制）
     static final int  MAX_RETRY     = 4;
     static final String UA = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/123.0 Safari/537.36";
     static volatile boolean USE_QUERY2 = true;
@@ -62,10 +65,10 @@ public class TrendSellAdvisor {
     static final int     TIME_TP_DAYS = 45;        // 自最近加仓起≥45个交易日
     static final int     TIME_TP_LOOKBACK = 20;    // 近20日未创新高
     static final int     TIME_TP_SELL_PCT = 25;    // 卖出25%
-    // 动量衰减是否需要“连2日确认”
+    // 动量衰减是否需要“窗口内多次确认”
     static final boolean MOM_USE_CONFIRM = true;
-    static final int MOM_CONFIRM_WINDOW = 7;   // 最近3天窗口（含今天）
-    static final int MOM_CONFIRM_MIN_HITS = 4; // 至少出现2次才触发
+    static final int MOM_CONFIRM_WINDOW = 7;   // 最近7天窗口（含今天）
+    static final int MOM_CONFIRM_MIN_HITS = 4; // 窗口内至少出现4次才触发
 
     // 固定峰值回撤止盈（自最近买入后的最高点回撤 5%）
     static final boolean ENABLE_PEAK_DRAWDOWN_5PCT = true;
@@ -75,51 +78,320 @@ public class TrendSellAdvisor {
     // 跳空/暴跌快速风控参数
     static final double GAP_20D_MIN_PCT = 0.02;   // 相对20D向下跳空 ≥ 2%
 
-    static final OkHttpClient http = new OkHttpClient.Builder()
-            .retryOnConnectionFailure(true)
-            .callTimeout(20, TimeUnit.SECONDS)
-            .build();
+    // 盘中盯盘（WATCH 模式）
+    static final int       WATCH_INTERVAL_SEC = 5;                 // 轮询间隔（可由命令行覆盖；持仓多时按节流自动放宽）
+    static final LocalTime SESSION_CLOSE      = LocalTime.of(15, 30);
+
     static final ObjectMapper om = new ObjectMapper();
-    static long lastCallAt = 0;
+    // Yahoo 会话与节流和 TrendScreener 共用：同一个连接池、并发信号量与“上次请求时刻”。
+    // 同进程（DailyPipeline）里与扫描/回测同时请求时，合起来也不超过 TrendScreener 的并发上限；
+    // 每次请求距任何一方的上一次至少 RATE_LIMIT_MS（扫描一侧仍按 YH_MIN_GAP_MS）
+    static final OkHttpClient http         = TrendScreener.http;
+    static final Semaphore    PERMITS      = TrendScreener.YH_PERMITS;
+    static final AtomicLong   LAST_CALL_AT = TrendScreener.YH_LAST_CALL_AT;
+
+    // 内存缓存（多线程共享，按字节预算限容；常驻进程也不会无限增长）
+    static final long CACHE_TTL_MS      = TimeUnit.MINUTES.toMillis(15); // 盘中/收盘结算前的有效期
+    static final long CHART_CACHE_BYTES = 48L << 20;
+    static final long JSON_CACHE_BYTES  = 16L << 20;
+    static final int  JSON_WEIGHT_MULT  = 4;   // JsonNode 树的内存约为响应字节数的数倍
+    static final int  BAR_BYTES         = 72;  // Bar 对象 + 列表槽位的估算
+    static final LocalTime SESSION_OPEN   = LocalTime.of(9, 0);
+    static final LocalTime SESSION_SETTLE = LocalTime.of(16, 0); // 15:30 收盘后留出日线定稿时间
+    static final TinyLfuCache<String, JsonNode> JSON_CACHE  = new TinyLfuCache<>("json", JSON_CACHE_BYTES, 512);
+    static final TinyLfuCache<String, Chart>    CHART_CACHE = new TinyLfuCache<>("chart", CHART_CACHE_BYTES, 1024);
+
+    /**
+     * 按交易时段决定过期时刻：盘中（含收盘后结算期）日线还会变，只缓存 CACHE_TTL_MS；
+     * 休市时段日线已定稿，缓存到下一个交易日开盘。节假日未知，按工作日处理（只是少缓存一会儿）。
+     */
+    static long expiryFor(long nowMs) {
+        ZonedDateTime now = Instant.ofEpochMilli(nowMs).atZone(JP);
+        boolean weekday = now.getDayOfWeek() != DayOfWeek.SATURDAY && now.getDayOfWeek() != DayOfWeek.SUNDAY;
+        LocalTime t = now.toLocalTime();
+        if (weekday && !t.isBefore(SESSION_OPEN) && t.isBefore(SESSION_SETTLE)) return nowMs + CACHE_TTL_MS;
+
+        LocalDate d = now.toLocalDate();
+        if (!weekday || !t.isBefore(SESSION_SETTLE)) {
+            do { d = d.plusDays(1); }
+            while (d.getDayOfWeek() == DayOfWeek.SATURDAY || d.getDayOfWeek() == DayOfWeek.SUNDAY);
+        }
+        return d.atTime(SESSION_OPEN).atZone(JP).toInstant().toEpochMilli();
+    }
 
-    // 简单内存缓存
-    static final long CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(15);
-    static final Map<String, CacheEntry<JsonNode>> JSON_CACHE = new HashMap<>();
-    static final Map<String, CacheEntry<Chart>>    CHART_CACHE = new HashMap<>();
-    static class CacheEntry<T> { final long ts = System.currentTimeMillis(); final T val; CacheEntry(T v){ this.val=v; } boolean fresh(){ return System.currentTimeMillis()-ts <= CACHE_TTL_MS; } }
+    static long weightOf(Chart c) { return 64L + (long) c.bars.size() * BAR_BYTES; }
 
     // ====== 主流程 ======
     public static void main(String[] args) throws Exception {
-        List<Position> positions = loadPositionsFromExcel(INPUT_EXCEL);
-        if (positions.isEmpty()) {
-            System.err.println("Excel 内未读取到任何持仓；请检查列名：股票编号 / 买入价 / 买入时间 / 买入股数 （可选：层级）");
+        PositionJournal journal = openJournal();
+        if (journal == null) return;
+        List<Position> positions = journal.positions();
+
+        // 用法: java TrendSellAdvisor [WATCH [间隔秒] | TIMELINE | RECORD]
+        //   RECORD: 已按本次建议下单，把卖出分配记入持仓流水
+        //   环境变量 SELL_RULES="TIME_TP=off,LATE_PULLBACK=15"：关/开规则或改优先级（见 SellRules.compile）
+        if (args.length > 0 && "WATCH".equalsIgnoreCase(args[0])) {
+            int interval = args.length > 1 ? Integer.parseInt(args[1]) : WATCH_INTERVAL_SEC;
+            watch(positions, interval);
+            return;
+        }
+        if (args.length > 0 && "TIMELINE".equalsIgnoreCase(args[0])) {
+            timelines(positions);
             return;
         }
-        System.out.println("持仓合并后股票数: " + positions.size());
 
-        List<DecisionRow> results = new ArrayList<>();
+        boolean record = JOURNAL_AUTO_SELL || (args.length > 0 && "RECORD".equalsIgnoreCase(args[0]));
+        advise(journal, record);
+    }
+
+    /** 打开持仓流水（首次从 Excel 导入）；没有持仓时提示并返回 null */
+    static PositionJournal openJournal() throws Exception {
+        PositionJournal journal = PositionJournal.openOrImport(PositionJournal.JOURNAL_PATH, INPUT_EXCEL);
+        if (journal.positions().isEmpty()) {
+            System.err.println("持仓流水为空；请用 PositionJournal IMPORT 导入 Excel（列名：股票编号 / 买入价 / 买入时间 / 买入股数 （可选：层级））");
+            return null;
+        }
+        System.out.println(journal.describe());
+        return journal;
+    }
+
+    /** 日常一次评估：全部持仓出决策并写 OUTPUT_CSV（DailyPipeline 同进程直接调用）；record 时卖出分配记入流水 */
+    static List<DecisionRow> advise(PositionJournal journal, boolean record) throws Exception {
+        List<DecisionRow> results = evaluateAll(journal.positions(), record ? journal : null);
+
+        writeCsv(results, OUTPUT_CSV);
+        System.out.println("完成 -> " + OUTPUT_CSV + " (总行数=" + results.size() + ")");
+        System.out.println(CHART_CACHE.stats());
+        System.out.println(JSON_CACHE.stats());
+        return results;
+    }
+
+    // 并发评估：总耗时由全局节流决定；结果按输入顺序收集，输出与串行一致
+    static List<DecisionRow> evaluateAll(List<Position> positions, PositionJournal journal) throws InterruptedException {
+        int threads = Math.max(1, Math.min(MAX_PARALLEL, positions.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<DecisionRow>> futures = new ArrayList<>(positions.size());
+            for (Position pos : positions) futures.add(pool.submit(() -> evaluate(pos, journal)));
+
+            List<DecisionRow> results = new ArrayList<>(positions.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    Position pos = positions.get(i);
+                    String msg = String.valueOf(ex.getCause());
+                    System.err.println("处理失败 " + pos.symbol + " -> " + msg);
+                    results.add(DecisionRow.err(ensureTokyoSymbol(pos.symbol), pos, msg));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // journal 非空时，卖出分配按最后一根 K 线的日期与收盘价记入流水（先生成输出行，再扣减持仓）
+    static DecisionRow evaluate(Position pos, PositionJournal journal) {
+        String symbol = ensureTokyoSymbol(pos.symbol);
+        try {
+            Chart chart = fetchChart1yDaily(symbol);
+            if (chart.bars.size() < 60) return DecisionRow.na(symbol, pos);
+            Decision d = decide(pos, chart.bars);
+            if (needsSell(d.action)) {
+                d.sellPlan = planSellLots(pos, d.action);
+            }
+            DecisionRow row = DecisionRow.of(symbol, pos, chart, d);
+            if (journal != null && !d.sellPlan.isEmpty()) {
+                Bar last = chart.bars.get(chart.bars.size() - 1);
+                LocalDate day = Instant.ofEpochSecond(last.ts).atZone(JP).toLocalDate();
+                if (journal.sell(pos, d.sellPlan, day, last.close, d.action, PositionJournal.SRC_AUTO)) {
+                    System.out.println("已记入持仓流水: " + symbol + " " + d.action + " " + row.sellPlan);
+                }
+            }
+            return row;
+        } catch (Exception ex) {
+            System.err.println("处理失败 " + symbol + " -> " + ex.getMessage());
+            return DecisionRow.err(symbol, pos, ex.getMessage());
+        }
+    }
+
+    // ====== 决策回放（TIMELINE）======
+    // 每个持仓从建仓日起逐日回放一次规则，写 timeline_代码_日期.tsv，并打印各规则首次触发的日期
+    static void timelines(List<Position> positions) {
         for (Position pos : positions) {
             String symbol = ensureTokyoSymbol(pos.symbol);
             try {
                 Chart chart = fetchChart1yDaily(symbol);
-                if (chart.bars.size() < 60) {
-                    results.add(DecisionRow.na(symbol, pos));
+                if (chart.bars.size() < 60) { System.out.println(symbol + " 历史不足，跳过"); continue; }
+                SellRules.Timeline tl = SellRules.DEFAULT.timeline(pos, chart.bars, SellRules.DEFAULT.prepare(chart.bars));
+                String path = "timeline_" + symbol + "_" + LocalDate.now() + ".tsv";
+                writeTimeline(tl, path);
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, Integer> e : tl.firstFired().entrySet()) {
+                    if (sb.length() > 0) sb.append(", ");
+                    sb.append(e.getKey()).append('@').append(fmtDay(chart.bars.get(e.getValue()).ts));
+                }
+                System.out.println(symbol + " 回放 " + tl.days.length + " 天 -> " + path
+                        + (sb.length() == 0 ? "（无规则触发）" : "  首次触发: " + sb));
+            } catch (Exception ex) {
+                System.err.println("回放失败 " + symbol + " -> " + ex.getMessage());
+            }
+        }
+    }
+
+    static void writeTimeline(SellRules.Timeline tl, String path) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8))) {
+            pw.println("Date\tClose\tLots\tAction\tRule\tPnL%\tReason");
+            for (int i = 0; i < tl.days.length; i++) {
+                Bar b = tl.bars.get(tl.from + i);
+                Decision d = tl.days[i];
+                pw.printf(Locale.US, "%s\t%.2f\t%d\t%s\t%s\t%.2f\t%s%n",
+                        fmtDay(b.ts), b.close, tl.lotsHeld[i], d.action, nvl(d.rule),
+                        d.refs.getOrDefault("PnL%", Double.NaN), String.join(" | ", d.reasons));
+            }
+        }
+    }
+
+    static String fmtDay(long epochSec) { return Instant.ofEpochSecond(epochSec).atZone(JP).toLocalDate().toString(); }
+
+    // ====== 盘中盯盘（WATCH）======
+    // 日线历史只在开盘后取一次；之后每个 tick 只拉当日 K 线替换最后一根，
+    // 指标只刷新最后一格，decide 的其它回看都是 O(窗口)。只输出动作/理由有变化的持仓。
+    static final class Live {
+        final Position pos;
+        final String symbol;
+        List<Bar> bars;          // 历史 + 当日（最后一根随 tick 替换）
+        Indicators ind;
+        LocalDate day;           // 当日 K 线所属日期；换日时重建
+        String lastKey;          // 上次输出的 动作|理由
+
+        Live(Position pos) { this.pos = pos; this.symbol = ensureTokyoSymbol(pos.symbol); }
+    }
+
+    static void watch(List<Position> positions, int intervalSec) throws InterruptedException {
+        List<Live> lives = new ArrayList<>();
+        for (Position p : positions) lives.add(new Live(p));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_PARALLEL, lives.size())));
+        int requested = intervalSec;
+        intervalSec = watchInterval(intervalSec, lives.size() + 1);   // 每个持仓一次 + 基准一次
+        System.out.println("盯盘开始：持仓 " + lives.size() + " 只，间隔 " + intervalSec + "s"
+                + (intervalSec > requested ? "（请求 " + requested + "s，按节流每轮至少需要这么久）" : "") + "（Ctrl+C 结束）");
+        try {
+            while (true) {
+                long waitMs = msUntilSession(System.currentTimeMillis());
+                if (waitMs > 0) {
+                    System.out.println("休市中，" + (waitMs / 60000) + " 分钟后继续");
+                    Thread.sleep(waitMs);
                     continue;
                 }
-                Decision d = decide(pos, chart.bars);
-                if (needsSell(d.action)) {
-                    d.sellPlan = planSellLots(pos, d.action);
+                long t0 = System.currentTimeMillis();
+                refreshRegime();
+                List<Future<String>> fs = new ArrayList<>(lives.size());
+                for (Live lv : lives) fs.add(pool.submit(() -> tick(lv)));
+                for (Future<String> f : fs) {
+                    try {
+                        String line = f.get();
+                        if (line != null) System.out.println(line);
+                    } catch (ExecutionException ex) {
+                        System.err.println("盯盘失败 -> " + ex.getCause());
+                    }
                 }
-                results.add(DecisionRow.of(symbol, pos, chart, d));
-                Thread.sleep(160);
-            } catch (Exception ex) {
-                System.err.println("处理失败 " + symbol + " -> " + ex.getMessage());
-                results.add(DecisionRow.err(symbol, pos, ex.getMessage()));
+                long sleep = intervalSec * 1000L - (System.currentTimeMillis() - t0);
+                if (sleep > 0) Thread.sleep(sleep);
             }
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        writeCsv(results, OUTPUT_CSV);
-        System.out.println("完成 -> " + OUTPUT_CSV + " (总行数=" + results.size() + ")");
+    /**
+     * 每个 tick 的请求都要排全局节流（RATE_LIMIT_MS 一次），持仓多时一轮本身就超过请求的间隔，
+     * 循环会越拖越晚；按一轮的请求数把间隔放宽到节流下拉完一轮所需的时间（留 25% 余量给重试）。
+     */
+    static int watchInterval(int intervalSec, int requestsPerTick) {
+        long needMs = requestsPerTick * RATE_LIMIT_MS * 5 / 4;
+        return (int) Math.max(intervalSec, (needMs + 999) / 1000);
+    }
+
+    // 基准指数的当日 K 线也随 tick 刷新：同一天替换最后一格，新的一天追加
+    static void refreshRegime() {
+        MarketRegime mr = MarketRegime.shared();
+        if (mr.size() == 0) return;
+        try {
+            Bar b = fetchTodayBar(mr.symbol);
+            if (b == null) return;
+            if (mr.isSameDay(b.ts)) mr.replaceLast(b.close); else mr.append(b.ts, b.close);
+        } catch (Exception e) {
+            System.err.println("基准刷新失败 -> " + e.getMessage());
+        }
+    }
+
+    /** 一个持仓的一次 tick；决策有变化时返回输出行，否则返回 null */
+    static String tick(Live lv) throws Exception {
+        Bar today = fetchTodayBar(lv.symbol);
+        if (today == null) return null;
+        LocalDate day = Instant.ofEpochSecond(today.ts).atZone(JP).toLocalDate();
+
+        if (lv.bars == null || !day.equals(lv.day)) {
+            // 首次或换日：取日线历史（去掉已包含的当日未完成 K 线），整段算一次指标
+            List<Bar> hist = new ArrayList<>(fetchChart1yDaily(lv.symbol).bars);
+            while (!hist.isEmpty()
+                    && !Instant.ofEpochSecond(hist.get(hist.size()-1).ts).atZone(JP).toLocalDate().isBefore(day)) {
+                hist.remove(hist.size()-1);
+            }
+            hist.add(today);
+            lv.bars = hist;
+            lv.day = day;
+            lv.ind = Indicators.of(hist);
+        } else {
+            lv.bars.set(lv.bars.size()-1, today);
+            lv.ind.updateLast(lv.bars);
+        }
+        if (lv.bars.size() < 60) return null;
+
+        Decision d = decide(lv.pos, lv.bars, lv.ind);
+        String key = d.action + "|" + String.join("；", d.reasons);
+        if (key.equals(lv.lastKey)) return null;
+        String prev = lv.lastKey == null ? "-" : lv.lastKey.substring(0, lv.lastKey.indexOf('|'));
+        lv.lastKey = key;
+        return String.format(Locale.US, "%s %s %.1f %s -> %s | %s",
+                LocalTime.now(JP).withNano(0), lv.symbol, today.close, prev, d.action, String.join("；", d.reasons));
+    }
+
+    // 当日 K 线（不走缓存）；无成交/数据不全时返回 null
+    static Bar fetchTodayBar(String symbol) throws IOException, InterruptedException {
+        String url = yahooBase()+"/v8/finance/chart/"+symbol+"?range=1d&interval=1d";
+        JsonNode res = getJson(url, symbol, false).path("chart").path("result").path(0);
+        JsonNode ts = res.path("timestamp");
+        if (ts.size() == 0) return null;
+        int i = ts.size() - 1;
+        JsonNode q = res.path("indicators").path("quote").path(0);
+        JsonNode meta = res.path("meta");
+        double cl = getNum(q, "close", i);
+        if (Double.isNaN(cl)) cl = meta.path("regularMarketPrice").asDouble(Double.NaN);
+        if (Double.isNaN(cl)) return null;
+        double o = getNum(q, "open", i), h = getNum(q, "high", i), l = getNum(q, "low", i);
+        double v = getNum(q, "volume", i);
+        if (Double.isNaN(o)) o = cl;
+        if (Double.isNaN(h)) h = meta.path("regularMarketDayHigh").asDouble(cl);
+        if (Double.isNaN(l)) l = meta.path("regularMarketDayLow").asDouble(cl);
+        if (Double.isNaN(v)) v = meta.path("regularMarketVolume").asDouble(0);
+        return new Bar(ts.get(i).asLong(), o, Math.max(h, cl), Math.min(l, cl), cl, (long) v);
+    }
+
+    // 距下一次开盘的毫秒数；交易时段内返回 0（午休也照常轮询，价格不变则不会有输出）
+    static long msUntilSession(long nowMs) {
+        ZonedDateTime now = Instant.ofEpochMilli(nowMs).atZone(JP);
+        boolean weekday = now.getDayOfWeek() != DayOfWeek.SATURDAY && now.getDayOfWeek() != DayOfWeek.SUNDAY;
+        LocalTime t = now.toLocalTime();
+        if (weekday && !t.isBefore(SESSION_OPEN) && !t.isAfter(SESSION_CLOSE)) return 0L;
+        LocalDate d = now.toLocalDate();
+        if (!weekday || t.isAfter(SESSION_CLOSE)) {
+            do { d = d.plusDays(1); }
+            while (d.getDayOfWeek() == DayOfWeek.SATURDAY || d.getDayOfWeek() == DayOfWeek.SUNDAY);
+        }
+        return Math.max(1000L, d.atTime(SESSION_OPEN).atZone(JP).toInstant().toEpochMilli() - nowMs);
     }
 
     // ====== Excel 读入（支持“层级”可选列） ======
@@ -168,22 +440,25 @@ public class TrendSellAdvisor {
                 p.lots.add(new Lot(ts, price, qty, level));
             }
 
-            for (Position p : map.values()) {
-                boolean allNull = p.lots.stream().allMatch(l -> l.level == null);
-                if (allNull) {
-                    p.lots.sort(Comparator.comparingLong(l -> l.buyTs));
-                    for (int i = 0; i < p.lots.size(); i++) p.lots.get(i).level = i;
-                } else {
-                    p.lots.sort(Comparator.<Lot, Integer>comparing(l -> l.level)
-                            .thenComparingLong(l -> l.buyTs));
-                }
-            }
+            for (Position p : map.values()) normalizeLevels(p);
         } catch (Exception e) {
             System.err.println("读取Excel出错: " + e.getMessage());
         }
         return new ArrayList<>(map.values());
     }
 
+    // 层级全空时按买入时间补 0,1,2…；否则按层级、买入时间排序（Excel 导入与持仓流水回放共用）
+    static void normalizeLevels(Position p) {
+        boolean allNull = p.lots.stream().allMatch(l -> l.level == null);
+        if (allNull) {
+            p.lots.sort(Comparator.comparingLong(l -> l.buyTs));
+            for (int i = 0; i < p.lots.size(); i++) p.lots.get(i).level = i;
+        } else {
+            p.lots.sort(Comparator.<Lot, Integer>comparing(l -> l.level, Comparator.nullsLast(Comparator.naturalOrder()))
+                    .thenComparingLong(l -> l.buyTs));
+        }
+    }
+
     static int findCol(Row header, String name) {
         for (int i=0;i<header.getLastCellNum();i++){
             String v = getString(header.getCell(i)).trim();
@@ -242,21 +517,24 @@ public class TrendSellAdvisor {
 
     static Chart fetchChart1yDaily(String symbol) throws Exception {
         String key = "chart:"+symbol;
-        CacheEntry<Chart> hit = CHART_CACHE.get(key);
-        if (hit!=null && hit.fresh()) return hit.val;
+        Chart hit = CHART_CACHE.get(key);
+        if (hit!=null) return hit;
+        Chart c;
         try{
-            Chart c = fetchChartFromYahoo(symbol);
-            CHART_CACHE.put(key, new CacheEntry<>(c));
-            return c;
+            c = fetchChartFromYahoo(symbol);
         }catch(IOException e){
-            Chart c = fetchChartFromStooq(symbol);
-            CHART_CACHE.put(key, new CacheEntry<>(c));
-            return c;
+            c = fetchChartFromStooq(symbol);
         }
+        CHART_CACHE.put(key, c, weightOf(c), expiryFor(System.currentTimeMillis()));
+        return c;
     }
 
     static Chart fetchChartFromYahoo(String symbol) throws IOException, InterruptedException {
-        String url = yahooBase()+"/v8/finance/chart/"+symbol+"?range=1y&interval=1d";
+        return fetchChartFromYahoo(symbol, "1y");
+    }
+
+    static Chart fetchChartFromYahoo(String symbol, String range) throws IOException, InterruptedException {
+        String url = yahooBase()+"/v8/finance/chart/"+symbol+"?range="+range+"&interval=1d";
         JsonNode root = getJson(url, symbol);
         JsonNode err  = root.path("chart").path("error");
         if (!err.isMissingNode() && !err.isNull()) throw new IOException("chart error");
@@ -308,22 +586,24 @@ public class TrendSellAdvisor {
     static double parseD(String s){ try{ return Double.parseDouble(s);}catch(Exception e){ return Double.NaN; } }
 
     static JsonNode getJson(String url, String symbol) throws IOException, InterruptedException {
-        CacheEntry<JsonNode> jh = JSON_CACHE.get(url);
-        if (jh!=null && jh.fresh()) return jh.val;
+        return getJson(url, symbol, true);
+    }
 
-        long wait = RATE_LIMIT_MS - (System.currentTimeMillis()-lastCallAt);
-        if (wait>0) Thread.sleep(wait);
+    // useCache=false：盘中报价，每次都要最新值，也不写入缓存
+    static JsonNode getJson(String url, String symbol, boolean useCache) throws IOException, InterruptedException {
+        JsonNode jh = useCache ? JSON_CACHE.get(url) : null;
+        if (jh!=null) return jh;
 
         IOException last = null;
         for (int i=0;i<=MAX_RETRY;i++){
-            lastCallAt = System.currentTimeMillis();
             Request req = new Request.Builder()
                     .url(url)
                     .header("User-Agent", UA)
                     .header("Accept","application/json")
                     .build();
 
-            try(Response resp = http.newCall(req).execute()){
+            PERMITS.acquire();
+            try(Response resp = throttled(req)){
                 int code = resp.code();
                 byte[] buf = (resp.body()!=null) ? resp.body().bytes() : new byte[0];
                 if (code==200){
@@ -337,7 +617,7 @@ public class TrendSellAdvisor {
                         continue;
                     }
                     JsonNode node = om.readTree(buf);
-                    JSON_CACHE.put(url,new CacheEntry<>(node));
+                    if (useCache) JSON_CACHE.put(url, node, (long) buf.length * JSON_WEIGHT_MULT, expiryFor(System.currentTimeMillis()));
                     return node;
                 }
                 if (code==401){
@@ -354,294 +634,30 @@ public class TrendSellAdvisor {
                 }
                 throw new IOException("HTTP "+code);
             }catch(IOException e){ last = e; }
+            finally { PERMITS.release(); }
         }
         throw (last!=null ? last : new IOException("request failed"));
     }
 
-    // ====== 指标 & 决策 ======
-    static Decision decide(Position pos, List<Bar> bars){
-        Decision d = new Decision(); d.action="HOLD";
-
-        Bar last = bars.get(bars.size()-1);
-        Bar prev = bars.get(bars.size()-2);
-
-        double m10 = sma(bars,10,-1), m15=sma(bars,15,-1), m20=sma(bars,20,-1);
-        double m40 = sma(bars,40,-1), m30=sma(bars,30,-1);
-        double a14 = atr(bars,14,-1);
-        double vma20 = avgVol(bars,20,-1);
-        double[] b20 = boll(bars,20,-1); double up=b20[1];
-        double r14 = rsi(bars,14,-1);
-
-        double avgCost = pos.avgCost();
-        double pnl = Double.isNaN(avgCost) ? Double.NaN : (last.close-avgCost)/avgCost;
-
-        // 层级 & “全清参考线”（LossMA用于CSV展示）
-        int adds = pos.addCount(); // 0=观察仓,1=一层仓,2+=两层及以上
-        double lossMA = (adds==0 ? m20 : (adds==1 ? m20 : m15)); // 全清线：0→20D，1→20D，2+→15D
-        d.refs.put("Adds", (double) adds);
-        d.refs.put("LossMA", lossMA);
-
-        // 1) 跳空/暴跌（快速风控）
-        // 1.1 大幅跳空跌破20D（昨收仍在20D上方）
-        if (!Double.isNaN(m20) && m20 > 0) {
-            // 昨日收盘在20D上方，说明20D还是有效支撑
-            boolean wasAbove20 = prev.close > m20;
-
-            // 相对20D向下跳空的幅度（正数=向下跳空）
-            double gapFrom20Pct = (m20 - last.open) / m20;
-
-            // 条件：昨天在20D上方 + 今天开盘相对20D向下跳空≥2% + 收盘仍在20D下方
-            if (wasAbove20 && gapFrom20Pct >= GAP_20D_MIN_PCT && last.close < m20) {
-                if (adds == 0) {
-                    // 观察仓：直接全清
-                    d.action = "SELL_ALL";
-                    d.reasons.add(String.format(
-                            Locale.US,
-                            "观察仓：Gap-down %.2f%% 跳空跌破20D并收在其下→全清",
-                            gapFrom20Pct * 100.0
-                    ));
-                } else {
-                    // 多层仓位：先减半，避免一次性砍光
-                    d.action = "SELL_1_2";
-                    d.reasons.add(String.format(
-                            Locale.US,
-                            "重仓：Gap-down %.2f%% 跳空跌破20D并收在其下→先减半",
-                            gapFrom20Pct * 100.0
-                    ));
-                }
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl);
-                return d;
-            }
-        }
-        if ((last.close-prev.close)/prev.close <= -0.04 && last.volume>=vma20){
-            d.action="SELL_1_2"; d.reasons.add("单日-4%且放量");
-            if (last.close<m20) d.reasons.add("收破20D");
-            fillRefs(d,m10,m15,m20,a14,r14,avgCost,pnl); return d;
-        }
-
-        // 试仓时间止损（Adds=0）
-        if (adds == 0 && !pos.lots.isEmpty()) {
-            Lot probe = null;
-            for (Lot l : pos.lots) { if (l.level != null && l.level == 0) { probe = l; break; } }
-            if (probe == null) { probe = pos.lots.get(0); }
-            int idxEntry = firstBarIndexAtOrAfter(bars, probe.buyTs);
-            if (idxEntry >= 0 && idxEntry < bars.size()-1) {
-                int daysSince = (bars.size()-1) - idxEntry;
-                double trigger20h = rollingHigh(bars, 20, -2);
-                double maxCloseSince = maxClose(bars, idxEntry, bars.size()-1);
-
-                boolean noBreakoutTooLong =
-                        daysSince >= PROBE_MAX_DAYS_NO_BREAKOUT
-                                && maxCloseSince < trigger20h
-                                && last.close < m10;
-
-                boolean noGainTooLong =
-                        daysSince >= PROBE_MAX_DAYS_NO_GAIN
-                                && (last.close - probe.buyPrice) / probe.buyPrice < PROBE_MIN_GAIN;
-
-                if (noBreakoutTooLong) {
-                    d.action = "SELL_ALL";
-                    d.reasons.add("试仓超时：10日未突破20H且低于10D");
-                    fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl); return d;
-                }
-                if (noGainTooLong) {
-                    d.action = "SELL_ALL";
-                    d.reasons.add("试仓超时：15日无进展(<+5%)");
-                    fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl); return d;
-                }
-            }
-        }
-
-        // 2) 分层均线止损（带0.3%缓冲）：按照你的规则
-        double buf = 0.997;
-        if (adds == 0) {
-            // 观察仓：跌破20D → 全清
-            if (last.close < m20 * buf) {
-                d.action = "SELL_ALL";
-                d.reasons.add("观察仓：收盘跌破20D");
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl); return d;
-            }
-        } else if (adds == 1) {
-            // 一层仓：先判断更严重的 20D，再判断 15D
-            if (last.close < m40 * buf) {
-                d.action = "SELL_ALL";
-                d.reasons.add("一层仓：收盘跌破40D→清仓");
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl); return d;
-            }
-            if (last.close < m30 * buf) {
-                d.action = "SELL_1_2";
-                d.reasons.add("一层仓：收盘跌破30D→减半");
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl); return d;
-            }
-        } else { // adds >= 2
-            // 两层及以上：先判断更严重的 15D，再判断 10D
-            if (last.close < m30 * buf) {
-                d.action = "SELL_ALL";
-                d.reasons.add("两层及以上：收盘跌破30D→清仓");
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl); return d;
-            }
-            if (last.close < m20 * buf) {
-                d.action = "SELL_1_2";
-                d.reasons.add("两层及以上：收盘跌破20D→减半");
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl); return d;
-            }
-        }
-        // 3.0 固定峰值回撤止盈（自最近买入后的最高点回撤 5%）
-        if (ENABLE_PEAK_DRAWDOWN_5PCT && !Double.isNaN(pnl) && pnl > 0) {
-            // 以“最近一次买入时间”为起点
-            int idxEntryPeak = firstBarIndexAtOrAfter(bars, pos.lastBuyTs());
-            if (idxEntryPeak < 0) idxEntryPeak = 0;
-
-            double peakSinceEntry = maxHigh(bars, idxEntryPeak, bars.size() - 1);
-            if (peakSinceEntry > 0) {
-                double ddFromPeak = (peakSinceEntry - last.close) / peakSinceEntry; // 相对最高点的回撤比例
-
-                if (ddFromPeak >= PEAK_DRAWDOWN_5PCT) {
-                    d.action = PEAK_DRAWDOWN_ACTION; // 默认 SELL_ALL，可在上面常量里改
-                    d.reasons.add(String.format(Locale.US,
-                            "固定峰值回撤止盈：自最近买入高点回撤 %.2f%% ≥ %.2f%%",
-                            ddFromPeak * 100.0, PEAK_DRAWDOWN_5PCT * 100.0));
-
-                    // 顺便把峰值和回撤记录到 refs 里，方便在 CSV 里看
-                    d.refs.put("PeakHigh", peakSinceEntry);
-                    d.refs.put("Drawdown%", ddFromPeak * 100.0);
-
-                    fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl);
-                    return d;
-                } else {
-                    // 即便未触发，也可以记录一下，方便调试 / 分析
-                    d.refs.put("PeakHigh", peakSinceEntry);
-                    d.refs.put("Drawdown%", ddFromPeak * 100.0);
-                }
-            }
-        }
-        // 3.1 浮盈回撤止盈
-        if (ENABLE_PROFIT_DRAWDOWN && !Double.isNaN(pnl) && pnl >= DD_PNL_ON) {
-            int idxEntry2 = firstBarIndexAtOrAfter(bars, pos.lastBuyTs());
-            if (idxEntry2 < 0) idxEntry2 = 0;
-            double peakH = maxHigh(bars, idxEntry2, bars.size()-1);
-            if (peakH > 0) {
-                double dd = (peakH - last.close) / peakH;
-                double ddAtr = DD_USE_ATR ? (DD_ATR_MULT * a14 / peakH) : 0.0;
-                double ddTrig = clamp(Math.max(DD_PCT_FLOOR, ddAtr), DD_PCT_MIN, DD_PCT_MAX);
-                if (dd >= ddTrig) {
-                    d.action = (pnl >= 0.20 ? "SELL_1_2" : "SELL_PCT_30");
-                    d.reasons.add(String.format(Locale.US,
-                            "浮盈回撤止盈：从峰值回撤 %.2f%% ≥ 阈值 %.2f%%",
-                            dd*100.0, ddTrig*100.0));
-                    fillRefs(d,m10,m15,m20,a14,r14,avgCost,pnl); return d;
-                }
-                d.refs.put("PeakHigh", peakH);
-                d.refs.put("Drawdown%", dd*100.0);
-                d.refs.put("DDTrig%", ddTrig*100.0);
-            }
-        }
-
-        // 3.2 动量衰减：RSI 顶背离 / MACD 柱体收缩
-// 3.2 动量衰减：RSI 顶背离 / MACD 柱体收缩（近3天出现≥2次才执行）
-        if (ENABLE_MOMENTUM_DECAY && bars.size() >= 60) {
-            int N = bars.size() - 1;
-
-            // —— RSI 顶背离：近3天内出现≥2次 ——
-            boolean rsiToday = rsiTopDivergenceAt(bars, N, RSI_DIV_WIN, RSI_PRICE_DELTA);
-            boolean rsiD1    = (N-1 >= 0) ? rsiTopDivergenceAt(bars, N-1, RSI_DIV_WIN, RSI_PRICE_DELTA) : false;
-            boolean rsiD2    = (N-2 >= 0) ? rsiTopDivergenceAt(bars, N-2, RSI_DIV_WIN, RSI_PRICE_DELTA) : false;
-
-            boolean rsiOk = rsiToday; // 默认允许“当天即触发”
-            if (MOM_USE_CONFIRM) {
-                int hits = (rsiToday?1:0) + (rsiD1?1:0) + (rsiD2?1:0);
-                rsiOk = hits >= MOM_CONFIRM_MIN_HITS;
-            }
-            if (rsiOk) {
-                d.action = "TRIM_1_3"; // 减1/3
-                d.reasons.add(MOM_USE_CONFIRM
-                        ? "动量衰减：顶背离（3天内≥2次确认）"
-                        : "动量衰减：顶背离");
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl);
-                return d;
-            }
-
-            // —— MACD 柱体收缩（正区）：近3天内出现≥2次 ——
-            boolean macdToday = macdContractionAt(bars, N,     MACD_HIST_DOWN_DAYS, MACD_HIST_DROP_RATIO);
-            boolean macdD1    = (N-1 >= 0) ? macdContractionAt(bars, N-1, MACD_HIST_DOWN_DAYS, MACD_HIST_DROP_RATIO) : false;
-            boolean macdD2    = (N-2 >= 0) ? macdContractionAt(bars, N-2, MACD_HIST_DOWN_DAYS, MACD_HIST_DROP_RATIO) : false;
-
-            boolean macdOk = macdToday;
-            if (MOM_USE_CONFIRM) {
-                int hits = (macdToday?1:0) + (macdD1?1:0) + (macdD2?1:0);
-                macdOk = hits >= MOM_CONFIRM_MIN_HITS;
-            }
-            if (macdOk) {
-                d.action = "SELL_PCT_30"; // 卖30%
-                d.reasons.add(MOM_USE_CONFIRM
-                        ? "动量衰减：MACD柱体连续收缩（3天内≥2次确认）"
-                        : "动量衰减：MACD柱体连续收缩");
-                fillRefs(d, m10, m15, m20, a14, r14, avgCost, pnl);
-                return d;
-            }
-        }
-
-        // 3.3 尾盘回落代理（高-收回落+放量+大阳日）
-        if (ENABLE_LATE_PULLBACK_PROXY) {
-            double dayGain = (last.close - prev.close) / prev.close;
-            double backFromHigh = (last.high > 0) ? (last.high - last.close) / last.high : 0.0;
-            boolean volUp = last.volume >= vma20 * LP_VOL_MULT;
-            if (dayGain >= LP_MIN_DAY_GAIN && backFromHigh >= LP_FROM_HIGH_PCT && volUp) {
-                d.action = "SELL_PCT_" + LP_SELL_PCT;
-                d.reasons.add(String.format(Locale.US,
-                        "尾盘回落代理：当日涨幅%.2f%%、距高点回落%.2f%%、放量≥%.2fx",
-                        dayGain*100.0, backFromHigh*100.0, LP_VOL_MULT));
-                fillRefs(d,m10,m15,m20,a14,r14,avgCost,pnl); return d;
-            }
-        }
-
-        // 3.x ATR 追踪止盈（分档止盈）
-        double trail = calcTrail(pnl, last.close, a14, m10, m15, m20);
-        d.refs.put("trail", trail);
-        if (last.close < trail*buf){
-            if (!Double.isNaN(pnl) && pnl >= 0.20) {
-                d.action="SELL_1_2";  // 收益高 → 卖多点
-            } else if (!Double.isNaN(pnl) && pnl >= 0.10) {
-                d.action="TRIM_1_3";  // 中等收益 → 卖1/3
-            } else {
-                d.action="SELL_1_4";  // 低收益 → 卖1/4
-            }
-            d.reasons.add("跌破ATR追踪线（分档止盈）");
-            fillRefs(d,m10,m15,m20,a14,r14,avgCost,pnl); return d;
-        }
-
-        // 3.4 情景化时间止盈
-        if (ENABLE_TIME_TP) {
-            int idxEntry3 = firstBarIndexAtOrAfter(bars, pos.lastBuyTs());
-            if (idxEntry3 < 0) idxEntry3 = 0;
-            int daysHeld = (bars.size()-1) - idxEntry3;
-            double rh20 = rollingHigh(bars, TIME_TP_LOOKBACK, -1);
-            boolean notMakingHigh = last.close < rh20; // 近20日未创新高
-            if (daysHeld >= TIME_TP_DAYS && notMakingHigh) {
-                d.action = "SELL_PCT_" + TIME_TP_SELL_PCT;
-                d.reasons.add(String.format(Locale.US,
-                        "时间止盈：持仓≥%d日且未创新高，先减%s%%",
-                        TIME_TP_DAYS, String.valueOf(TIME_TP_SELL_PCT)));
-                fillRefs(d,m10,m15,m20,a14,r14,avgCost,pnl); return d;
-            }
+    static Response throttled(Request req) throws IOException, InterruptedException {
+        while (true) {
+            long prev = LAST_CALL_AT.get();
+            long now = System.currentTimeMillis();
+            long wait = RATE_LIMIT_MS - (now - prev);
+            if (wait > 0) { Thread.sleep(wait); continue; }
+            if (LAST_CALL_AT.compareAndSet(prev, now)) break;
         }
+        return http.newCall(req).execute();
+    }
 
-        // 4) 逢强先减（保留）
-        if (last.close>up && prev.close>up && r14>=78){
-            d.action="TRIM_1_3"; d.reasons.add("布林上轨外连收 + RSI高位");
-            fillRefs(d,m10,m15,m20,a14,r14,avgCost,pnl); return d;
-        }
-
-        // 5) 买回提示 & 市场顺风标识（保留）
-        boolean reAdd = (last.close>m10 && last.volume>=vma20);
-        d.refs.put("readdSignal", reAdd?1.0:0.0);
-
-        boolean mktOk = !USE_MARKET_TAILWIND || marketTailwind(bars);
-        d.refs.put("marketOK", mktOk?1.0:0.0);
+    // ====== 指标 & 决策 ======
+    static Decision decide(Position pos, List<Bar> bars){
+        return decide(pos, bars, Indicators.of(bars));
+    }
 
-        d.reasons.add("趋势完好（≥10/15/20D）");
-        fillRefs(d,m10,m15,m20,a14,r14,avgCost,pnl);
-        return d;
+    // 规则表见 SellRules（优先级/开关/参数可调）；ind 必须与 bars 对应，盘中模式下只刷新最后一格
+    static Decision decide(Position pos, List<Bar> bars, Indicators ind){
+        return SellRules.DEFAULT.evaluate(pos, bars, ind);
     }
 
     static boolean needsSell(String action){
@@ -675,6 +691,10 @@ public class TrendSellAdvisor {
             target = 0L;
         }
 
+        return allocateLifo(pos, target);
+    }
+
+    static List<LotSell> allocateLifo(Position pos, long target) {
         List<LotSell> plan = new ArrayList<>();
         if (target <= 0) return plan;
 
@@ -696,11 +716,12 @@ public class TrendSellAdvisor {
         return Math.max(m10, close - 1.3*atr14);
     }
 
-    static boolean marketTailwind(List<Bar> bars){
-        if (bars.size()<210) return true;
-        Bar last = bars.get(bars.size()-1);
-        double m50=sma(bars,50,-1), m200=sma(bars,200,-1), m200_prev=sma(bars,200,-2);
-        return last.close>m50 && last.close>m200 && (m200 - m200_prev) > 0;
+    // 基准均线顺风 + （可选）宽度健康；宽度文件缺失或过旧时只看基准
+    static boolean marketOk(long epochSec){
+        if (!MarketRegime.shared().tailwindAt(epochSec)) return false;
+        if (!USE_MARKET_BREADTH) return true;
+        MarketBreadth.Snapshot b = MarketBreadth.asOf(Instant.ofEpochSecond(epochSec).atZone(JP).toLocalDate());
+        return b == null || b.healthy();
     }
 
     // ====== 指标函数 ======
@@ -761,6 +782,7 @@ public class TrendSellAdvisor {
     static class Chart { String symbol; List<Bar> bars = new ArrayList<>(); }
     static class Lot {
         long buyTs; double buyPrice; int qty; Integer level;
+        long id;   // 持仓流水中的编号；不来自流水时为 0
         Lot(long t,double p,int q,Integer lv){ buyTs=t; buyPrice=p; qty=q; level=lv; }
     }
     static class Position {
@@ -780,6 +802,7 @@ public class TrendSellAdvisor {
     }
     static class Decision {
         String action; List<String> reasons = new ArrayList<>();
+        String rule;   // 触发的规则 id（SellRules）；未触发为 null
         Map<String,Double> refs = new LinkedHashMap<>();
         List<LotSell> sellPlan = Collections.emptyList();
     }
@@ -814,24 +837,25 @@ public class TrendSellAdvisor {
         double[] arr = new double[N];
         Arrays.fill(arr, Double.NaN);
         if (N <= n) return arr;
-        for (int end=n; end<N; end++){
-            double up=0,dn=0;
-            for (int i=end-n+1;i<=end;i++){
-                double chg = bars.get(i).close - bars.get(i-1).close;
-                if (chg>0) up+=chg; else dn-=chg;
-            }
-            if (up+dn==0) arr[end]=50;
-            else {
-                double rs = (up/n)/((dn/n)+1e-9);
-                arr[end] = 100 - 100/(1+rs);
-            }
-        }
+        for (int end=n; end<N; end++) arr[end] = rsiAt(bars, end, n);
         return arr;
     }
+    static double rsiAt(List<Bar> bars, int end, int n){
+        double up=0,dn=0;
+        for (int i=end-n+1;i<=end;i++){
+            double chg = bars.get(i).close - bars.get(i-1).close;
+            if (chg>0) up+=chg; else dn-=chg;
+        }
+        if (up+dn==0) return 50;
+        double rs = (up/n)/((dn/n)+1e-9);
+        return 100 - 100/(1+rs);
+    }
     // 在指定索引 idx 判定是否出现“RSI 顶背离”
     static boolean rsiTopDivergenceAt(List<Bar> bars, int idx, int win, double priceDelta) {
+        return rsiTopDivergenceAt(bars, rsiSeries(bars, 14), idx, win, priceDelta);
+    }
+    static boolean rsiTopDivergenceAt(List<Bar> bars, double[] rsiArr, int idx, int win, double priceDelta) {
         if (idx <= 3 || idx >= bars.size()) return false;
-        double[] rsiArr = rsiSeries(bars, 14);
         int start = Math.max(0, idx - win - 5);
         int prevHighIdx = start;
         for (int i = start; i <= idx - 3; i++) {
@@ -845,17 +869,66 @@ public class TrendSellAdvisor {
 
     // 在指定索引 idx 判定是否“MACD柱体正区连续收缩，并且总收缩≥阈值”
     static boolean macdContractionAt(List<Bar> bars, int idx, int downDays, double dropRatio) {
-        if (idx <= downDays || idx >= bars.size()) return false;
-        Macd M = macd(bars);
-        if (M.hist[idx] <= 0) return false; // 只在正区考虑收缩
+        return macdContractionAt(macd(bars).hist, idx, downDays, dropRatio);
+    }
+    static boolean macdContractionAt(double[] hist, int idx, int downDays, double dropRatio) {
+        if (idx <= downDays || idx >= hist.length) return false;
+        if (hist[idx] <= 0) return false; // 只在正区考虑收缩
         for (int i = idx - downDays + 1; i <= idx; i++) {
-            if (!(M.hist[i] < M.hist[i - 1])) return false; // 必须天天变小
+            if (!(hist[i] < hist[i - 1])) return false; // 必须天天变小
         }
-        double base = M.hist[idx - downDays];
-        double drop = (base - M.hist[idx]) / (Math.abs(base) + 1e-9);
+        double base = hist[idx - downDays];
+        double drop = (base - hist[idx]) / (Math.abs(base) + 1e-9);
         return drop >= dropRatio;
     }
 
+    /**
+     * decide 用到的整段序列指标（RSI14 序列、MACD 柱）。历史部分只算一次；
+     * 盘中只有最后一根 K 线在变，updateLast 用保存的 EMA 状态 O(1) 刷新最后一格。
+     */
+    static final class Indicators {
+        double[] rsi14, hist;
+        double[][] series;          // SellRules.precompute 按规则依赖预算的逐日序列（下标 = SellRules.Ind 序号）；盘中不用
+        double ema12, ema26, dea;   // 截至倒数第二根的 EMA 状态
+        boolean hasPrev;
+
+        static Indicators of(List<Bar> bars) {
+            Indicators ind = new Indicators();
+            int N = bars.size();
+            ind.rsi14 = rsiSeries(bars, 14);
+            ind.hist = new double[N];
+            double k12 = 2.0/(12+1), k26 = 2.0/(26+1), k9 = 2.0/(9+1);
+            double ema12 = 0, ema26 = 0, dea = 0;
+            for (int i=0;i<N;i++){
+                if (i == N-1) { ind.ema12=ema12; ind.ema26=ema26; ind.dea=dea; ind.hasPrev = i>0; }
+                double c = bars.get(i).close;
+                if (i==0){
+                    ema12=c; ema26=c; dea=0; ind.hist[i]=0;
+                }else{
+                    ema12 = ema12 + k12*(c - ema12);
+                    ema26 = ema26 + k26*(c - ema26);
+                    double dif = ema12 - ema26;
+                    dea = dea + k9*(dif - dea);
+                    ind.hist[i] = dif - dea;
+                }
+            }
+            return ind;
+        }
+
+        /** bars 的长度不变、仅最后一根被替换时调用 */
+        void updateLast(List<Bar> bars) {
+            int N = bars.size();
+            if (N == 0) return;
+            double c = bars.get(N-1).close;
+            if (N > 14) rsi14[N-1] = rsiAt(bars, N-1, 14);
+            if (!hasPrev) { hist[N-1] = 0; return; }
+            double e12 = ema12 + 2.0/(12+1)*(c - ema12);
+            double e26 = ema26 + 2.0/(26+1)*(c - ema26);
+            double dif = e12 - e26;
+            hist[N-1] = dif - (dea + 2.0/(9+1)*(dif - dea));
+        }
+    }
+
     static class Macd { double[] dif, dea, hist; }
     static Macd macd(List<Bar> bars){
         int N = bars.size();
@@ -936,12 +1009,14 @@ public class TrendSellAdvisor {
     static void writeCsv(List<DecisionRow> rows, String path) throws IOException {
         path=path+"_"+LocalDate.now().toString()+".csv";
         try(PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8))){
-            pw.println("Symbol,Date,LastClose,LastVol,AvgCost,TotalQty,Action,Reason,M10,M15,M20,ATR14,RSI14,Trail,LossMA,Adds,MarketOK,ReAddSignal,SellPlan");
+            // Name/Sector 后加，放在行尾：按列号读旧格式的下游不受影响
+            pw.println("Symbol,Date,LastClose,LastVol,AvgCost,TotalQty,Action,Reason,M10,M15,M20,ATR14,RSI14,Trail,LossMA,Adds,MarketOK,ReAddSignal,SellPlan,Name,Sector");
             for (DecisionRow r : rows){
-                pw.printf(Locale.US,"%s,%s,%.2f,%d,%.2f,%d,%s,%s,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%d,%d,%s%n",
+                pw.printf(Locale.US,"%s,%s,%.2f,%d,%.2f,%d,%s,%s,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%d,%d,%s,%s,%s%n",
                         r.symbol, nvl(r.date), r.lastClose, r.lastVol, r.avgCost, r.totalQty,
                         r.action, csvSafe(r.reason), r.m10,r.m15,r.m20,r.atr,r.rsi,r.trail,
-                        r.lossMA, r.adds, r.marketOK, r.readd, csvSafe(r.sellPlan));
+                        r.lossMA, r.adds, r.marketOK, r.readd, csvSafe(r.sellPlan),
+                        csvSafe(UniverseIndex.shared().nameOf(r.symbol)), csvSafe(UniverseIndex.shared().sectorOf(r.symbol)));
             }
         }
     }
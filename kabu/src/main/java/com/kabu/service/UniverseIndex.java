@@ -0,0 +1,342 @@
+package com.kabu.service;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * JPX 上市銘柄一覧（202310.xlsx）的紧凑二进制索引（universe.idx）。
+ *
+ * 布局（小端，与 kbc 一致）：
+ * <pre>
+ *   magic "KBUNIv2\n"(8) | srcCrc32:long | srcLength:long | srcMtime:long | rowCount:int | dictSize:int
+ *   字典 × dictSize: len:short | UTF-8            （市场区分 / 33 业种 / 规模区分共用）
+ *   行 × rowCount（按 code 升序）: code:int | market:short | sector:short | topix:short | flags:byte
+ *                                  | nameLen:short | name(UTF-8)
+ * </pre>
+ * 启动时先比较源文件的大小与修改时间，都没变就只读这个几十 KB 的文件，不碰 xlsx；
+ * 变了才读源文件算 CRC：内容相同只更新时间戳，不同才用 POI 重建。
+ * 代码编码为 int：纯数字按十进制（7203），含字母的新代码（219A）为 1_000_000 + 36 进制。
+ *
+ * 兼容 Java 11。
+ */
+public final class UniverseIndex {
+
+    static final byte[] MAGIC = "KBUNIv2\n".getBytes(StandardCharsets.US_ASCII);
+    static final String INDEX_FILE = "universe.idx";
+    static final int ALNUM_BASE = 1_000_000;
+
+    // JPX 一覧的列：日付 | コード | 銘柄名 | 市場・商品区分 | 33業種コード | 33業種区分 | 17業種コード | 17業種区分 | 規模コード | 規模区分
+    static final int CODE_COL = 1, NAME_COL = 2, MKT_COL = 3, SECTOR_COL = 5, TOPIX_COL = 9;
+
+    static final byte F_SCREEN = 1; // 通过原有筛选：内国株式、非 ETF/REIT/优先股等
+
+    public static final class Entry {
+        public final int code;
+        public final String name, market, sector, topix;
+        final byte flags;
+
+        Entry(int code, String name, String market, String sector, String topix, byte flags) {
+            this.code = code; this.name = name; this.market = market; this.sector = sector; this.topix = topix; this.flags = flags;
+        }
+
+        public String symbol() { return decodeCode(code); }
+
+        public boolean screened() { return (flags & F_SCREEN) != 0; }
+    }
+
+    private static UniverseIndex shared;
+
+    private final int[] codes;       // 升序，二分查找
+    private final Entry[] entries;
+
+    private UniverseIndex(Entry[] sorted) {
+        this.entries = sorted;
+        this.codes = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) codes[i] = sorted[i].code;
+    }
+
+    /**
+     * 进程内共享实例。源文件（classpath 资源或当前目录）的大小与修改时间与索引头一致时直接加载索引；
+     * 不一致时按 CRC 判断内容是否真的变了，变了才解析 xlsx 重建并写回。源文件缺失时用已有索引；两者都没有时为空索引。
+     */
+    public static synchronized UniverseIndex shared() {
+        if (shared == null) shared = load(TrendScreener.EXCEL_FILE, Paths.get(INDEX_FILE));
+        return shared;
+    }
+
+    static UniverseIndex load(String source, Path indexPath) {
+        long[] stat = statSource(source);
+        ByteBuffer b = null;
+        try {
+            if (Files.exists(indexPath)) {
+                b = ByteBuffer.wrap(Files.readAllBytes(indexPath)).order(ByteOrder.LITTLE_ENDIAN);
+                checkMagic(b);
+                // 大小与修改时间都没变（或源文件缺失）：不读 xlsx
+                if (stat == null || (stat[1] > 0 && headerLength(b) == stat[0] && headerMtime(b) == stat[1])) return decode(b, indexPath);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("股票池索引损坏，重建: " + e.getMessage());
+            b = null;
+        }
+        byte[] src = readSource(source);
+        if (src == null) {
+            System.err.println("资源 " + source + " 未找到（请放到 src/main/resources/ 下）");
+            return new UniverseIndex(new Entry[0]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(src);
+        long mtime = stat != null ? stat[1] : 0L;
+        try {
+            // 只是修改时间变了（重新拷贝/检出）：内容相同就沿用索引，只把新的时间戳写回
+            if (b != null && headerCrc(b) == crc.getValue() && headerLength(b) == src.length) {
+                UniverseIndex idx = decode(b, indexPath);
+                idx.write(indexPath, crc.getValue(), src.length, mtime);
+                return idx;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("股票池索引损坏，重建: " + e.getMessage());
+        }
+        try {
+            UniverseIndex idx = new UniverseIndex(parseExcel(src));
+            idx.write(indexPath, crc.getValue(), src.length, mtime);
+            System.out.println("已重建股票池索引 -> " + indexPath + " (" + idx.size() + " 行)");
+            return idx;
+        } catch (Exception e) {
+            System.err.println("读取 Excel 文件出错: " + e.getMessage());
+            return new UniverseIndex(new Entry[0]);
+        }
+    }
+
+    /** 源文件的 {长度, 修改时间(ms)}，不读内容；找不到为 null，时间未知为 0（此时总按 CRC 判断） */
+    private static long[] statSource(String source) {
+        try {
+            URL u = UniverseIndex.class.getClassLoader().getResource(source);
+            if (u != null && "file".equals(u.getProtocol())) {
+                Path p = Paths.get(u.toURI());
+                return new long[]{Files.size(p), Files.getLastModifiedTime(p).toMillis()};
+            }
+            if (u != null) {
+                URLConnection c = u.openConnection();   // jar 内资源：条目长度 + jar 的修改时间
+                return new long[]{c.getContentLengthLong(), Math.max(0L, c.getLastModified())};
+            }
+            Path p = Paths.get(source);
+            return Files.exists(p) ? new long[]{Files.size(p), Files.getLastModifiedTime(p).toMillis()} : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static byte[] readSource(String source) {
+        try (InputStream is = UniverseIndex.class.getClassLoader().getResourceAsStream(source)) {
+            if (is != null) return is.readAllBytes();
+        } catch (IOException ignored) {}
+        try {
+            Path p = Paths.get(source);
+            return Files.exists(p) ? Files.readAllBytes(p) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // ====== 查询 ======
+
+    public int size() { return entries.length; }
+
+    /** 接受 7203 / 7203.T / 219A.T；找不到返回 null */
+    public Entry find(String symbol) {
+        if (symbol == null) return null;
+        String s = symbol.trim();
+        int dot = s.indexOf('.');
+        if (dot >= 0) s = s.substring(0, dot);
+        int code = encodeCode(s);
+        if (code < 0) return null;
+        int i = Arrays.binarySearch(codes, code);
+        return i >= 0 ? entries[i] : null;
+    }
+
+    /** 名称；未收录时返回代码本身（与原 CsvRow.name 的退化行为一致） */
+    public String nameOf(String symbol) {
+        Entry e = find(symbol);
+        return e == null ? symbol : e.name;
+    }
+
+    /** 33 业种；未收录或“-”时返回空串 */
+    public String sectorOf(String symbol) {
+        Entry e = find(symbol);
+        return e == null || "-".equals(e.sector) ? "" : e.sector;
+    }
+
+    /** TrendScreener 的股票池：通过筛选的代码（升序、不带 .T） */
+    public List<String> screenSymbols() {
+        List<String> out = new ArrayList<>();
+        for (Entry e : entries) if (e.screened()) out.add(e.symbol());
+        return out;
+    }
+
+    // ====== 代码编码 ======
+
+    static int encodeCode(String s) {
+        if (s.isEmpty() || s.length() > 5) return -1;
+        boolean digits = true;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') digits = false;
+            if (!Character.isLetterOrDigit(ch) || ch > 0x7f) return -1;
+        }
+        return digits ? Integer.parseInt(s) : ALNUM_BASE + Integer.parseInt(s, 36);
+    }
+
+    static String decodeCode(int code) {
+        return code < ALNUM_BASE ? String.valueOf(code) : Integer.toString(code - ALNUM_BASE, 36).toUpperCase(Locale.ROOT);
+    }
+
+    // ====== 由 xlsx 构建 ======
+
+    static Entry[] parseExcel(byte[] src) throws IOException {
+        Map<Integer, Entry> byCode = new TreeMap<>();
+        int total = 0, kept = 0, dropNotDomestic = 0, dropEtfReit = 0, dropBadCode = 0;
+        try (Workbook wb = WorkbookFactory.create(new ByteArrayInputStream(src))) {
+            Sheet sheet = wb.getSheetAt(0);
+            for (int i = 1; i <= sheet.getLastRowNum(); i++) { // 跳过表头
+                Row row = sheet.getRow(i);
+                if (row == null) continue;
+                total++;
+
+                String code  = cell(row, CODE_COL);
+                String name  = cell(row, NAME_COL);
+                String mkt   = cell(row, MKT_COL);
+                String sect  = cell(row, SECTOR_COL);
+                String topix = cell(row, TOPIX_COL);
+
+                int c = encodeCode(code);
+                if (c < 0) { dropBadCode++; continue; }
+
+                byte flags = 0;
+                String nLower = name.toLowerCase(Locale.ROOT);
+                if (!mkt.contains("内国株式")) {
+                    dropNotDomestic++;
+                } else if (nLower.contains("etf") || name.contains("上場投信") || name.contains("投資法人") || name.contains("リート")
+                        || nLower.contains("reit") || name.contains("優先") || name.contains("受益証券")) {
+                    dropEtfReit++;
+                } else {
+                    flags |= F_SCREEN;
+                    kept++;
+                }
+                byCode.put(c, new Entry(c, name, mkt, sect, topix, flags));
+            }
+        }
+        System.out.printf(Locale.ROOT,
+                "Excel 总行=%d, 选中=%d, 丢弃: 代码无效=%d, 非内国株=%d, ETF/REIT等=%d%n",
+                total, kept, dropBadCode, dropNotDomestic, dropEtfReit);
+        return byCode.values().toArray(new Entry[0]);
+    }
+
+    private static String cell(Row row, int col) {
+        Cell c = row.getCell(col);
+        if (c == null) return "";
+        switch (c.getCellType()) {
+            case STRING:  return c.getStringCellValue().trim();
+            case NUMERIC: return String.valueOf((long) c.getNumericCellValue());
+            case BOOLEAN: return String.valueOf(c.getBooleanCellValue());
+            default:      return "";
+        }
+    }
+
+    // ====== 读写索引 ======
+
+    private void write(Path path, long crc, long length, long mtime) throws IOException {
+        Map<String, Integer> dict = new LinkedHashMap<>();
+        for (Entry e : entries) {
+            dict.putIfAbsent(e.market, dict.size());
+            dict.putIfAbsent(e.sector, dict.size());
+            dict.putIfAbsent(e.topix, dict.size());
+        }
+        int cap = 8 + 8 + 8 + 8 + 4 + 4;
+        List<byte[]> dictBytes = new ArrayList<>(dict.size());
+        for (String s : dict.keySet()) { byte[] b = s.getBytes(StandardCharsets.UTF_8); dictBytes.add(b); cap += 2 + b.length; }
+        byte[][] names = new byte[entries.length][];
+        for (int i = 0; i < entries.length; i++) {
+            names[i] = entries[i].name.getBytes(StandardCharsets.UTF_8);
+            cap += 4 + 2 + 2 + 2 + 1 + 2 + names[i].length;
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(cap).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(MAGIC).putLong(crc).putLong(length).putLong(mtime).putInt(entries.length).putInt(dict.size());
+        for (byte[] s : dictBytes) b.putShort((short) s.length).put(s);
+        for (int i = 0; i < entries.length; i++) {
+            Entry e = entries[i];
+            b.putInt(e.code)
+                    .putShort(dict.get(e.market).shortValue())
+                    .putShort(dict.get(e.sector).shortValue())
+                    .putShort(dict.get(e.topix).shortValue())
+                    .put(e.flags)
+                    .putShort((short) names[i].length).put(names[i]);
+        }
+        Path tmp = Paths.get(path + ".tmp");
+        Files.write(tmp, b.array());
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void checkMagic(ByteBuffer b) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (b.get(i) != MAGIC[i]) throw new IOException("不是股票池索引文件");
+        }
+    }
+
+    private static long headerCrc(ByteBuffer b) throws IOException { checkMagic(b); return b.getLong(8); }
+
+    private static long headerLength(ByteBuffer b) { return b.getLong(16); }
+
+    private static long headerMtime(ByteBuffer b) { return b.getLong(24); }
+
+    private static UniverseIndex decode(ByteBuffer b, Path path) throws IOException {
+        checkMagic(b);
+        b.position(32);
+        int n = b.getInt();
+        String[] dict = new String[b.getInt()];
+        for (int i = 0; i < dict.length; i++) dict[i] = str(b);
+        Entry[] es = new Entry[n];
+        for (int i = 0; i < n; i++) {
+            int code = b.getInt();
+            String mkt = dict[b.getShort()], sect = dict[b.getShort()], topix = dict[b.getShort()];
+            byte flags = b.get();
+            es[i] = new Entry(code, str(b), mkt, sect, topix, flags);
+        }
+        return new UniverseIndex(es);
+    }
+
+    private static String str(ByteBuffer b) {
+        int len = b.getShort() & 0xFFFF;
+        String s = new String(b.array(), b.position(), len, StandardCharsets.UTF_8);
+        b.position(b.position() + len);
+        return s;
+    }
+
+    // 用法: java UniverseIndex [代码...]   —— 不带参数时打印统计；源文件变化时自动重建
+    public static void main(String[] args) {
+        long t0 = System.nanoTime();
+        UniverseIndex idx = shared();
+        System.out.printf(Locale.ROOT, "股票池索引: %d 行, 筛选后 %d 只, 加载 %.1f ms%n",
+                idx.size(), idx.screenSymbols().size(), (System.nanoTime() - t0) / 1e6);
+        for (String a : args) {
+            Entry e = idx.find(a);
+            System.out.println(e == null ? a + "\t未收录"
+                    : e.symbol() + "\t" + e.name + "\t" + e.market + "\t" + e.sector + "\t" + e.topix);
+        }
+    }
+}